@@ -1,7 +1,9 @@
 package com.sherlook.search;
 
 import com.sherlook.search.crawler.Crawler;
+import com.sherlook.search.index.InvertedIndex;
 import com.sherlook.search.indexer.Indexer;
+import com.sherlook.search.ranker.PageRankCache;
 import com.sherlook.search.ranker.Ranker;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
@@ -38,6 +40,11 @@ public class Application {
           break;
 
         case "serve":
+          InvertedIndex invertedIndex = context.getBean(InvertedIndex.class);
+          invertedIndex.load();
+          PageRankCache pageRankCache = context.getBean(PageRankCache.class);
+          pageRankCache.load();
+
           System.out.println("Ready to serve");
           break;
 
@@ -0,0 +1,166 @@
+package com.sherlook.search.crawler;
+
+import com.sherlook.search.utils.ConsoleColors;
+import com.sherlook.search.utils.DatabaseHelper;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jsoup.Jsoup;
+import org.jsoup.UnsupportedMimeTypeException;
+import org.jsoup.nodes.Document;
+
+// Non-blocking fetcher: a single dispatcher thread keeps up to maxInFlight requests open on
+// an async HttpClient. Admission checks (database, robots.txt) run on a small I/O pool, and
+// parsing plus storing the page on a pool sized to the CPU count. The per-page logic is
+// shared with the blocking fetcher through CrawlTask.
+public class AsyncFetcher {
+  private static final String NAME = "AsyncFetcher";
+
+  private final PersistentQueue urlQueue;
+  private final DatabaseHelper databaseHelper;
+  private final CrawlTask pageProcessor;
+  private final int maxPages;
+  private final int maxInFlight;
+  private final int ioThreads;
+  private final int parseThreads;
+
+  private final AtomicInteger inFlight = new AtomicInteger();
+
+  public AsyncFetcher(
+      PersistentQueue urlQueue,
+      DatabaseHelper databaseHelper,
+      CrawlTask pageProcessor,
+      int maxPages,
+      int maxInFlight,
+      int ioThreads,
+      int parseThreads) {
+    this.urlQueue = urlQueue;
+    this.databaseHelper = databaseHelper;
+    this.pageProcessor = pageProcessor;
+    this.maxPages = maxPages;
+    this.maxInFlight = Math.max(1, maxInFlight);
+    this.ioThreads = Math.max(1, ioThreads);
+    this.parseThreads =
+        parseThreads > 0 ? parseThreads : Runtime.getRuntime().availableProcessors();
+  }
+
+  public void run() throws InterruptedException {
+    ExecutorService ioPool = Executors.newFixedThreadPool(ioThreads);
+    ExecutorService parsePool = Executors.newFixedThreadPool(parseThreads);
+    HttpClient client =
+        HttpClient.newBuilder()
+            .connectTimeout(Duration.ofMillis(CrawlTask.TIMEOUT_MS))
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .executor(ioPool)
+            .build();
+    Semaphore permits = new Semaphore(maxInFlight);
+
+    ConsoleColors.printInfo(NAME);
+    System.out.println(
+        "Fetching with up to "
+            + maxInFlight
+            + " requests in flight, "
+            + parseThreads
+            + " parser threads");
+
+    try {
+      while (databaseHelper.getCrawledPagesCount() < maxPages) {
+        permits.acquire();
+
+        // Nothing in flight means nothing can add to the queue while we wait on it
+        boolean idle = inFlight.get() == 0;
+        UrlDepthPair pair = urlQueue.poll(idle ? 10 : 1, TimeUnit.SECONDS);
+        if (pair == null) {
+          permits.release();
+          if (idle && urlQueue.size() == 0) {
+            ConsoleColors.printWarning(NAME);
+            System.out.println("No URLs to crawl. Exiting.");
+            break;
+          }
+          continue;
+        }
+
+        inFlight.incrementAndGet();
+        fetch(client, pair, ioPool, parsePool)
+            .whenComplete(
+                (ignored, e) -> {
+                  if (e != null) {
+                    pageProcessor.handleError(
+                        e instanceof CompletionException ? e.getCause() : e, NAME);
+                  }
+                  inFlight.decrementAndGet();
+                  permits.release();
+                });
+      }
+
+      if (databaseHelper.getCrawledPagesCount() >= maxPages) {
+        ConsoleColors.printSuccess(NAME);
+        System.out.println("Max pages crawled. Stopping.");
+      }
+
+      // Let the requests that are still open finish
+      permits.acquire(maxInFlight);
+    } finally {
+      ioPool.shutdown();
+      parsePool.shutdown();
+      parsePool.awaitTermination(1, TimeUnit.MINUTES);
+    }
+  }
+
+  private CompletableFuture<Void> fetch(
+      HttpClient client, UrlDepthPair pair, ExecutorService ioPool, ExecutorService parsePool) {
+    // The queue only hands out URLs whose host is ready, so requests can go out right away
+    return CompletableFuture.supplyAsync(() -> pageProcessor.admit(pair, NAME), ioPool)
+        .thenCompose(
+            url -> {
+              if (url == null) return CompletableFuture.completedFuture(null);
+              return client
+                  .sendAsync(request(url), HttpResponse.BodyHandlers.ofString())
+                  .thenAcceptAsync(response -> store(pair, url, response), parsePool);
+            });
+  }
+
+  private static HttpRequest request(String url) {
+    return HttpRequest.newBuilder(URI.create(url))
+        .timeout(Duration.ofMillis(CrawlTask.TIMEOUT_MS))
+        .header("User-Agent", CrawlTask.USER_AGENT)
+        .GET()
+        .build();
+  }
+
+  private void store(UrlDepthPair pair, String url, HttpResponse<String> response) {
+    if (response.statusCode() != 200) {
+      ConsoleColors.printWarning(NAME);
+      System.out.println(
+          "Failed to fetch page. Status code: " + response.statusCode() + " for " + url);
+      return;
+    }
+
+    String contentType = response.headers().firstValue("Content-Type").orElse("text/html");
+    if (!contentType.contains("html")) {
+      throw new CompletionException(
+          new UnsupportedMimeTypeException(
+              "Unhandled content type", contentType, response.uri().toString()));
+    }
+
+    // Parse against the final URL so relative links resolve like they did with Jsoup.connect
+    Document doc = Jsoup.parse(response.body(), response.uri().toString());
+    ConsoleColors.printSuccess(NAME);
+    System.out.println("Page title: " + doc.title());
+
+    try {
+      pageProcessor.process(pair, url, doc, NAME);
+    } catch (Exception e) {
+      throw new CompletionException(e);
+    }
+  }
+}
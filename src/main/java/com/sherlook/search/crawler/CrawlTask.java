@@ -3,6 +3,7 @@ package com.sherlook.search.crawler;
 import com.sherlook.search.utils.ConsoleColors;
 import com.sherlook.search.utils.DatabaseHelper;
 import com.sherlook.search.utils.Hash;
+import com.sherlook.search.utils.SimHash;
 import com.sherlook.search.utils.UrlNormalizer;
 import java.util.ArrayList;
 import java.util.Comparator;
@@ -21,27 +22,70 @@ public class CrawlTask implements Runnable {
   private int maxPages;
   private DatabaseHelper databaseHelper;
   private HtmlSaver htmlSaver;
-  private Set<String> visitedUrls;
+  private SeenUrlFilter seenUrls;
   private final int maxDepth;
   private final int threadId;
   private Set<String> visitedUrlsHashes;
+  // Null when near-duplicate detection is off
+  private final NearDuplicateIndex nearDuplicates;
+  // Crawled pages older than this are fetched again, 0 never fetches a page twice
+  private final long recrawlAfterHours;
+
+  static final int TIMEOUT_MS = 2000;
+  static final String USER_AGENT = "sher-look-crawler";
 
   public CrawlTask(
       PersistentQueue urlQueue,
-      Set<String> visitedUrls,
+      SeenUrlFilter seenUrls,
       int maxPages,
       DatabaseHelper databaseHelper,
       HtmlSaver htmlSaver,
       int maxDepth,
       int threadId) {
+    this(urlQueue, seenUrls, maxPages, databaseHelper, htmlSaver, maxDepth, threadId, null);
+  }
+
+  public CrawlTask(
+      PersistentQueue urlQueue,
+      SeenUrlFilter seenUrls,
+      int maxPages,
+      DatabaseHelper databaseHelper,
+      HtmlSaver htmlSaver,
+      int maxDepth,
+      int threadId,
+      NearDuplicateIndex nearDuplicates) {
+    this(
+        urlQueue,
+        seenUrls,
+        maxPages,
+        databaseHelper,
+        htmlSaver,
+        maxDepth,
+        threadId,
+        nearDuplicates,
+        0);
+  }
+
+  public CrawlTask(
+      PersistentQueue urlQueue,
+      SeenUrlFilter seenUrls,
+      int maxPages,
+      DatabaseHelper databaseHelper,
+      HtmlSaver htmlSaver,
+      int maxDepth,
+      int threadId,
+      NearDuplicateIndex nearDuplicates,
+      long recrawlAfterHours) {
     this.urlQueue = urlQueue;
     this.maxPages = maxPages;
     this.databaseHelper = databaseHelper;
     this.htmlSaver = htmlSaver;
-    this.visitedUrls = visitedUrls;
+    this.seenUrls = seenUrls;
     this.maxDepth = maxDepth;
     this.threadId = threadId;
     this.visitedUrlsHashes = ConcurrentHashMap.newKeySet();
+    this.nearDuplicates = nearDuplicates;
+    this.recrawlAfterHours = recrawlAfterHours;
   }
 
   public void run() {
@@ -61,49 +105,21 @@ public class CrawlTask implements Runnable {
     try {
       UrlDepthPair urlToCrawlPair = urlQueue.poll(10, TimeUnit.SECONDS);
       if (urlToCrawlPair == null) {
+        // URLs left whose hosts are still waiting out their delay
+        if (urlQueue.size() > 0) return true;
         ConsoleColors.printWarning(crawlTaskString);
         System.out.println("No URLs to crawl. Exiting.");
         return false;
       }
 
-      // Normalize the URL
-      String url = urlToCrawlPair.getUrl();
-      String urlToCrawl = UrlNormalizer.normalize(url);
-
-      urlToCrawl = UrlNormalizer.normalize(urlToCrawl);
-      if (urlToCrawl == null) {
-        ConsoleColors.printWarning(crawlTaskString);
-        System.out.println("Invalid URL: " + urlToCrawl);
-        return true;
-      }
-
-      // Check if the URL is already crawled
-      // Check in memory first
-      if (!visitedUrls.add(urlToCrawl)) {
-        ConsoleColors.printInfo(crawlTaskString);
-        System.out.println("URL already crawled: " + urlToCrawl);
-        return true;
-      }
-
-      // Check in the database
-      if (databaseHelper.isUrlCrawled(urlToCrawl)) {
-        ConsoleColors.printInfo(crawlTaskString);
-        System.out.println("URL already crawled: " + urlToCrawl);
-        return true;
-      }
-
-      // Check if the URL is allowed to be crawled
-      if (!Robots.isAllowed(urlToCrawl)) {
-        ConsoleColors.printWarning(crawlTaskString);
-        System.out.println("Crawling not allowed by robots.txt: " + urlToCrawl);
-        return true;
-      }
+      String urlToCrawl = admit(urlToCrawlPair, crawlTaskString);
+      if (urlToCrawl == null) return true;
 
       ConsoleColors.printInfo(crawlTaskString);
       System.out.println("Crawling URL: " + urlToCrawl);
       Connection conn = Jsoup.connect(urlToCrawl);
-      conn = conn.timeout(2000);
-      conn = conn.userAgent("sher-look-crawler");
+      conn = conn.timeout(TIMEOUT_MS);
+      conn = conn.userAgent(USER_AGENT);
       Document doc = conn.get();
       if (conn.response().statusCode() == 200) {
         ConsoleColors.printSuccess(crawlTaskString);
@@ -112,96 +128,170 @@ public class CrawlTask implements Runnable {
         System.out.println("Failed to fetch page. Status code: " + conn.response().statusCode());
       }
 
-      // Check if the document already exists
-      String hash = Hash.sha256(doc.html());
+      process(urlToCrawlPair, urlToCrawl, doc, crawlTaskString);
+      return true;
 
-      if (!visitedUrlsHashes.add(hash)) {
-        ConsoleColors.printWarning(crawlTaskString);
-        System.out.println("Document already crawled: " + urlToCrawl);
-        return true;
-      }
+    } catch (Exception e) {
+      return handleError(e, crawlTaskString);
+    }
+  }
 
-      if (databaseHelper.isHashExsists(hash)) {
-        ConsoleColors.printWarning(crawlTaskString);
-        System.out.println("Document already crawled: " + urlToCrawl);
-        return true;
-      }
+  // Normalizes the URL and checks it hasn't been crawled and robots.txt allows it. Returns the
+  // URL to fetch, or null if it should be skipped.
+  String admit(UrlDepthPair urlToCrawlPair, String crawlTaskString) {
+    // Normalize the URL
+    String url = urlToCrawlPair.getUrl();
+    String urlToCrawl = UrlNormalizer.normalize(url);
+
+    urlToCrawl = UrlNormalizer.normalize(urlToCrawl);
+    if (urlToCrawl == null) {
+      ConsoleColors.printWarning(crawlTaskString);
+      System.out.println("Invalid URL: " + urlToCrawl);
+      return null;
+    }
+
+    // Check if the URL is already crawled. The filter has no false negatives, so only URLs
+    // it may have seen are looked up in the database
+    if (!seenUrls.add(urlToCrawl) && isCrawled(urlToCrawl)) {
+      ConsoleColors.printInfo(crawlTaskString);
+      System.out.println("URL already crawled: " + urlToCrawl);
+      return null;
+    }
+
+    // Check if the URL is allowed to be crawled
+    if (!Robots.isAllowed(urlToCrawl)) {
+      ConsoleColors.printWarning(crawlTaskString);
+      System.out.println("Crawling not allowed by robots.txt: " + urlToCrawl);
+      return null;
+    }
+
+    return urlToCrawl;
+  }
 
-      List<String> links = new ArrayList<>();
-
-      for (Element link : doc.select("a[href]")) {
-        String absUrl = link.absUrl("href");
-        absUrl = UrlNormalizer.normalize(absUrl);
-        if (absUrl != null
-            && UrlNormalizer.isAbsolute(absUrl)
-            && urlToCrawlPair.getDepth() < maxDepth) {
-          boolean newLink = urlQueue.offer(new UrlDepthPair(absUrl, urlToCrawlPair.getDepth() + 1));
-          if (newLink) {
-            links.add(absUrl);
-          }
+  // Crawled, and recently enough that it isn't due to be crawled again
+  private boolean isCrawled(String url) {
+    if (recrawlAfterHours <= 0) return databaseHelper.isUrlCrawled(url);
+    return databaseHelper.isUrlCrawledWithin(url, recrawlAfterHours);
+  }
+
+  // Everything after the fetch: dedupe by content, queue the children and store the page
+  void process(UrlDepthPair urlToCrawlPair, String urlToCrawl, Document doc, String crawlTaskString)
+      throws Exception {
+    // Check if the document already exists
+    String hash = Hash.sha256(doc.html());
+
+    // Set when the page is being crawled again
+    String crawledHash = recrawlAfterHours > 0 ? databaseHelper.getDocumentHash(urlToCrawl) : null;
+    if (hash.equals(crawledHash)) {
+      databaseHelper.updateCrawlTime(urlToCrawl);
+      ConsoleColors.printInfo(crawlTaskString);
+      System.out.println("Unchanged since the last crawl: " + urlToCrawl);
+      return;
+    }
+
+    if (!visitedUrlsHashes.add(hash)) {
+      ConsoleColors.printWarning(crawlTaskString);
+      System.out.println("Document already crawled: " + urlToCrawl);
+      return;
+    }
+
+    if (databaseHelper.isHashExsists(hash)) {
+      ConsoleColors.printWarning(crawlTaskString);
+      System.out.println("Document already crawled: " + urlToCrawl);
+      return;
+    }
+
+    // Pages that differ only in a timestamp, token or ad slot are near-duplicates. A recrawled
+    // page would be one of its own earlier copy.
+    long simHash = SimHash.of(doc.text());
+    if (crawledHash == null
+        && nearDuplicates != null
+        && simHash != 0
+        && !nearDuplicates.addIfUnique(simHash)) {
+      ConsoleColors.printWarning(crawlTaskString);
+      System.out.println("Near-duplicate of a crawled document: " + urlToCrawl);
+      return;
+    }
+
+    List<String> links = new ArrayList<>();
+
+    for (Element link : doc.select("a[href]")) {
+      String absUrl = link.absUrl("href");
+      absUrl = UrlNormalizer.normalize(absUrl);
+      if (absUrl != null
+          && UrlNormalizer.isAbsolute(absUrl)
+          && urlToCrawlPair.getDepth() < maxDepth) {
+        boolean newLink = urlQueue.offer(new UrlDepthPair(absUrl, urlToCrawlPair.getDepth() + 1));
+        if (newLink) {
+          links.add(absUrl);
         }
       }
+    }
 
-      // Save the html page to file system
-      htmlSaver.save(urlToCrawl, doc.html());
-
-      // Get the limit of children links
-      // and sort them by length
-      int limit = 0;
-      switch (urlToCrawlPair.getDepth()) {
-        case 0:
-          limit = 300;
-          break;
-        case 1:
-          limit = 150;
-          break;
-        case 2:
-          limit = 75;
-          break;
-        case 3:
-          limit = 50;
-          break;
-        default:
-          limit = 25;
-          break;
-      }
+    // Save the html page to file system
+    String filePath = htmlSaver.save(urlToCrawl, doc.html());
+
+    // Get the limit of children links
+    // and sort them by length
+    int limit = 0;
+    switch (urlToCrawlPair.getDepth()) {
+      case 0:
+        limit = 300;
+        break;
+      case 1:
+        limit = 150;
+        break;
+      case 2:
+        limit = 75;
+        break;
+      case 3:
+        limit = 50;
+        break;
+      default:
+        limit = 25;
+        break;
+    }
 
-      // Save the crawled page to the database
-      String title = doc.title();
-      String description = doc.select("meta[name=description]").attr("content");
-      List<String> uniqueChildrens =
-          links.stream()
-              .distinct()
-              .sorted(Comparator.comparingInt(String::length))
-              .limit(limit)
-              .toList();
-      saveDocumentWithLinks(urlToCrawl, title, description, hash, uniqueChildrens);
-      ConsoleColors.printSuccess(crawlTaskString);
-      System.out.println("Saved page to database: " + urlToCrawl);
-
-      Thread.sleep(1000); // Delay for one second between crawls
+    // Save the crawled page to the database
+    String title = doc.title();
+    String description = doc.select("meta[name=description]").attr("content");
+    List<String> uniqueChildrens =
+        links.stream()
+            .distinct()
+            .sorted(Comparator.comparingInt(String::length))
+            .limit(limit)
+            .toList();
+    if (crawledHash != null) {
+      saveRecrawledDocument(
+          urlToCrawl, title, description, hash, simHash, filePath, uniqueChildrens);
+    } else {
+      saveDocumentWithLinks(
+          urlToCrawl, title, description, hash, simHash, filePath, uniqueChildrens);
+    }
+    ConsoleColors.printSuccess(crawlTaskString);
+    System.out.println("Saved page to database: " + urlToCrawl);
+  }
 
+  // Logs a failed crawl, returns whether the task should keep going
+  boolean handleError(Throwable e, String crawlTaskString) {
+    if (e instanceof java.net.SocketTimeoutException
+        || e instanceof java.net.http.HttpTimeoutException) {
+      ConsoleColors.printWarning(crawlTaskString);
+      System.out.println("Socket timeout while crawling URL: " + e.getMessage());
       return true;
-
-    } catch (Exception e) {
-      if (e instanceof java.net.SocketTimeoutException) {
-        ConsoleColors.printWarning(crawlTaskString);
-        System.out.println("Socket timeout while crawling URL: " + e.getMessage());
-        return true;
-      } else if (e instanceof org.jsoup.UnsupportedMimeTypeException) {
-        ConsoleColors.printWarning(crawlTaskString);
-        System.out.println("Unsupported MIME type while crawling URL: " + e.getMessage());
-        return true;
-      } else if (e instanceof InterruptedException) {
-        Thread.currentThread().interrupt(); // Good practice to reset interrupt flag
-        ConsoleColors.printWarning(crawlTaskString);
-        System.out.println("Sleep interrupted");
-      }
-      ConsoleColors.printError(crawlTaskString);
-      System.err.println("Error: " + e.getMessage());
-      e.printStackTrace();
+    } else if (e instanceof org.jsoup.UnsupportedMimeTypeException) {
+      ConsoleColors.printWarning(crawlTaskString);
+      System.out.println("Unsupported MIME type while crawling URL: " + e.getMessage());
       return true;
+    } else if (e instanceof InterruptedException) {
+      Thread.currentThread().interrupt(); // Good practice to reset interrupt flag
+      ConsoleColors.printWarning(crawlTaskString);
+      System.out.println("Sleep interrupted");
     }
+    ConsoleColors.printError(crawlTaskString);
+    System.err.println("Error: " + e.getMessage());
+    e.printStackTrace();
+    return true;
   }
 
   @Transactional
@@ -210,14 +300,37 @@ public class CrawlTask implements Runnable {
       String title,
       String description,
       String hash,
+      long simHash,
+      String filePath,
       List<String> uniqueChildrens)
       throws Exception {
-    databaseHelper.insertDocument(
-        urlToCrawl, title, description, htmlSaver.getFilePath(urlToCrawl).toString(), hash);
+    databaseHelper.insertDocument(urlToCrawl, title, description, filePath, hash);
     int documentId = databaseHelper.getDocumentId(urlToCrawl);
     if (documentId == -1) {
       throw new Exception("Failed to get document ID for URL: " + urlToCrawl);
     }
+    if (simHash != 0) databaseHelper.updateDocumentSimHash(documentId, simHash);
     databaseHelper.insertLinks(documentId, uniqueChildrens);
   }
+
+  // Replaces the stored copy of a page crawled before, with its hash and links. The indexer
+  // picks it up as changed, its hash no longer being the one it was indexed with.
+  @Transactional
+  public void saveRecrawledDocument(
+      String urlToCrawl,
+      String title,
+      String description,
+      String hash,
+      long simHash,
+      String filePath,
+      List<String> uniqueChildrens)
+      throws Exception {
+    int documentId = databaseHelper.getDocumentId(urlToCrawl);
+    if (documentId == -1) {
+      throw new Exception("Failed to get document ID for URL: " + urlToCrawl);
+    }
+    databaseHelper.updateCrawledDocument(documentId, title, description, filePath, hash);
+    if (simHash != 0) databaseHelper.updateDocumentSimHash(documentId, simHash);
+    databaseHelper.replaceLinks(documentId, uniqueChildrens);
+  }
 }
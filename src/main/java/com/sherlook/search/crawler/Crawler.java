@@ -5,10 +5,10 @@ import com.sherlook.search.utils.DatabaseHelper;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -28,15 +28,71 @@ public class Crawler {
   @Value("${crawler.savepath}")
   private String saveDirPath;
 
+  // Pages are deflated into pack files, spread over this many shards; 0 keeps one file per page
+  @Value("${crawler.store.shards:16}")
+  private int storeShards = 16;
+
+  @Value("${crawler.store.pack-size-mb:256}")
+  private long storePackSizeMb = 256;
+
   @Value("${crawler.url-queue-file}")
   private String urlQueueFilePath;
 
   @Value("${crawler.max-depth}")
   private int maxDepth;
 
+  // "blocking" runs one CrawlTask per thread, "async" multiplexes requests on an HttpClient
+  @Value("${crawler.fetcher:blocking}")
+  private String fetcher = "blocking";
+
+  @Value("${crawler.max-in-flight:1000}")
+  private int maxInFlight = 1000;
+
+  // 0 uses one parser thread per core
+  @Value("${crawler.parse-threads:0}")
+  private int parseThreads = 0;
+
+  // Minimum time between two fetches from the same host, robots.txt Crawl-delay can raise it
+  @Value("${crawler.politeness-delay-ms:1000}")
+  private long politenessDelayMs = PersistentQueue.DEFAULT_POLITENESS_DELAY_MS;
+
+  // When the queue log is fsynced: always, interval (about once a second) or never
+  @Value("${crawler.queue.fsync:interval}")
+  private String queueFsync = "interval";
+
+  @Value("${crawler.queue.segment-size-mb:64}")
+  private long queueSegmentSizeMb = 64;
+
+  // URLs kept in memory for scheduling, the rest of the frontier is spilled to disk
+  @Value("${crawler.queue.hot-window:10000}")
+  private int queueHotWindow = PersistentQueue.DEFAULT_HOT_WINDOW;
+
   private final DatabaseHelper databaseHelper;
 
-  private final Set<String> visitedUrls = ConcurrentHashMap.newKeySet();
+  // First-level check for already crawled URLs, sized for this many URLs at this false
+  // positive rate; it grows past them without losing the rate
+  @Value("${crawler.seen-filter.expected-urls:100000}")
+  private long seenFilterExpectedUrls = 100000;
+
+  @Value("${crawler.seen-filter.fp-rate:0.001}")
+  private double seenFilterFpRate = 0.001;
+
+  // How often the seen URLs are snapshotted while crawling, so a crashed run only has the
+  // documents stored since the last one to catch up on. 0 snapshots only when the crawl ends.
+  @Value("${crawler.seen-filter.snapshot-interval-ms:60000}")
+  private long seenFilterSnapshotIntervalMs = 60000;
+
+  // Pages whose text SimHash is at most this many bits from a crawled page are skipped,
+  // a negative value turns the check off
+  @Value("${crawler.near-duplicate.max-distance:3}")
+  private int nearDuplicateMaxDistance = 3;
+
+  // Crawled pages are fetched again once they are this old, 0 never recrawls
+  @Value("${crawler.recrawl-after-hours:0}")
+  private long recrawlAfterHours = 0;
+
+  private SeenUrlFilter seenUrls;
+  private NearDuplicateIndex nearDuplicates;
 
   private HtmlSaver htmlSaver;
   private PersistentQueue urlQueue; // Persistent queue to store URLs
@@ -59,10 +115,16 @@ public class Crawler {
   public void init() {
     try {
       if (htmlSaver == null) {
-        htmlSaver = new HtmlSaver(saveDirPath);
+        htmlSaver = new HtmlSaver(saveDirPath, storeShards, storePackSizeMb * 1024 * 1024);
       }
       if (urlQueue == null) {
-        urlQueue = new PersistentQueue(new File(urlQueueFilePath), visitedUrls);
+        urlQueue =
+            new PersistentQueue(
+                new File(urlQueueFilePath),
+                politenessDelayMs,
+                queueFsync,
+                queueSegmentSizeMb * 1024 * 1024,
+                queueHotWindow);
       }
     } catch (IOException e) {
       ConsoleColors.printError("Crawler");
@@ -84,6 +146,9 @@ public class Crawler {
       return;
     }
 
+    seenUrls = loadSeenUrls();
+    nearDuplicates = loadNearDuplicates();
+
     boolean isEmpty = urlQueue.isIntiallyEmpty();
     if (isEmpty) {
       ConsoleColors.printInfo("Crawler");
@@ -105,14 +170,36 @@ public class Crawler {
     }
 
     long startTime = System.currentTimeMillis();
-    for (int i = 0; i < threads; i++) {
-      executor.execute(
-          new CrawlTask(urlQueue, visitedUrls, maxPages, databaseHelper, htmlSaver, maxDepth, i));
-    }
+    ScheduledExecutorService snapshots = scheduleSeenUrlSnapshots();
+    try {
+      if (fetcher.equals("async")) {
+        executor.shutdown();
+        runAsync();
+      } else {
+        for (int i = 0; i < threads; i++) {
+          executor.execute(
+              new CrawlTask(
+                  urlQueue,
+                  seenUrls,
+                  maxPages,
+                  databaseHelper,
+                  htmlSaver,
+                  maxDepth,
+                  i,
+                  nearDuplicates,
+                  recrawlAfterHours));
+        }
 
-    executor.shutdown();
-    while (!executor.isTerminated()) {
-      // Wait for all tasks to finish
+        executor.shutdown();
+        while (!executor.isTerminated()) {
+          // Wait for all tasks to finish
+        }
+      }
+    } finally {
+      if (snapshots != null) snapshots.shutdownNow();
+      urlQueue.close();
+      closeHtmlSaver();
+      saveSeenUrls();
     }
     long endTime = System.currentTimeMillis();
     long duration = endTime - startTime;
@@ -120,4 +207,95 @@ public class Crawler {
     ConsoleColors.printSuccess("Crawler");
     System.out.println("All tasks completed in " + duration + " ms");
   }
+
+  private void closeHtmlSaver() {
+    try {
+      htmlSaver.close();
+    } catch (IOException e) {
+      ConsoleColors.printError("Crawler");
+      System.err.println("Error closing page store: " + e.getMessage());
+    }
+  }
+
+  private File seenUrlsFile() {
+    return new File(urlQueueFilePath + ".seen");
+  }
+
+  // Loads the last snapshot and adds the URLs of documents stored after it was taken
+  private SeenUrlFilter loadSeenUrls() {
+    SeenUrlFilter filter;
+    try {
+      filter = SeenUrlFilter.load(seenUrlsFile(), seenFilterExpectedUrls, seenFilterFpRate);
+    } catch (IOException e) {
+      ConsoleColors.printWarning("Crawler");
+      System.out.println("Could not load seen URLs, rebuilding: " + e.getMessage());
+      filter = new SeenUrlFilter(seenFilterExpectedUrls, seenFilterFpRate);
+    }
+    databaseHelper.forEachDocumentUrl(filter.getLastDocumentId(), filter::add);
+    ConsoleColors.printInfo("Crawler");
+    System.out.println("Seen URLs loaded. Size: " + filter.size());
+    return filter;
+  }
+
+  private NearDuplicateIndex loadNearDuplicates() {
+    if (nearDuplicateMaxDistance < 0) return null;
+    NearDuplicateIndex index = new NearDuplicateIndex(nearDuplicateMaxDistance);
+    databaseHelper.forEachDocumentSimHash(index::add);
+    ConsoleColors.printInfo("Crawler");
+    System.out.println("Near-duplicate fingerprints loaded. Size: " + index.size());
+    return index;
+  }
+
+  private ScheduledExecutorService scheduleSeenUrlSnapshots() {
+    if (seenFilterSnapshotIntervalMs <= 0) return null;
+    ScheduledExecutorService snapshots =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread thread = new Thread(r, "seen-url-snapshot");
+              thread.setDaemon(true);
+              return thread;
+            });
+    snapshots.scheduleWithFixedDelay(
+        this::saveSeenUrls,
+        seenFilterSnapshotIntervalMs,
+        seenFilterSnapshotIntervalMs,
+        TimeUnit.MILLISECONDS);
+    return snapshots;
+  }
+
+  // Safe while crawling: a URL is added to the filter before its document is stored, so every
+  // document up to the max ID read here already has its URL in the filter
+  private void saveSeenUrls() {
+    try {
+      seenUrls.save(seenUrlsFile(), databaseHelper.getMaxDocumentId());
+    } catch (IOException e) {
+      ConsoleColors.printError("Crawler");
+      System.err.println("Error saving seen URLs: " + e.getMessage());
+    }
+  }
+
+  private void runAsync() {
+    CrawlTask pageProcessor =
+        new CrawlTask(
+            urlQueue,
+            seenUrls,
+            maxPages,
+            databaseHelper,
+            htmlSaver,
+            maxDepth,
+            0,
+            nearDuplicates,
+            recrawlAfterHours);
+    // The crawler thread count sizes the pool for robots.txt and database checks
+    AsyncFetcher asyncFetcher =
+        new AsyncFetcher(
+            urlQueue, databaseHelper, pageProcessor, maxPages, maxInFlight, threads, parseThreads);
+    try {
+      asyncFetcher.run();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      ConsoleColors.printWarning("Crawler");
+      System.out.println("Async fetcher interrupted");
+    }
+  }
 }
@@ -0,0 +1,290 @@
+package com.sherlook.search.crawler;
+
+import com.sherlook.search.utils.ConsoleColors;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Crawl frontier on top of the HostScheduler. Only a hot window of URLs lives in the scheduler;
+// the rest is buffered and spilled to disk in gzip-compressed runs, which are merged back in
+// as the window drains. Runs are sorted by depth, then by the URL's rank among the run's URLs
+// for the same host, then by URL, so shallow pages come back first and refills interleave
+// hosts instead of filling the window with one site.
+//
+// Every open run holds a file and an inflater, so once there are more than MAX_OPEN_RUNS the
+// runs are merged into one.
+//
+// Runs are scratch space: the queue log is what survives a restart, so the spill directory
+// is cleared when the frontier is created.
+class Frontier implements Closeable {
+  private static final long REFILL_POLL_MS = 200;
+  static final int MAX_OPEN_RUNS = 16;
+  private static final Comparator<Spilled> ORDER =
+      Comparator.<Spilled>comparingInt(entry -> entry.depth)
+          .thenComparingInt(entry -> entry.rank)
+          .thenComparing(entry -> entry.url);
+
+  private final HostScheduler scheduler;
+  private final File spillDir;
+  private final int hotWindow;
+  private final int runSize;
+
+  // Newer URLs waiting to be spilled, in arrival order
+  private final List<UrlDepthPair> overflow = new ArrayList<>();
+  private final PriorityQueue<RunReader> runs =
+      new PriorityQueue<>((a, b) -> ORDER.compare(a.head, b.head));
+  private long spilledRemaining = 0;
+  private int nextRun = 0;
+
+  private static final class Spilled {
+    final String url;
+    final int depth;
+    final int rank;
+
+    Spilled(String url, int depth, int rank) {
+      this.url = url;
+      this.depth = depth;
+      this.rank = rank;
+    }
+  }
+
+  Frontier(HostScheduler scheduler, File spillDir, int hotWindow, int runSize) throws IOException {
+    this.scheduler = scheduler;
+    this.spillDir = spillDir;
+    this.hotWindow = Math.max(1, hotWindow);
+    this.runSize = Math.max(1, runSize);
+
+    deleteRuns();
+    if (!spillDir.isDirectory() && !spillDir.mkdirs()) {
+      throw new IOException("Could not create spill directory " + spillDir);
+    }
+  }
+
+  synchronized void add(UrlDepthPair urlDepthPair) {
+    // Once anything is waiting on disk or in the buffer, newcomers queue up behind it
+    if (overflow.isEmpty() && runs.isEmpty() && scheduler.size() < hotWindow) {
+      scheduler.add(urlDepthPair);
+      return;
+    }
+    overflow.add(urlDepthPair);
+    if (overflow.size() >= runSize) spill();
+  }
+
+  UrlDepthPair poll(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while (true) {
+      refill();
+      long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+      // Wait in slices while URLs are parked outside the window, so they get paged in
+      long waitMs = hasParked() ? Math.min(remainingMs, REFILL_POLL_MS) : remainingMs;
+      UrlDepthPair urlDepthPair = scheduler.poll(Math.max(0, waitMs), TimeUnit.MILLISECONDS);
+      if (urlDepthPair != null || System.nanoTime() >= deadline) return urlDepthPair;
+    }
+  }
+
+  synchronized long size() {
+    return scheduler.size() + overflow.size() + spilledRemaining;
+  }
+
+  synchronized int runCount() {
+    return runs.size();
+  }
+
+  @Override
+  public synchronized void close() {
+    for (RunReader run : runs) run.close();
+    runs.clear();
+    overflow.clear();
+    spilledRemaining = 0;
+    deleteRuns();
+  }
+
+  private synchronized boolean hasParked() {
+    return !overflow.isEmpty() || !runs.isEmpty();
+  }
+
+  // Tops the window back up once it is half empty: from the runs first, then the buffer
+  private synchronized void refill() {
+    if (scheduler.size() >= hotWindow / 2) return;
+
+    while (scheduler.size() < hotWindow && !runs.isEmpty()) {
+      RunReader run = runs.poll();
+      scheduler.add(new UrlDepthPair(run.head.url, run.head.depth));
+      spilledRemaining--;
+      if (run.advance()) {
+        runs.add(run);
+      } else {
+        run.close();
+        run.file.delete();
+      }
+    }
+
+    int moved = 0;
+    while (runs.isEmpty() && moved < overflow.size() && scheduler.size() < hotWindow) {
+      scheduler.add(overflow.get(moved++));
+    }
+    overflow.subList(0, moved).clear();
+  }
+
+  private void spill() {
+    // Rank each URL among the buffered URLs of its host, in arrival order
+    Map<String, Integer> perHost = new HashMap<>();
+    List<Spilled> entries = new ArrayList<>(overflow.size());
+    for (UrlDepthPair urlDepthPair : overflow) {
+      int rank = perHost.merge(HostScheduler.hostOf(urlDepthPair.getUrl()), 1, Integer::sum);
+      entries.add(new Spilled(urlDepthPair.getUrl(), urlDepthPair.getDepth(), rank));
+    }
+    entries.sort(ORDER);
+
+    File file = new File(spillDir, "run-" + (nextRun++) + ".gz");
+    try (DataOutputStream out = openRun(file)) {
+      out.writeInt(entries.size());
+      for (Spilled entry : entries) writeEntry(out, entry);
+    } catch (IOException e) {
+      // Keep the URLs in memory rather than lose them, they are in the queue log either way
+      ConsoleColors.printError("PersistentQueue");
+      System.err.println("Error spilling frontier to " + file + ": " + e.getMessage());
+      file.delete();
+      return;
+    }
+
+    try {
+      RunReader run = new RunReader(file);
+      if (run.advance()) runs.add(run);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    spilledRemaining += entries.size();
+    overflow.clear();
+
+    if (runs.size() > MAX_OPEN_RUNS) mergeRuns();
+  }
+
+  // K-way merge of every open run into a new one. The merge reads the files through readers
+  // of its own, so if it fails the current runs are left as they were.
+  private void mergeRuns() {
+    File file = new File(spillDir, "run-" + (nextRun++) + ".gz");
+    List<RunReader> sources = new ArrayList<>();
+    try {
+      PriorityQueue<RunReader> merging =
+          new PriorityQueue<>((a, b) -> ORDER.compare(a.head, b.head));
+      long count = 0;
+      for (RunReader run : runs) {
+        RunReader source = run.reopen();
+        sources.add(source);
+        merging.add(source);
+        count += run.remaining + 1;
+      }
+
+      try (DataOutputStream out = openRun(file)) {
+        out.writeInt((int) count);
+        while (!merging.isEmpty()) {
+          RunReader source = merging.poll();
+          writeEntry(out, source.head);
+          if (source.advance()) merging.add(source);
+        }
+      }
+
+      RunReader merged = new RunReader(file);
+      merged.advance();
+      for (RunReader run : runs) {
+        run.close();
+        run.file.delete();
+      }
+      runs.clear();
+      runs.add(merged);
+    } catch (IOException | UncheckedIOException e) {
+      ConsoleColors.printError("PersistentQueue");
+      System.err.println("Error merging frontier runs into " + file + ": " + e.getMessage());
+      file.delete();
+    } finally {
+      for (RunReader source : sources) source.close();
+    }
+  }
+
+  private static DataOutputStream openRun(File file) throws IOException {
+    return new DataOutputStream(
+        new BufferedOutputStream(
+            new GZIPOutputStream(new FileOutputStream(file), 1 << 16), 1 << 16));
+  }
+
+  private static void writeEntry(DataOutputStream out, Spilled entry) throws IOException {
+    byte[] url = entry.url.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(entry.depth);
+    out.writeInt(entry.rank);
+    out.writeInt(url.length);
+    out.write(url);
+  }
+
+  private void deleteRuns() {
+    File[] files = spillDir.listFiles((dir, name) -> name.startsWith("run-"));
+    if (files == null) return;
+    for (File file : files) file.delete();
+  }
+
+  private static final class RunReader {
+    final File file;
+    private final DataInputStream in;
+    private final int total;
+    private int remaining;
+    Spilled head;
+
+    RunReader(File file) throws IOException {
+      this.file = file;
+      // Small buffers, a deep crawl can have many runs open at once
+      this.in =
+          new DataInputStream(
+              new BufferedInputStream(new GZIPInputStream(new FileInputStream(file), 8192), 8192));
+      this.total = in.readInt();
+      this.remaining = total;
+    }
+
+    // A second reader on the same file, positioned on the same head
+    RunReader reopen() throws IOException {
+      RunReader copy = new RunReader(file);
+      for (int read = total - remaining; read > 0; read--) copy.advance();
+      return copy;
+    }
+
+    // Moves to the next entry, returns false once the run is exhausted
+    boolean advance() {
+      if (remaining == 0) return false;
+      try {
+        int depth = in.readInt();
+        int rank = in.readInt();
+        byte[] url = new byte[in.readInt()];
+        in.readFully(url);
+        head = new Spilled(new String(url, StandardCharsets.UTF_8), depth, rank);
+        remaining--;
+        return true;
+      } catch (IOException e) {
+        throw new UncheckedIOException("Corrupt frontier run " + file, e);
+      }
+    }
+
+    void close() {
+      try {
+        in.close();
+      } catch (IOException ignored) {
+        // Nothing left to read from it
+      }
+    }
+  }
+}
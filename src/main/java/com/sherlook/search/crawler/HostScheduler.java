@@ -0,0 +1,142 @@
+package com.sherlook.search.crawler;
+
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToLongFunction;
+
+// Frontier keyed by host. Each host keeps its own FIFO of URLs and the earliest time it may be
+// fetched again; a delay queue of hosts hands out URLs only from hosts whose time has come, so
+// workers never sleep on a busy host while others are ready. Hosts that became ready at the
+// same time are served in the order they were queued.
+public class HostScheduler {
+  private static final int SWEEP_INTERVAL = 1024;
+
+  private final long defaultDelayMs;
+  private final ToLongFunction<String> crawlDelayMs;
+
+  private final Map<String, Host> hosts = new HashMap<>();
+  private final PriorityQueue<Host> ready =
+      new PriorityQueue<>(
+          Comparator.<Host>comparingLong(host -> host.readyAt).thenComparingLong(host -> host.seq));
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition changed = lock.newCondition();
+  private int size = 0;
+  private long sequence = 0;
+  private int pollsSinceSweep = 0;
+
+  private static class Host {
+    final String name;
+    final ArrayDeque<UrlDepthPair> urls = new ArrayDeque<>();
+    long nextFetch = 0;
+    long readyAt;
+    long seq;
+    boolean queued = false;
+
+    Host(String name) {
+      this.name = name;
+    }
+  }
+
+  // crawlDelayMs returns a host's own delay (robots.txt Crawl-delay) for a URL, or a negative
+  // value when it has none; the larger of it and defaultDelayMs is used
+  public HostScheduler(long defaultDelayMs, ToLongFunction<String> crawlDelayMs) {
+    this.defaultDelayMs = defaultDelayMs;
+    this.crawlDelayMs = crawlDelayMs;
+  }
+
+  public void add(UrlDepthPair urlDepthPair) {
+    lock.lock();
+    try {
+      Host host = hosts.computeIfAbsent(hostOf(urlDepthPair.getUrl()), Host::new);
+      host.urls.add(urlDepthPair);
+      size++;
+      if (!host.queued) enqueue(host, System.currentTimeMillis());
+      changed.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // Waits up to timeout for a URL whose host is ready, and books the host's next fetch time
+  public UrlDepthPair poll(long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    lock.lockInterruptibly();
+    try {
+      while (true) {
+        long now = System.currentTimeMillis();
+        Host host = ready.peek();
+        if (host != null && host.readyAt <= now) {
+          ready.poll();
+          host.queued = false;
+          UrlDepthPair urlDepthPair = host.urls.poll();
+          size--;
+          host.nextFetch = now + delayFor(urlDepthPair.getUrl());
+          if (!host.urls.isEmpty()) enqueue(host, now);
+          if (++pollsSinceSweep >= SWEEP_INTERVAL) sweep(now);
+          return urlDepthPair;
+        }
+
+        long remainingNanos = deadline - System.nanoTime();
+        if (remainingNanos <= 0) return null;
+        if (host != null) {
+          remainingNanos =
+              Math.min(remainingNanos, TimeUnit.MILLISECONDS.toNanos(host.readyAt - now));
+        }
+        changed.awaitNanos(remainingNanos);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int size() {
+    lock.lock();
+    try {
+      return size;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  private void enqueue(Host host, long now) {
+    host.readyAt = Math.max(host.nextFetch, now);
+    host.seq = sequence++;
+    host.queued = true;
+    ready.add(host);
+  }
+
+  private long delayFor(String url) {
+    return Math.max(defaultDelayMs, crawlDelayMs.applyAsLong(url));
+  }
+
+  // Forgets hosts that have nothing queued and whose delay has passed
+  private void sweep(long now) {
+    pollsSinceSweep = 0;
+    Iterator<Host> it = hosts.values().iterator();
+    while (it.hasNext()) {
+      Host host = it.next();
+      if (host.urls.isEmpty() && host.nextFetch <= now) it.remove();
+    }
+  }
+
+  static String hostOf(String url) {
+    try {
+      String host = URI.create(url).getHost();
+      return host != null ? host.toLowerCase() : url;
+    } catch (IllegalArgumentException e) {
+      return url;
+    }
+  }
+}
@@ -3,24 +3,106 @@ package com.sherlook.search.crawler;
 import com.sherlook.search.utils.Hash;
 import com.sherlook.search.utils.UrlNormalizer;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Stores crawled pages either as one <sha256>.html file per page, or packed: pages are
+// deflated and appended to large pack files, sharded by the first byte of the URL hash so
+// crawler threads rarely wait on each other. A packed page's location is
+// "<pack file>#<offset>+<length>", which fits in documents.file_path and lets read() fetch the
+// page with one positioned read.
+//
+// Pack record: url length, url, raw length, compressed length (ints), url bytes, deflated html
+public class HtmlSaver implements Closeable {
+  private static final Pattern PACK_LOCATION = Pattern.compile("^(.*)#(\\d+)\\+(\\d+)$");
+  private static final int HEADER_BYTES = 12;
 
-public class HtmlSaver {
   private final Path saveDir;
+  // Null when pages are stored as separate files
+  private final Shard[] shards;
+  private final long packBytes;
+
+  private final class Shard {
+    final int index;
+    int sequence;
+    FileChannel channel;
+    Path path;
+    long size;
+
+    Shard(int index, int sequence) {
+      this.index = index;
+      this.sequence = sequence;
+    }
+
+    synchronized String append(byte[] record) throws IOException {
+      if (channel == null || size + record.length > packBytes) roll();
+      long offset = size;
+      ByteBuffer buffer = ByteBuffer.wrap(record);
+      while (buffer.hasRemaining()) channel.write(buffer);
+      size += record.length;
+      return path + "#" + offset + "+" + record.length;
+    }
+
+    // Starts a new pack, earlier ones are never appended to again so a torn tail stays put
+    private void roll() throws IOException {
+      if (channel != null) channel.close();
+      path = saveDir.resolve(String.format("%02x-%06d.pack", index, sequence++));
+      channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+      size = 0;
+    }
+
+    synchronized void close() throws IOException {
+      if (channel != null) channel.close();
+      channel = null;
+    }
+  }
 
   public HtmlSaver(String saveDirPath) throws IOException {
+    this(saveDirPath, 0, 0);
+  }
+
+  // shardCount 0 stores each page as its own file, otherwise pages are packed into files of
+  // about packBytes per shard
+  public HtmlSaver(String saveDirPath, int shardCount, long packBytes) throws IOException {
     this.saveDir = Paths.get(saveDirPath);
     if (!Files.exists(saveDir)) {
       Files.createDirectories(saveDir);
     }
+    this.packBytes = packBytes;
+    if (shardCount <= 0) {
+      this.shards = null;
+      return;
+    }
+
+    this.shards = new Shard[Math.min(shardCount, 256)];
+    int nextSequence = nextPackSequence();
+    for (int i = 0; i < shards.length; i++) shards[i] = new Shard(i, nextSequence);
   }
 
-  public void save(String url, String htmlContent) throws IOException, NoSuchAlgorithmException {
-    Path filePath = getFilePath(url);
-    Files.writeString(filePath, htmlContent);
+  // Stores the page and returns where it went, to be kept in documents.file_path
+  public String save(String url, String htmlContent) throws IOException, NoSuchAlgorithmException {
+    if (shards == null) {
+      Path filePath = getFilePath(url);
+      Files.writeString(filePath, htmlContent);
+      return filePath.toString();
+    }
+
+    String hash = Hash.sha256(UrlNormalizer.normalize(url));
+    int shard = (Base64.getUrlDecoder().decode(hash)[0] & 0xff) % shards.length;
+    return shards[shard].append(packRecord(url, htmlContent));
   }
 
   public Path getFilePath(String url) throws NoSuchAlgorithmException {
@@ -28,4 +110,90 @@ public class HtmlSaver {
     String hash = Hash.sha256(normalized);
     return saveDir.resolve(hash + ".html");
   }
+
+  // Reads a page back from a location returned by save(), either a pack location or a plain
+  // file path
+  public static String read(String location) throws IOException {
+    Matcher pack = PACK_LOCATION.matcher(location);
+    if (!pack.matches()) return Files.readString(Paths.get(location));
+
+    long offset = Long.parseLong(pack.group(2));
+    ByteBuffer record = ByteBuffer.allocate(Integer.parseInt(pack.group(3)));
+    try (FileChannel channel = FileChannel.open(Paths.get(pack.group(1)))) {
+      while (record.hasRemaining()) {
+        if (channel.read(record, offset + record.position()) < 0) {
+          throw new EOFException("Pack record cut short at " + location);
+        }
+      }
+    }
+    record.flip();
+
+    int urlLength = record.getInt();
+    int rawLength = record.getInt();
+    int compressedLength = record.getInt();
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(record.array(), HEADER_BYTES + urlLength, compressedLength);
+      byte[] html = new byte[rawLength];
+      int inflated = 0;
+      while (inflated < rawLength && !inflater.finished()) {
+        int n = inflater.inflate(html, inflated, rawLength - inflated);
+        if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+        inflated += n;
+      }
+      if (inflated != rawLength) throw new IOException("Corrupt pack record at " + location);
+      return new String(html, StandardCharsets.UTF_8);
+    } catch (DataFormatException e) {
+      throw new IOException("Corrupt pack record at " + location, e);
+    } finally {
+      inflater.end();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (shards == null) return;
+    for (Shard shard : shards) shard.close();
+  }
+
+  private static byte[] packRecord(String url, String htmlContent) {
+    byte[] urlBytes = url.getBytes(StandardCharsets.UTF_8);
+    byte[] raw = htmlContent.getBytes(StandardCharsets.UTF_8);
+
+    Deflater deflater = new Deflater();
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 4 + 64);
+    try {
+      deflater.setInput(raw);
+      deflater.finish();
+      byte[] chunk = new byte[8192];
+      while (!deflater.finished()) {
+        int n = deflater.deflate(chunk);
+        compressed.write(chunk, 0, n);
+      }
+    } finally {
+      deflater.end();
+    }
+
+    ByteBuffer record =
+        ByteBuffer.allocate(HEADER_BYTES + urlBytes.length + compressed.size())
+            .putInt(urlBytes.length)
+            .putInt(raw.length)
+            .putInt(compressed.size())
+            .put(urlBytes)
+            .put(compressed.toByteArray());
+    return record.array();
+  }
+
+  // Pack files are never reopened for writing, so a new run starts after the highest sequence
+  private int nextPackSequence() throws IOException {
+    int next = 0;
+    try (Stream<Path> files = Files.list(saveDir)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        String name = file.getFileName().toString();
+        if (!name.matches("[0-9a-f]{2}-\\d{6,}\\.pack")) continue;
+        next = Math.max(next, Integer.parseInt(name.substring(3, name.length() - 5)) + 1);
+      }
+    }
+    return next;
+  }
 }
@@ -0,0 +1,67 @@
+package com.sherlook.search.crawler;
+
+import com.sherlook.search.utils.SimHash;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// SimHash fingerprints of crawled pages, looked up by band. The 64 bits are cut into
+// maxDistance + 1 bands; two fingerprints at most maxDistance bits apart must agree on at least
+// one whole band, so only fingerprints sharing a band with the query need comparing.
+public class NearDuplicateIndex {
+  private final int maxDistance;
+  private final int[] bandStarts;
+  private final List<Map<Long, List<Long>>> bands = new ArrayList<>();
+  private int size = 0;
+
+  public NearDuplicateIndex(int maxDistance) {
+    if (maxDistance < 0 || maxDistance > 63) {
+      throw new IllegalArgumentException("Hamming distance must be between 0 and 63");
+    }
+    this.maxDistance = maxDistance;
+    int bandCount = maxDistance + 1;
+    bandStarts = new int[bandCount + 1];
+    for (int i = 0; i <= bandCount; i++) bandStarts[i] = i * 64 / bandCount;
+    for (int i = 0; i < bandCount; i++) bands.add(new HashMap<>());
+  }
+
+  // Adds the fingerprint unless a near-duplicate is already indexed, returns whether it was added
+  public synchronized boolean addIfUnique(long fingerprint) {
+    if (findNear(fingerprint) != null) return false;
+    add(fingerprint);
+    return true;
+  }
+
+  public synchronized void add(long fingerprint) {
+    for (int i = 0; i < bands.size(); i++) {
+      bands
+          .get(i)
+          .computeIfAbsent(band(fingerprint, i), key -> new ArrayList<>(1))
+          .add(fingerprint);
+    }
+    size++;
+  }
+
+  // An indexed fingerprint within maxDistance bits, or null
+  public synchronized Long findNear(long fingerprint) {
+    for (int i = 0; i < bands.size(); i++) {
+      List<Long> candidates = bands.get(i).get(band(fingerprint, i));
+      if (candidates == null) continue;
+      for (long candidate : candidates) {
+        if (SimHash.distance(candidate, fingerprint) <= maxDistance) return candidate;
+      }
+    }
+    return null;
+  }
+
+  public synchronized int size() {
+    return size;
+  }
+
+  private long band(long fingerprint, int i) {
+    int width = bandStarts[i + 1] - bandStarts[i];
+    long mask = width == 64 ? -1L : (1L << width) - 1;
+    return (fingerprint >>> bandStarts[i]) & mask;
+  }
+}
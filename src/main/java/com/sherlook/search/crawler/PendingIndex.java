@@ -0,0 +1,140 @@
+package com.sherlook.search.crawler;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+// Pending URLs of the queue, stored as 64-bit fingerprints mapped to the log segment holding
+// their enqueue record. Open addressing over two primitive arrays, so a pending URL costs a
+// couple dozen bytes instead of its string plus map nodes. Two URLs with the same
+// fingerprint are treated as one; at 64 bits that takes billions of URLs to matter.
+class PendingIndex {
+  static final int MISSING = Integer.MIN_VALUE;
+  // Claimed but not written to the log yet
+  static final int UNWRITTEN = -1;
+
+  private static final float LOAD_FACTOR = 0.6f;
+
+  private long[] keys;
+  private int[] values;
+  private int size = 0;
+
+  PendingIndex() {
+    keys = new long[1024];
+    values = new int[1024];
+  }
+
+  static long fingerprint(UrlDepthPair urlDepthPair) {
+    // FNV-1a over the UTF-8 bytes, then a murmur3 finalizer to spread the bits
+    long hash = 0xcbf29ce484222325L;
+    for (byte b : urlDepthPair.getUrl().getBytes(StandardCharsets.UTF_8)) {
+      hash ^= b & 0xff;
+      hash *= 0x100000001b3L;
+    }
+    hash ^= urlDepthPair.getDepth();
+    hash *= 0x100000001b3L;
+
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    // 0 marks an empty slot
+    return hash != 0 ? hash : 1;
+  }
+
+  // Adds the fingerprint if it is not there yet, returns whether it was added
+  synchronized boolean putIfAbsent(long key, int value) {
+    int slot = find(key);
+    if (keys[slot] == key) return false;
+    keys[slot] = key;
+    values[slot] = value;
+    if (++size > keys.length * LOAD_FACTOR) resize();
+    return true;
+  }
+
+  synchronized void put(long key, int value) {
+    int slot = find(key);
+    if (keys[slot] != key) {
+      keys[slot] = key;
+      if (++size > keys.length * LOAD_FACTOR) {
+        values[slot] = value;
+        resize();
+        return;
+      }
+    }
+    values[slot] = value;
+  }
+
+  synchronized int get(long key) {
+    int slot = find(key);
+    return keys[slot] == key ? values[slot] : MISSING;
+  }
+
+  synchronized boolean contains(long key) {
+    return keys[find(key)] == key;
+  }
+
+  // Returns the removed value, or MISSING
+  synchronized int remove(long key) {
+    int slot = find(key);
+    if (keys[slot] != key) return MISSING;
+    int value = values[slot];
+
+    // Backward-shift deletion keeps probe chains intact without tombstones
+    int mask = keys.length - 1;
+    int hole = slot;
+    int next = (hole + 1) & mask;
+    while (keys[next] != 0) {
+      int home = home(keys[next]);
+      // Move the entry into the hole unless its home lies cyclically in (hole, next]
+      boolean stays = hole <= next ? home > hole && home <= next : home > hole || home <= next;
+      if (!stays) {
+        keys[hole] = keys[next];
+        values[hole] = values[next];
+        hole = next;
+      }
+      next = (next + 1) & mask;
+    }
+    keys[hole] = 0;
+    size--;
+    return value;
+  }
+
+  synchronized int size() {
+    return size;
+  }
+
+  // Number of pending URLs per log segment
+  synchronized Map<Integer, Integer> countBySegment() {
+    Map<Integer, Integer> counts = new HashMap<>();
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != 0) counts.merge(values[i], 1, Integer::sum);
+    }
+    return counts;
+  }
+
+  private int find(long key) {
+    int mask = keys.length - 1;
+    int slot = home(key);
+    while (keys[slot] != 0 && keys[slot] != key) slot = (slot + 1) & mask;
+    return slot;
+  }
+
+  private int home(long key) {
+    return (int) (key ^ (key >>> 32)) & (keys.length - 1);
+  }
+
+  private void resize() {
+    long[] oldKeys = keys;
+    int[] oldValues = values;
+    keys = new long[oldKeys.length * 2];
+    values = new int[oldValues.length * 2];
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] == 0) continue;
+      int slot = find(oldKeys[i]);
+      keys[slot] = oldKeys[i];
+      values[slot] = oldValues[i];
+    }
+  }
+}
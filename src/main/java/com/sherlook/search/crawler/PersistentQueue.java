@@ -4,78 +4,74 @@ import com.sherlook.search.utils.ConsoleColors;
 import com.sherlook.search.utils.UrlNormalizer;
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 public class PersistentQueue {
-  private final BlockingQueue<UrlDepthPair> queue = new LinkedBlockingQueue<>();
-  private final Set<UrlDepthPair> uncrawledSet = ConcurrentHashMap.newKeySet();
-  private final Map<UrlDepthPair, Long> urlPositionMap = new ConcurrentHashMap<>();
-  private final File queueFile;
+  public static final long DEFAULT_POLITENESS_DELAY_MS = 1000;
+  public static final long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+  public static final int DEFAULT_HOT_WINDOW = 10000;
+
+  // Frontier whose hot window sits in a HostScheduler, so polls only hand out URLs whose host
+  // may be fetched again; the rest is spilled to disk
+  private final Frontier queue;
+  // Fingerprints of pending URLs and the log segment of their enqueue record
+  private final PendingIndex pending = new PendingIndex();
+  private final QueueLog log;
   boolean intiallyEmpty;
-  private long currentPosition = 0;
-  private final int maxSize = 50000;
 
-  public PersistentQueue(File queueFile, Set<String> visitedUrlsSet) throws IOException {
-    this.queueFile = queueFile;
+  public PersistentQueue(File queueFile) throws IOException {
+    this(queueFile, DEFAULT_POLITENESS_DELAY_MS);
+  }
 
-    if (queueFile.exists()) {
-      try (RandomAccessFile file = new RandomAccessFile(queueFile, "r")) {
-        String line;
-        file.seek(0);
-
-        ConsoleColors.printInfo("PersistentQueue");
-        System.out.println("Loading queue from file: " + queueFile.getAbsolutePath());
-
-        while (file.getFilePointer() < file.length()) {
-          line = file.readLine();
-          if (line != null && line.startsWith("U_")) {
-            line = line.substring(2);
-            int index = line.lastIndexOf(" ");
-            if (index == -1) {
-              continue;
-            }
-            String url = UrlNormalizer.normalize(line.substring(0, index));
-            int depth = Integer.parseInt(line.substring(index + 1));
-            if (url == null) {
-              continue;
-            }
-            UrlDepthPair urlDepthPair = new UrlDepthPair(url, depth);
-            uncrawledSet.add(urlDepthPair);
-            queue.offer(urlDepthPair);
-            urlPositionMap.put(urlDepthPair, currentPosition);
-          } else if (line != null && line.startsWith("V_")) {
-            line = line.substring(2);
-            int index = line.lastIndexOf(" ");
-            if (index == -1) {
-              continue;
-            }
-            String url = UrlNormalizer.normalize(line.substring(0, index));
-            int depth = Integer.parseInt(line.substring(index + 1));
-            if (url == null) {
-              continue;
-            }
-            UrlDepthPair urlDepthPair = new UrlDepthPair(url, depth);
-            visitedUrlsSet.add(urlDepthPair.getUrl());
-          }
-          currentPosition = file.getFilePointer();
-        }
-      }
+  public PersistentQueue(File queueFile, long politenessDelayMs) throws IOException {
+    this(queueFile, politenessDelayMs, "interval", DEFAULT_SEGMENT_BYTES, DEFAULT_HOT_WINDOW);
+  }
 
+  // fsyncPolicy is one of "always", "interval" or "never", see QueueLog.FsyncPolicy;
+  // hotWindow is how many URLs are kept in memory, the rest wait in spill files
+  public PersistentQueue(
+      File queueFile, long politenessDelayMs, String fsyncPolicy, long segmentBytes, int hotWindow)
+      throws IOException {
+    this.log = new QueueLog(queueFile, QueueLog.FsyncPolicy.parse(fsyncPolicy), segmentBytes);
+    this.queue =
+        new Frontier(
+            new HostScheduler(politenessDelayMs, Robots::getCrawlDelayMs),
+            new File(queueFile.getPath() + ".spill"),
+            hotWindow,
+            Math.max(hotWindow, DEFAULT_HOT_WINDOW));
+
+    if (queueFile.exists()) {
+      ConsoleColors.printInfo("PersistentQueue");
+      System.out.println("Loading queue from file: " + queueFile.getAbsolutePath());
     } else {
       ConsoleColors.printInfo("PersistentQueue");
       System.out.println(
           "Queue file does not exist. Creating a new one: " + queueFile.getAbsolutePath());
-      queueFile.getParentFile().mkdirs();
-      queueFile.createNewFile();
     }
 
-    intiallyEmpty = queue.isEmpty();
+    // First pass: a URL is pending if its last record is an enqueue
+    log.replay(
+        (enqueue, urlDepthPair, segment) -> {
+          long fingerprint = PendingIndex.fingerprint(urlDepthPair);
+          if (enqueue) {
+            pending.put(fingerprint, segment);
+          } else {
+            pending.remove(fingerprint);
+          }
+        });
+    // Second pass: queue each pending URL once, at its last enqueue record
+    PendingIndex queued = new PendingIndex();
+    log.replay(
+        (enqueue, urlDepthPair, segment) -> {
+          if (!enqueue) return;
+          long fingerprint = PendingIndex.fingerprint(urlDepthPair);
+          if (pending.get(fingerprint) == segment && queued.putIfAbsent(fingerprint, segment)) {
+            queue.add(urlDepthPair);
+          }
+        });
+    log.open(pending.countBySegment());
+
+    intiallyEmpty = queue.size() == 0;
 
     if (intiallyEmpty) {
       ConsoleColors.printWarning("PersistentQueue");
@@ -83,61 +79,78 @@ public class PersistentQueue {
     } else {
       ConsoleColors.printInfo("PersistentQueue");
       System.out.println("Queue loaded successfully. Size: " + queue.size());
-      ConsoleColors.printInfo("PersistentQueue");
-      System.out.println("Visited URLs loaded successfully. Size: " + visitedUrlsSet.size());
     }
   }
 
+  // URLs waiting to be crawled, in memory or spilled, including those whose host isn't ready yet
+  public int size() {
+    return (int) Math.min(Integer.MAX_VALUE, queue.size());
+  }
+
   public boolean isIntiallyEmpty() {
     return intiallyEmpty;
   }
 
   public boolean offer(UrlDepthPair urlDepthPair) {
-    try {
-      if (urlDepthPair == null || uncrawledSet.contains(urlDepthPair) || queue.size() >= maxSize)
-        return false;
-
-      String urlString = urlDepthPair.getUrl();
-      urlString = UrlNormalizer.normalize(urlString);
-      if (urlString == null) {
-        return false;
-      }
-
-      synchronized (queueFile) {
-        try (RandomAccessFile file = new RandomAccessFile(queueFile, "rw")) {
-          file.seek(currentPosition);
-          urlPositionMap.put(urlDepthPair, currentPosition);
-          file.writeBytes("U_" + urlDepthPair.getUrl() + " " + urlDepthPair.getDepth() + "\n");
-          currentPosition = file.getFilePointer();
-          queue.offer(urlDepthPair);
-          uncrawledSet.add(urlDepthPair);
-        }
-      }
-
-      return true;
+    if (urlDepthPair == null) return false;
 
+    String urlString = urlDepthPair.getUrl();
+    urlString = UrlNormalizer.normalize(urlString);
+    if (urlString == null) {
+      return false;
+    }
+
+    // Claims the URL, so two threads offering it at once write only one record
+    long fingerprint = PendingIndex.fingerprint(urlDepthPair);
+    if (!pending.putIfAbsent(fingerprint, PendingIndex.UNWRITTEN)) return false;
+
+    try {
+      pending.put(fingerprint, log.append(true, urlDepthPair, -1));
     } catch (IOException e) {
+      pending.remove(fingerprint);
       ConsoleColors.printError("PersistentQueue");
       System.err.println("Error writing to queue file: " + e.getMessage());
       return false;
     }
+    queue.add(urlDepthPair);
+    return true;
   }
 
   public UrlDepthPair poll(long timeout, TimeUnit unit) throws InterruptedException {
     UrlDepthPair urlDepthPair = queue.poll(timeout, unit);
     if (urlDepthPair == null) return null;
 
+    long fingerprint = PendingIndex.fingerprint(urlDepthPair);
+    int segment = pending.get(fingerprint);
     try {
-      synchronized (queueFile) {
-        try (RandomAccessFile file = new RandomAccessFile(queueFile, "rw")) {
-          file.seek(urlPositionMap.get(urlDepthPair));
-          file.writeBytes("V_" + urlDepthPair.getUrl() + " " + urlDepthPair.getDepth() + "\n");
-          uncrawledSet.remove(urlDepthPair);
-        }
-      }
+      log.append(false, urlDepthPair, segment >= 0 ? segment : -1);
     } catch (IOException e) {
       System.err.println("[Queue] Error writing to queue file: " + e.getMessage());
     }
+    pending.remove(fingerprint);
     return urlDepthPair;
   }
+
+  // Syncs and closes the log and drops the spill files; the queue can't be used afterwards
+  public void close() {
+    try {
+      log.close();
+    } catch (IOException e) {
+      ConsoleColors.printError("PersistentQueue");
+      System.err.println("Error closing queue file: " + e.getMessage());
+    }
+    queue.close();
+  }
+
+  int compactLog() throws IOException {
+    return log.compact();
+  }
+
+  int sealedSegmentCount() {
+    return log.sealedSegmentCount();
+  }
+
+  int spillRunCount() {
+    return queue.runCount();
+  }
 }
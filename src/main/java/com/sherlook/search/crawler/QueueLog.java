@@ -0,0 +1,418 @@
+package com.sherlook.search.crawler;
+
+import com.sherlook.search.utils.ConsoleColors;
+import com.sherlook.search.utils.UrlNormalizer;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Append-only log behind PersistentQueue. Every enqueue is a "U_<url> <depth>" line and every
+// dequeue a "V_<url> <depth>" line, so replaying the log in order rebuilds the queue.
+//
+// The active segment is the queue file itself; when it grows past segmentBytes it is renamed
+// to "<queue file>.<n>" and a new one is started. A background thread deletes the oldest
+// sealed segments once every URL they enqueued has been dequeued. Only a prefix of segments
+// is ever removed, so a dequeue record never outlives the enqueue record it cancels.
+//
+// Appends are group-committed: the first thread to find no write in progress becomes the
+// leader and writes everything buffered so far in one call, the others wait for it.
+class QueueLog implements Closeable {
+  private static final String NAME = "PersistentQueue";
+  private static final long FSYNC_INTERVAL_MS = 1000;
+  private static final long COMPACTION_INTERVAL_MS = 5000;
+
+  enum FsyncPolicy {
+    // fsync every group commit before the appending threads return
+    ALWAYS,
+    // fsync from the background thread about once a second
+    INTERVAL,
+    // leave it to the OS
+    NEVER;
+
+    static FsyncPolicy parse(String value) {
+      return valueOf(value.trim().toUpperCase());
+    }
+  }
+
+  interface ReplayConsumer {
+    void accept(boolean enqueue, UrlDepthPair urlDepthPair, int segment);
+  }
+
+  private static final class Entry {
+    final boolean enqueue;
+    final UrlDepthPair urlDepthPair;
+    // For an enqueue, set by the leader to the segment the record went to. For a dequeue, the
+    // segment of the matching enqueue record, or -1 if unknown.
+    int segment;
+    // Set by the leader when the batch holding the record could not be written
+    IOException failure;
+
+    Entry(boolean enqueue, UrlDepthPair urlDepthPair, int segment) {
+      this.enqueue = enqueue;
+      this.urlDepthPair = urlDepthPair;
+      this.segment = segment;
+    }
+  }
+
+  private final File activeFile;
+  private final FsyncPolicy fsyncPolicy;
+  private final long segmentBytes;
+
+  // Group commit state, guarded by lock
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition batchWritten = lock.newCondition();
+  private List<Entry> buffer = new ArrayList<>();
+  private long appended = 0;
+  private long written = 0;
+  private boolean leaderActive = false;
+
+  // Channel and segment accounting, guarded by channelLock. Only the leader and the
+  // background thread take it.
+  private final Object channelLock = new Object();
+  private FileChannel channel;
+  private int activeSegment;
+  private long activeSize;
+  private boolean dirty = false;
+  // Sealed segment -> number of URLs it enqueued that are still pending. The caller tracks
+  // which segment each pending URL is in and hands it back on dequeue.
+  private final TreeMap<Integer, Integer> sealedLive = new TreeMap<>();
+  private int activeLive = 0;
+
+  private final ScheduledExecutorService background;
+
+  QueueLog(File activeFile, FsyncPolicy fsyncPolicy, long segmentBytes) {
+    this.activeFile = activeFile;
+    this.fsyncPolicy = fsyncPolicy;
+    this.segmentBytes = segmentBytes;
+    this.background =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread thread = new Thread(r, "queue-log");
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  // Replays every complete record in log order. Can run more than once before open().
+  void replay(ReplayConsumer consumer) throws IOException {
+    synchronized (channelLock) {
+      List<Integer> sealed = sealedSegments();
+      for (int segment : sealed) replayFile(segmentFile(segment), segment, consumer);
+      if (activeFile.exists()) replayFile(activeFile, activeSegment(sealed), consumer);
+    }
+  }
+
+  // Opens the active segment for appending. liveCounts holds the number of pending URLs per
+  // segment, as worked out by the caller from replay().
+  void open(Map<Integer, Integer> liveCounts) throws IOException {
+    synchronized (channelLock) {
+      List<Integer> sealed = sealedSegments();
+      activeSegment = activeSegment(sealed);
+      for (int segment : sealed) sealedLive.put(segment, liveCounts.getOrDefault(segment, 0));
+      activeLive = liveCounts.getOrDefault(activeSegment, 0);
+
+      if (activeFile.getParentFile() != null) activeFile.getParentFile().mkdirs();
+      channel =
+          FileChannel.open(
+              activeFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+      // A crash can leave half a record at the end, start writing after the last full one
+      activeSize = lastCompleteRecordEnd(activeFile);
+      channel.truncate(activeSize);
+      channel.position(activeSize);
+    }
+
+    if (fsyncPolicy == FsyncPolicy.INTERVAL) {
+      background.scheduleWithFixedDelay(
+          this::syncQuietly, FSYNC_INTERVAL_MS, FSYNC_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+    background.scheduleWithFixedDelay(
+        this::compactQuietly,
+        COMPACTION_INTERVAL_MS,
+        COMPACTION_INTERVAL_MS,
+        TimeUnit.MILLISECONDS);
+  }
+
+  // Returns once the record is written (and synced, with FsyncPolicy.ALWAYS), with the
+  // segment it was written to
+  int append(boolean enqueue, UrlDepthPair urlDepthPair, int enqueueSegment) throws IOException {
+    lock.lock();
+    try {
+      Entry entry = new Entry(enqueue, urlDepthPair, enqueueSegment);
+      buffer.add(entry);
+      long mine = ++appended;
+
+      while (written < mine) {
+        if (leaderActive) {
+          batchWritten.awaitUninterruptibly();
+          continue;
+        }
+
+        leaderActive = true;
+        List<Entry> batch = buffer;
+        buffer = new ArrayList<>();
+        long batchEnd = appended;
+
+        lock.unlock();
+        IOException error = null;
+        try {
+          writeBatch(batch);
+        } catch (IOException e) {
+          error = e;
+        } catch (RuntimeException e) {
+          error = new IOException(e);
+        } finally {
+          lock.lock();
+        }
+
+        if (error != null) {
+          for (Entry failed : batch) failed.failure = error;
+        }
+        written = batchEnd;
+        leaderActive = false;
+        batchWritten.signalAll();
+      }
+
+      if (entry.failure != null) throw entry.failure;
+      return entry.segment;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void writeBatch(List<Entry> batch) throws IOException {
+    StringBuilder records = new StringBuilder(batch.size() * 64);
+    for (Entry entry : batch) {
+      records
+          .append(entry.enqueue ? "U_" : "V_")
+          .append(entry.urlDepthPair.getUrl())
+          .append(' ')
+          .append(entry.urlDepthPair.getDepth())
+          .append('\n');
+    }
+    ByteBuffer bytes = ByteBuffer.wrap(records.toString().getBytes(StandardCharsets.UTF_8));
+
+    synchronized (channelLock) {
+      while (bytes.hasRemaining()) channel.write(bytes);
+      activeSize = channel.position();
+      if (fsyncPolicy == FsyncPolicy.ALWAYS) {
+        channel.force(false);
+      } else {
+        dirty = true;
+      }
+
+      for (Entry entry : batch) {
+        if (entry.enqueue) {
+          entry.segment = activeSegment;
+          addLive(activeSegment, 1);
+        } else if (entry.segment >= 0) {
+          addLive(entry.segment, -1);
+        }
+      }
+
+      if (activeSize >= segmentBytes) rotate();
+    }
+  }
+
+  // Seals the active segment under the next number and starts an empty one. The old channel
+  // stays open until the new segment is, so a failure leaves the log appending where it was.
+  private void rotate() throws IOException {
+    channel.force(true);
+    File sealedFile = segmentFile(activeSegment);
+    Files.move(activeFile.toPath(), sealedFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+    FileChannel next;
+    try {
+      next =
+          FileChannel.open(
+              activeFile.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    } catch (IOException | RuntimeException e) {
+      // The open channel follows the file, put it back under the active name
+      Files.move(sealedFile.toPath(), activeFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      throw e;
+    }
+
+    FileChannel sealed = channel;
+    channel = next;
+    sealedLive.put(activeSegment, activeLive);
+    activeLive = 0;
+    activeSegment++;
+    activeSize = 0;
+    dirty = false;
+    try {
+      sealed.close();
+    } catch (IOException e) {
+      // Already forced, nothing is lost
+      ConsoleColors.printWarning(NAME);
+      System.out.println("Error closing sealed queue segment: " + e.getMessage());
+    }
+
+    background.execute(this::compactQuietly);
+  }
+
+  // Deletes the longest prefix of sealed segments with nothing pending. Returns how many.
+  int compact() throws IOException {
+    synchronized (channelLock) {
+      int removed = 0;
+      while (!sealedLive.isEmpty() && sealedLive.firstEntry().getValue() == 0) {
+        int segment = sealedLive.pollFirstEntry().getKey();
+        Files.deleteIfExists(segmentFile(segment).toPath());
+        removed++;
+      }
+      return removed;
+    }
+  }
+
+  void sync() throws IOException {
+    synchronized (channelLock) {
+      if (!dirty || !channel.isOpen()) return;
+      channel.force(false);
+      dirty = false;
+    }
+  }
+
+  int sealedSegmentCount() {
+    synchronized (channelLock) {
+      return sealedLive.size();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    background.shutdownNow();
+    synchronized (channelLock) {
+      if (channel.isOpen()) {
+        channel.force(false);
+        channel.close();
+      }
+    }
+  }
+
+  private void addLive(int segment, int delta) {
+    if (segment == activeSegment) {
+      activeLive += delta;
+    } else {
+      sealedLive.computeIfPresent(segment, (key, live) -> live + delta);
+    }
+  }
+
+  private void syncQuietly() {
+    try {
+      sync();
+    } catch (IOException e) {
+      ConsoleColors.printError(NAME);
+      System.err.println("Error syncing queue file: " + e.getMessage());
+    }
+  }
+
+  private void compactQuietly() {
+    try {
+      compact();
+    } catch (IOException e) {
+      ConsoleColors.printError(NAME);
+      System.err.println("Error compacting queue segments: " + e.getMessage());
+    }
+  }
+
+  private static int activeSegment(List<Integer> sealed) {
+    return sealed.isEmpty() ? 1 : sealed.get(sealed.size() - 1) + 1;
+  }
+
+  private File segmentFile(int segment) {
+    return new File(activeFile.getPath() + "." + segment);
+  }
+
+  private List<Integer> sealedSegments() {
+    List<Integer> segments = new ArrayList<>();
+    File dir = activeFile.getAbsoluteFile().getParentFile();
+    String prefix = activeFile.getName() + ".";
+    String[] names = dir != null ? dir.list() : null;
+    if (names == null) return segments;
+
+    for (String name : names) {
+      if (!name.startsWith(prefix)) continue;
+      String suffix = name.substring(prefix.length());
+      if (!suffix.isEmpty() && suffix.chars().allMatch(Character::isDigit)) {
+        segments.add(Integer.parseInt(suffix));
+      }
+    }
+    segments.sort(null);
+    return segments;
+  }
+
+  // Only complete, newline-terminated records are replayed
+  private void replayFile(File file, int segment, ReplayConsumer consumer) throws IOException {
+    try (InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16)) {
+      ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+      int b;
+      while ((b = in.read()) != -1) {
+        if (b != '\n') {
+          line.write(b);
+          continue;
+        }
+        replayRecord(line.toString(StandardCharsets.UTF_8), segment, consumer);
+        line.reset();
+      }
+    }
+  }
+
+  private void replayRecord(String line, int segment, ReplayConsumer consumer) {
+    boolean enqueue = line.startsWith("U_");
+    if (!enqueue && !line.startsWith("V_")) return;
+
+    line = line.substring(2);
+    int index = line.lastIndexOf(" ");
+    if (index == -1) return;
+
+    String url = UrlNormalizer.normalize(line.substring(0, index));
+    int depth;
+    try {
+      depth = Integer.parseInt(line.substring(index + 1).trim());
+    } catch (NumberFormatException e) {
+      return;
+    }
+    if (url == null) return;
+
+    consumer.accept(enqueue, new UrlDepthPair(url, depth), segment);
+  }
+
+  private static long lastCompleteRecordEnd(File file) throws IOException {
+    long length = file.length();
+    if (length == 0) return 0;
+
+    try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      ByteBuffer block = ByteBuffer.allocate(4096);
+      long end = length;
+      while (end > 0) {
+        long start = Math.max(0, end - block.capacity());
+        block.clear().limit((int) (end - start));
+        while (block.hasRemaining()) {
+          if (in.read(block, start + block.position()) < 0) break;
+        }
+        for (int i = block.position() - 1; i >= 0; i--) {
+          if (block.get(i) == '\n') return start + i + 1;
+        }
+        end = start;
+      }
+      return 0;
+    }
+  }
+}
@@ -10,11 +10,13 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 public class Robots {
   private static Map<String, List<Pattern>> robotsDisallow = new HashMap<>();
   private static Map<String, List<Pattern>> robotsAllow = new HashMap<>();
+  private static Map<String, Long> robotsCrawlDelay = new ConcurrentHashMap<>();
 
   public static void fetchRobots(String url) {
     try {
@@ -64,6 +66,9 @@ public class Robots {
           } else if (line.toLowerCase().startsWith("allow:") && myUserAgent) {
             String allowedUrl = line.substring("allow:".length()).trim();
             allowedUrls.add(Pattern.compile(ruleToRegex(allowedUrl)));
+          } else if (line.toLowerCase().startsWith("crawl-delay:") && myUserAgent) {
+            long delayMs = parseCrawlDelay(line.substring("crawl-delay:".length()));
+            if (delayMs >= 0) robotsCrawlDelay.put(baseUrl, delayMs);
           }
         }
         reader.close();
@@ -142,6 +147,28 @@ public class Robots {
     }
   }
 
+  // Crawl-delay of the URL's host in ms, or -1 if it has none or robots.txt wasn't fetched yet.
+  // Never fetches robots.txt itself, the crawler does that when it checks isAllowed.
+  public static long getCrawlDelayMs(String url) {
+    try {
+      URI uri = new URI(url);
+      Long delayMs = robotsCrawlDelay.get(uri.getScheme() + "://" + uri.getHost());
+      return delayMs != null ? delayMs : -1;
+    } catch (Exception e) {
+      return -1;
+    }
+  }
+
+  // Crawl-delay is in seconds and may be fractional
+  static long parseCrawlDelay(String value) {
+    try {
+      double seconds = Double.parseDouble(value.trim());
+      return seconds >= 0 ? (long) (seconds * 1000) : -1;
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
   private static String ruleToRegex(String rule) {
     // Escape all regex special characters except '*' and '$'
     String escaped = rule.replaceAll("([\\\\.\\+\\?\\^\\{\\}\\(\\)\\[\\]\\|])", "\\\\$1");
@@ -0,0 +1,200 @@
+package com.sherlook.search.crawler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+// Scalable Bloom filter of URLs the crawler has seen. It starts with one filter sized for
+// expectedUrls and adds a filter twice as large, with half the false-positive rate, whenever
+// the newest one is full, so the overall rate stays under falsePositiveRate however many URLs
+// come in. There are no false negatives: a URL it has not seen is certainly new, a URL it
+// has seen needs confirming against the database.
+public class SeenUrlFilter {
+  private static final int MAGIC = 0x53454e55;
+  private static final int VERSION = 1;
+  private static final int GROWTH = 2;
+  private static final double TIGHTENING = 0.5;
+
+  private final long initialCapacity;
+  private final double falsePositiveRate;
+  private final List<Slice> slices = new ArrayList<>();
+  private long size = 0;
+  // Last document whose URL is known to be in the filter, see save()
+  private long lastDocumentId = 0;
+
+  private static final class Slice {
+    final long capacity;
+    final int hashes;
+    final long bitCount;
+    final long[] bits;
+    long count = 0;
+
+    Slice(long capacity, int hashes, long bitCount) {
+      this.capacity = capacity;
+      this.hashes = hashes;
+      this.bitCount = bitCount;
+      this.bits = new long[(int) ((bitCount + 63) / 64)];
+    }
+
+    boolean contains(long h1, long h2) {
+      for (int i = 0; i < hashes; i++) {
+        long bit = Long.remainderUnsigned(h1 + i * h2, bitCount);
+        if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) return false;
+      }
+      return true;
+    }
+
+    void add(long h1, long h2) {
+      for (int i = 0; i < hashes; i++) {
+        long bit = Long.remainderUnsigned(h1 + i * h2, bitCount);
+        bits[(int) (bit >>> 6)] |= 1L << bit;
+      }
+      count++;
+    }
+  }
+
+  public SeenUrlFilter(long expectedUrls, double falsePositiveRate) {
+    if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+      throw new IllegalArgumentException("False positive rate must be in (0, 1)");
+    }
+    this.initialCapacity = Math.max(1, expectedUrls);
+    this.falsePositiveRate = falsePositiveRate;
+  }
+
+  // Records the URL, returns false if it may have been seen before
+  public synchronized boolean add(String url) {
+    long h1 = hash(url);
+    long h2 = mix(h1 ^ 0x9e3779b97f4a7c15L) | 1;
+    for (Slice slice : slices) {
+      if (slice.contains(h1, h2)) return false;
+    }
+
+    Slice last = slices.isEmpty() ? null : slices.get(slices.size() - 1);
+    if (last == null || last.count >= last.capacity) {
+      last = newSlice(slices.size());
+      slices.add(last);
+    }
+    last.add(h1, h2);
+    size++;
+    return true;
+  }
+
+  public synchronized boolean mightContain(String url) {
+    long h1 = hash(url);
+    long h2 = mix(h1 ^ 0x9e3779b97f4a7c15L) | 1;
+    for (Slice slice : slices) {
+      if (slice.contains(h1, h2)) return true;
+    }
+    return false;
+  }
+
+  // URLs added, not counting ones that looked seen already
+  public synchronized long size() {
+    return size;
+  }
+
+  public synchronized long getLastDocumentId() {
+    return lastDocumentId;
+  }
+
+  public synchronized int sliceCount() {
+    return slices.size();
+  }
+
+  // Writes a snapshot. lastDocumentId must be read before the call: every document up to it
+  // has its URL in the filter, so loading only needs to catch up on later documents.
+  public synchronized void save(File file, long lastDocumentId) throws IOException {
+    this.lastDocumentId = lastDocumentId;
+    if (file.getParentFile() != null) file.getParentFile().mkdirs();
+    File temp = new File(file.getPath() + ".tmp");
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(initialCapacity);
+      out.writeDouble(falsePositiveRate);
+      out.writeLong(lastDocumentId);
+      out.writeLong(size);
+      out.writeInt(slices.size());
+      for (Slice slice : slices) {
+        out.writeLong(slice.capacity);
+        out.writeInt(slice.hashes);
+        out.writeLong(slice.bitCount);
+        out.writeLong(slice.count);
+        for (long word : slice.bits) out.writeLong(word);
+      }
+    }
+    // Replace the old snapshot in one step, so a crash never leaves half of one
+    Files.move(
+        temp.toPath(),
+        file.toPath(),
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  // Reads a snapshot written by save(). The sizing it was created with is kept, the arguments
+  // only apply when there is no snapshot yet.
+  public static SeenUrlFilter load(File file, long expectedUrls, double falsePositiveRate)
+      throws IOException {
+    if (!file.exists()) return new SeenUrlFilter(expectedUrls, falsePositiveRate);
+
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IOException("Not a seen-URL snapshot: " + file);
+      }
+      SeenUrlFilter filter = new SeenUrlFilter(in.readLong(), in.readDouble());
+      filter.lastDocumentId = in.readLong();
+      filter.size = in.readLong();
+      int sliceCount = in.readInt();
+      for (int i = 0; i < sliceCount; i++) {
+        Slice slice = new Slice(in.readLong(), in.readInt(), in.readLong());
+        slice.count = in.readLong();
+        for (int j = 0; j < slice.bits.length; j++) slice.bits[j] = in.readLong();
+        filter.slices.add(slice);
+      }
+      return filter;
+    }
+  }
+
+  private Slice newSlice(int index) {
+    long capacity = initialCapacity;
+    for (int i = 0; i < index && capacity < Long.MAX_VALUE / GROWTH; i++) capacity *= GROWTH;
+    // Rates p0, p0 * r, p0 * r^2, ... sum to at most falsePositiveRate
+    double rate = falsePositiveRate * (1 - TIGHTENING) * Math.pow(TIGHTENING, index);
+    double ln2 = Math.log(2);
+    long bitCount = (long) Math.ceil(-capacity * Math.log(rate) / (ln2 * ln2));
+    bitCount = Math.min(Math.max(64, bitCount), (long) Integer.MAX_VALUE * 64);
+    int hashes = (int) Math.max(1, Math.round((double) bitCount / capacity * ln2));
+    return new Slice(capacity, hashes, bitCount);
+  }
+
+  private static long hash(String url) {
+    // FNV-1a over the UTF-8 bytes, then a murmur3 finalizer to spread the bits
+    long hash = 0xcbf29ce484222325L;
+    for (byte b : url.getBytes(StandardCharsets.UTF_8)) {
+      hash ^= b & 0xff;
+      hash *= 0x100000001b3L;
+    }
+    return mix(hash);
+  }
+
+  private static long mix(long hash) {
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+}
@@ -0,0 +1,123 @@
+package com.sherlook.search.index;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// URL, title and description of every indexed document, packed as UTF-8 into one direct
+// buffer outside the Java heap, with a dense offset table indexed by document ID. Ranking only
+// needs IDs and sizes, so strings are decoded just for the page of results being returned.
+//
+// Record: url length, title length, description length (ints, -1 for null), then the bytes
+public final class DocumentStore {
+  private static final int HEADER_BYTES = 12;
+
+  private final ByteBuffer data;
+  // -1 where there is no document
+  private final int[] offsets;
+  private final int[] sizes;
+  private final int count;
+
+  private DocumentStore(ByteBuffer data, int[] offsets, int[] sizes, int count) {
+    this.data = data;
+    this.offsets = offsets;
+    this.sizes = sizes;
+    this.count = count;
+  }
+
+  public static DocumentStore empty() {
+    return new Builder().build();
+  }
+
+  public boolean contains(int documentId) {
+    return documentId >= 0 && documentId < offsets.length && offsets[documentId] >= 0;
+  }
+
+  public int getSize(int documentId) {
+    return contains(documentId) ? sizes[documentId] : 0;
+  }
+
+  // Decodes the document's strings, or returns null if it isn't in the store
+  public IndexedDocument get(int documentId) {
+    if (!contains(documentId)) return null;
+
+    ByteBuffer record = data.duplicate();
+    record.position(offsets[documentId]);
+    int urlLength = record.getInt();
+    int titleLength = record.getInt();
+    int descriptionLength = record.getInt();
+    String url = readString(record, urlLength);
+    String title = readString(record, titleLength);
+    String description = readString(record, descriptionLength);
+    return new IndexedDocument(documentId, url, title, description, sizes[documentId]);
+  }
+
+  public int count() {
+    return count;
+  }
+
+  public int sizeInBytes() {
+    return data.capacity();
+  }
+
+  private static String readString(ByteBuffer record, int length) {
+    if (length < 0) return null;
+    byte[] bytes = new byte[length];
+    record.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  public static class Builder {
+    private byte[] bytes = new byte[1 << 12];
+    private int length = 0;
+    private int[] offsets = new int[0];
+    private int[] sizes = new int[0];
+    private int count = 0;
+
+    public Builder add(IndexedDocument document) {
+      int id = document.getId();
+      if (id >= offsets.length) {
+        int capacity = Math.max(id + 1, offsets.length * 2);
+        int previous = offsets.length;
+        offsets = Arrays.copyOf(offsets, capacity);
+        Arrays.fill(offsets, previous, capacity, -1);
+        sizes = Arrays.copyOf(sizes, capacity);
+      }
+      if (offsets[id] < 0) count++;
+
+      byte[] url = encode(document.getUrl());
+      byte[] title = encode(document.getTitle());
+      byte[] description = encode(document.getDescription());
+      int recordLength = HEADER_BYTES + lengthOf(url) + lengthOf(title) + lengthOf(description);
+      if (length + recordLength > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + recordLength));
+      }
+
+      offsets[id] = length;
+      sizes[id] = document.getSize();
+      ByteBuffer record = ByteBuffer.wrap(bytes, length, recordLength);
+      record.putInt(url != null ? url.length : -1);
+      record.putInt(title != null ? title.length : -1);
+      record.putInt(description != null ? description.length : -1);
+      if (url != null) record.put(url);
+      if (title != null) record.put(title);
+      if (description != null) record.put(description);
+      length += recordLength;
+      return this;
+    }
+
+    public DocumentStore build() {
+      ByteBuffer data = ByteBuffer.allocateDirect(length);
+      data.put(bytes, 0, length).flip();
+      return new DocumentStore(data, offsets, sizes, count);
+    }
+
+    private static byte[] encode(String value) {
+      return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    private static int lengthOf(byte[] value) {
+      return value != null ? value.length : 0;
+    }
+  }
+}
@@ -0,0 +1,160 @@
+package com.sherlook.search.index;
+
+import com.sherlook.search.indexer.TokenBuffer;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.springframework.web.util.HtmlUtils;
+
+// Forward index of one document, as stored in document_text: the text the tokenizer saw, with
+// its original casing and punctuation, and the character offset of the token at every
+// position. A snippet around a position is cut straight out of the text, with no need to look
+// up the words around it in the postings.
+//
+// The text is stored deflated, the offsets as a count followed by variable-byte deltas.
+public final class ForwardText {
+  private final String text;
+  // Indexed by position
+  private final int[] offsets;
+
+  public ForwardText(String text, int[] offsets) {
+    this.text = text;
+    this.offsets = offsets;
+  }
+
+  // Positions of the buffer are expected to run from 0 without gaps, as the indexer numbers them
+  public static ForwardText of(TokenBuffer tokens) {
+    int size = 0;
+    for (int i = 0; i < tokens.size(); i++) size = Math.max(size, tokens.position(i) + 1);
+    int[] offsets = new int[size];
+    for (int i = 0; i < tokens.size(); i++) {
+      if (tokens.textOffset(i) >= 0) offsets[tokens.position(i)] = tokens.textOffset(i);
+    }
+    return new ForwardText(tokens.text(), offsets);
+  }
+
+  public static ForwardText decode(byte[] text, byte[] offsets) {
+    ByteBuffer buffer = ByteBuffer.wrap(offsets);
+    int[] decoded = new int[VarByte.read(buffer)];
+    int offset = 0;
+    for (int i = 0; i < decoded.length; i++) {
+      offset += VarByte.read(buffer);
+      decoded[i] = offset;
+    }
+    return new ForwardText(inflate(text), decoded);
+  }
+
+  public byte[] encodeText() {
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try {
+      deflater.setInput(text.getBytes(StandardCharsets.UTF_8));
+      deflater.finish();
+      ByteArrayOutputStream out = new ByteArrayOutputStream(text.length() / 2 + 16);
+      byte[] chunk = new byte[8192];
+      while (!deflater.finished()) out.write(chunk, 0, deflater.deflate(chunk));
+      return out.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  public byte[] encodeOffsets() {
+    VarByte.Writer writer = new VarByte.Writer(offsets.length + 4);
+    writer.writeInt(offsets.length);
+    int previous = 0;
+    for (int offset : offsets) {
+      writer.writeInt(offset - previous);
+      previous = offset;
+    }
+    return writer.toByteArray();
+  }
+
+  public String getText() {
+    return text;
+  }
+
+  // Number of positions
+  public int size() {
+    return offsets.length;
+  }
+
+  // Text of the windows of windowSize positions either side of each center, merged where they
+  // overlap and HTML escaped. Words whose lowercase form is in highlight are put in bold.
+  // Returns null when none of the centers is a position of the document.
+  public String snippet(List<Integer> centers, int windowSize, Set<String> highlight) {
+    List<int[]> windows = new ArrayList<>();
+    for (int center : centers.stream().sorted().toList()) {
+      if (center < 0 || center >= offsets.length) continue;
+      int from = Math.max(0, center - windowSize);
+      int to = Math.min(offsets.length - 1, center + windowSize);
+      int[] last = windows.isEmpty() ? null : windows.get(windows.size() - 1);
+      if (last != null && from <= last[1] + 1) {
+        last[1] = Math.max(last[1], to);
+      } else {
+        windows.add(new int[] {from, to});
+      }
+    }
+    if (windows.isEmpty()) return null;
+
+    StringBuilder snippet = new StringBuilder();
+    if (offsets[windows.get(0)[0]] > 0) snippet.append("... ");
+    int end = 0;
+    for (int w = 0; w < windows.size(); w++) {
+      if (w > 0) snippet.append(" ... ");
+      int[] window = windows.get(w);
+      int cursor = offsets[window[0]];
+      for (int position = window[0]; position <= window[1]; position++) {
+        int start = offsets[position];
+        end = wordEnd(start);
+        snippet.append(HtmlUtils.htmlEscape(text.substring(cursor, start)));
+        String word = HtmlUtils.htmlEscape(text.substring(start, end));
+        if (highlight.contains(word.toLowerCase())) {
+          snippet.append("<b>").append(word).append("</b>");
+        } else {
+          snippet.append(word);
+        }
+        cursor = end;
+      }
+    }
+    if (end < text.length()) snippet.append(" ...");
+    return snippet.toString();
+  }
+
+  // Tokens are runs of ASCII letters, digits and underscores, see Tokenizer
+  private int wordEnd(int start) {
+    int i = start;
+    while (i < text.length()) {
+      char c = text.charAt(i);
+      boolean wordChar =
+          (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+      if (!wordChar) break;
+      i++;
+    }
+    return i;
+  }
+
+  private static String inflate(byte[] compressed) {
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(compressed);
+      ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 3);
+      byte[] chunk = new byte[8192];
+      while (!inflater.finished()) {
+        int length = inflater.inflate(chunk);
+        if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+        out.write(chunk, 0, length);
+      }
+      return out.toString(StandardCharsets.UTF_8);
+    } catch (DataFormatException e) {
+      throw new IllegalArgumentException("Corrupt document text: " + e.getMessage(), e);
+    } finally {
+      inflater.end();
+    }
+  }
+}
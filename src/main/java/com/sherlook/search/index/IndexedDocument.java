@@ -0,0 +1,37 @@
+package com.sherlook.search.index;
+
+public class IndexedDocument {
+  private final int id;
+  private final String url;
+  private final String title;
+  private final String description;
+  private final int size;
+
+  public IndexedDocument(int id, String url, String title, String description, int size) {
+    this.id = id;
+    this.url = url;
+    this.title = title;
+    this.description = description;
+    this.size = size;
+  }
+
+  public int getId() {
+    return id;
+  }
+
+  public String getUrl() {
+    return url;
+  }
+
+  public String getTitle() {
+    return title;
+  }
+
+  public String getDescription() {
+    return description;
+  }
+
+  public int getSize() {
+    return size;
+  }
+}
@@ -0,0 +1,263 @@
+package com.sherlook.search.index;
+
+import com.sherlook.search.indexer.Section;
+import com.sherlook.search.ranker.DocumentTerm;
+import com.sherlook.search.ranker.DocumentTerm.DocumentTermBuilder;
+import com.sherlook.search.utils.ConsoleColors;
+import com.sherlook.search.utils.DatabaseHelper;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+// Serving-side copy of the words/document_words tables, loaded once at startup so queries
+// don't have to go through SQLite. When the indexer has written a segment file it is
+// memory-mapped instead; otherwise posting lists are loaded compressed onto the heap.
+@Component
+public class InvertedIndex {
+  private static final Section[] SECTIONS = Section.values();
+
+  private final DatabaseHelper databaseHelper;
+
+  @Value("${index.in-memory.enabled:true}")
+  private boolean enabled = true;
+
+  @Value("${index.segment.path:}")
+  private String segmentPath = "";
+
+  @Value("${index.segment.verify-checksum:false}")
+  private boolean verifySegmentChecksum = false;
+
+  private Segment segment;
+  private Map<String, Integer> wordIds = Collections.emptyMap();
+  private PostingList[] postings = new PostingList[0];
+  private DocumentStore documents = DocumentStore.empty();
+  private volatile boolean loaded = false;
+
+  @Autowired
+  public InvertedIndex(DatabaseHelper databaseHelper) {
+    this.databaseHelper = databaseHelper;
+  }
+
+  public boolean isLoaded() {
+    return loaded;
+  }
+
+  public void load() {
+    if (!enabled) {
+      ConsoleColors.printInfo("InvertedIndex");
+      System.out.println("In-memory index disabled, queries will be served from the database");
+      return;
+    }
+
+    if (!segmentPath.isEmpty() && Files.exists(Paths.get(segmentPath)) && openSegment()) {
+      return;
+    }
+
+    ConsoleColors.printInfo("InvertedIndex");
+    System.out.println("Loading inverted index from the database");
+    long start = System.currentTimeMillis();
+
+    try {
+      Map<String, Integer> words = databaseHelper.getWordIds();
+      int maxWordId = words.values().stream().mapToInt(Integer::intValue).max().orElse(0);
+
+      DocumentStore docs = loadDocuments();
+
+      PostingLoader loader = new PostingLoader(maxWordId, docs);
+      databaseHelper.forEachPosting(loader);
+      loader.finish();
+
+      this.wordIds = words;
+      this.documents = docs;
+      this.postings = loader.lists;
+      this.loaded = true;
+
+      ConsoleColors.printSuccess("InvertedIndex");
+      System.out.println(
+          "Loaded "
+              + loader.listCount
+              + " posting lists ("
+              + (loader.totalBytes / 1024)
+              + " KB) for "
+              + docs.count()
+              + " documents ("
+              + (docs.sizeInBytes() / 1024)
+              + " KB of metadata) in "
+              + (System.currentTimeMillis() - start)
+              + " ms");
+    } catch (Exception e) {
+      ConsoleColors.printError("InvertedIndex");
+      System.err.println(
+          "Failed to load inverted index, falling back to the database: " + e.getMessage());
+    }
+  }
+
+  private boolean openSegment() {
+    Path path = Paths.get(segmentPath);
+    long start = System.currentTimeMillis();
+    try {
+      Segment opened = Segment.open(path, verifySegmentChecksum);
+
+      DocumentStore docs = loadDocuments();
+
+      this.segment = opened;
+      this.documents = docs;
+      this.loaded = true;
+
+      ConsoleColors.printSuccess("InvertedIndex");
+      System.out.println(
+          "Mapped segment "
+              + path
+              + " with "
+              + opened.getTermCount()
+              + " terms for "
+              + docs.count()
+              + " documents ("
+              + (docs.sizeInBytes() / 1024)
+              + " KB of metadata) in "
+              + (System.currentTimeMillis() - start)
+              + " ms");
+      return true;
+    } catch (IOException e) {
+      ConsoleColors.printWarning("InvertedIndex");
+      System.out.println("Could not open segment, loading from the database: " + e.getMessage());
+      return false;
+    }
+  }
+
+  public PostingList getPostings(String word) {
+    if (segment != null) return segment.getPostings(word);
+
+    Integer wordId = wordIds.get(word);
+    if (wordId == null || wordId >= postings.length) return null;
+    return postings[wordId];
+  }
+
+  private DocumentStore loadDocuments() {
+    DocumentStore.Builder builder = new DocumentStore.Builder();
+    for (IndexedDocument document : databaseHelper.getIndexedDocuments()) builder.add(document);
+    return builder.build();
+  }
+
+  public boolean hasDocument(int documentId) {
+    return documents.contains(documentId);
+  }
+
+  public int getDocumentSize(int documentId) {
+    return documents.getSize(documentId);
+  }
+
+  // Decodes the document's URL, title and description, only needed for returned results
+  public IndexedDocument getDocument(int documentId) {
+    return documents.get(documentId);
+  }
+
+  // Same shape as DatabaseHelper.getDocumentTerms, for the given documents only. Entries of
+  // other documents are stepped over without decoding their positions.
+  public List<DocumentTerm> getDocumentTerms(List<String> queryTerms, Set<Integer> documentIds) {
+    List<DocumentTerm> result = new ArrayList<>();
+    if (queryTerms == null || documentIds.isEmpty()) return result;
+
+    for (String term : new LinkedHashSet<>(queryTerms)) {
+      PostingList list = getPostings(term);
+      if (list == null) continue;
+
+      PostingList.Cursor cursor = list.cursor();
+      while (cursor.next()) {
+        int docId = cursor.docId();
+        if (!documentIds.contains(docId) || !documents.contains(docId)) continue;
+        result.add(toDocumentTerm(term, docId, documents.getSize(docId), cursor));
+      }
+    }
+
+    return result;
+  }
+
+  // Documents containing every one of the terms, found from the document IDs alone
+  public Set<Integer> getDocumentsContainingAll(List<String> terms) {
+    Set<Integer> result = null;
+    for (String term : new LinkedHashSet<>(terms)) {
+      PostingList list = getPostings(term);
+      if (list == null) return new HashSet<>();
+
+      Set<Integer> found = new HashSet<>();
+      PostingList.Cursor cursor = list.cursor();
+      while (cursor.next()) {
+        int docId = cursor.docId();
+        if (documents.contains(docId) && (result == null || result.contains(docId))) {
+          found.add(docId);
+        }
+      }
+      result = found;
+    }
+    return result == null ? new HashSet<>() : result;
+  }
+
+  // The entry the cursor is on, with its positions, as the ranker sees it
+  public static DocumentTerm toDocumentTerm(
+      String term, int documentId, int documentSize, PostingList.Cursor cursor) {
+    DocumentTermBuilder builder = new DocumentTermBuilder(term, documentId, documentSize);
+    for (Section section : SECTIONS) {
+      int frequency = cursor.frequency(section);
+      if (frequency == 0) continue;
+
+      int[] raw = cursor.positions(section);
+      List<Integer> positions = new ArrayList<>(frequency);
+      for (int i = 0; i < frequency; i++) positions.add(raw[i]);
+      builder.addPositions(section.toString(), positions);
+    }
+    return builder.build();
+  }
+
+  // Rows arrive ordered by word ID, so only one list is being built at a time
+  private static class PostingLoader implements DatabaseHelper.PostingConsumer {
+    private final PostingList[] lists;
+    private final DocumentStore documents;
+    private PostingList.Builder builder;
+    private int currentWordId = -1;
+    private int listCount = 0;
+    private long totalBytes = 0;
+
+    PostingLoader(int maxWordId, DocumentStore documents) {
+      this.lists = new PostingList[maxWordId + 1];
+      this.documents = documents;
+    }
+
+    @Override
+    public void accept(int wordId, int documentId, int position, Section section) {
+      if (wordId >= lists.length) return; // word added after the dictionary was read
+
+      if (wordId != currentWordId) {
+        finish();
+        currentWordId = wordId;
+        builder = new PostingList.Builder(this::documentSize);
+      }
+      builder.add(documentId, section, position);
+    }
+
+    private int documentSize(int documentId) {
+      return documents.contains(documentId) ? documents.getSize(documentId) : 1;
+    }
+
+    void finish() {
+      if (builder == null || builder.isEmpty()) return;
+
+      PostingList list = builder.build();
+      lists[currentWordId] = list;
+      listCount++;
+      totalBytes += list.sizeInBytes();
+      builder = null;
+    }
+  }
+}
@@ -0,0 +1,149 @@
+package com.sherlook.search.index;
+
+import com.sherlook.search.indexer.Section;
+import com.sherlook.search.indexer.TokenBuffer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// One word's positions in one document, as stored in document_postings.positions. The layout
+// is a PostingList entry without the document ID: the number of sections, then for each
+// section its ordinal, frequency and delta-encoded positions, all variable-byte coded.
+public final class PositionBlob {
+  private static final Section[] SECTIONS = Section.values();
+
+  private PositionBlob() {}
+
+  @FunctionalInterface
+  public interface PositionConsumer {
+    void accept(Section section, int position);
+  }
+
+  // Encodes every term of a document's buffer, returns blobs indexed by term ID
+  public static byte[][] encodeTerms(TokenBuffer tokens) {
+    int termCount = tokens.termCount();
+    // Group token indexes by term, keeping their order so positions stay ascending
+    int[] start = new int[termCount + 1];
+    for (int termId = 0; termId < termCount; termId++) {
+      start[termId + 1] = start[termId] + tokens.occurrences(termId);
+    }
+    int[] next = Arrays.copyOf(start, termCount);
+    int[] grouped = new int[tokens.size()];
+    for (int i = 0; i < tokens.size(); i++) grouped[next[tokens.termId(i)]++] = i;
+
+    byte[][] blobs = new byte[termCount][];
+    Builder builder = new Builder();
+    for (int termId = 0; termId < termCount; termId++) {
+      for (int i = start[termId]; i < start[termId + 1]; i++) {
+        builder.add(tokens.section(grouped[i]), tokens.position(grouped[i]));
+      }
+      blobs[termId] = builder.build();
+    }
+    return blobs;
+  }
+
+  public static void decode(byte[] blob, PositionConsumer consumer) {
+    ByteBuffer buffer = ByteBuffer.wrap(blob);
+    int sectionCount = VarByte.read(buffer);
+    for (int s = 0; s < sectionCount; s++) {
+      Section section = SECTIONS[buffer.get()];
+      int frequency = VarByte.read(buffer);
+      int position = 0;
+      for (int i = 0; i < frequency; i++) {
+        position += VarByte.read(buffer);
+        consumer.accept(section, position);
+      }
+    }
+  }
+
+  // Positions keyed by section name, the shape DocumentTerm expects
+  public static Map<String, List<Integer>> bySection(byte[] blob) {
+    Map<String, List<Integer>> positions = new HashMap<>();
+    decode(
+        blob,
+        (section, position) ->
+            positions.computeIfAbsent(section.toString(), k -> new ArrayList<>()).add(position));
+    return positions;
+  }
+
+  // Total number of positions, read from the section headers without decoding positions
+  public static int frequency(byte[] blob) {
+    ByteBuffer buffer = ByteBuffer.wrap(blob);
+    int sectionCount = VarByte.read(buffer);
+    int total = 0;
+    for (int s = 0; s < sectionCount; s++) {
+      buffer.get();
+      int frequency = VarByte.read(buffer);
+      total += frequency;
+      for (int i = 0; i < frequency; i++) VarByte.read(buffer);
+    }
+    return total;
+  }
+
+  // Bit 1 << ordinal is set for every section the word appears in
+  public static int sectionFlags(byte[] blob) {
+    ByteBuffer buffer = ByteBuffer.wrap(blob);
+    int sectionCount = VarByte.read(buffer);
+    int flags = 0;
+    for (int s = 0; s < sectionCount; s++) {
+      flags |= 1 << buffer.get();
+      int frequency = VarByte.read(buffer);
+      for (int i = 0; i < frequency; i++) VarByte.read(buffer);
+    }
+    return flags;
+  }
+
+  // Collects one word's positions in one document; reusable after build(). This is the only
+  // encoder of the layout, PostingList.Builder writes its entries through it too.
+  public static class Builder {
+    private final VarByte.Writer writer = new VarByte.Writer();
+    private final int[] frequencies = new int[SECTIONS.length];
+    private final int[][] positions = new int[SECTIONS.length][8];
+
+    public void add(Section section, int position) {
+      int ordinal = section.ordinal();
+      if (frequencies[ordinal] == positions[ordinal].length) {
+        positions[ordinal] = Arrays.copyOf(positions[ordinal], positions[ordinal].length * 2);
+      }
+      positions[ordinal][frequencies[ordinal]++] = position;
+    }
+
+    // Section-weighted frequency of the positions added so far, see PostingList.weightedTf
+    public double weightedTf(int documentSize) {
+      return PostingList.weightedTf(frequencies, documentSize);
+    }
+
+    public byte[] build() {
+      writer.reset();
+      writeTo(writer);
+      return writer.toByteArray();
+    }
+
+    // Appends the encoded positions to out and starts over
+    public void writeTo(VarByte.Writer out) {
+      int sectionCount = 0;
+      for (int frequency : frequencies) {
+        if (frequency > 0) sectionCount++;
+      }
+      out.writeInt(sectionCount);
+
+      for (int ordinal = 0; ordinal < SECTIONS.length; ordinal++) {
+        int frequency = frequencies[ordinal];
+        if (frequency == 0) continue;
+
+        Arrays.sort(positions[ordinal], 0, frequency);
+        out.writeByte(ordinal);
+        out.writeInt(frequency);
+        int previous = 0;
+        for (int i = 0; i < frequency; i++) {
+          out.writeInt(positions[ordinal][i] - previous);
+          previous = positions[ordinal][i];
+        }
+      }
+      Arrays.fill(frequencies, 0);
+    }
+  }
+}
@@ -0,0 +1,193 @@
+package com.sherlook.search.index;
+
+import com.sherlook.search.indexer.Section;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+// Compressed posting list of a single word. Each entry holds the document ID (delta-encoded
+// against the previous entry) followed by the word's positions in that document grouped by
+// section, again delta-encoded, in the PositionBlob layout. Every number is variable-byte coded.
+public class PostingList {
+  private static final Section[] SECTIONS = Section.values();
+
+  private final ByteBuffer data;
+  private final int documentFrequency;
+  private final double maxWeightedTf;
+
+  // A list without a known bound never lets the ranker skip a document
+  public PostingList(ByteBuffer data, int documentFrequency) {
+    this(data, documentFrequency, Double.POSITIVE_INFINITY);
+  }
+
+  public PostingList(ByteBuffer data, int documentFrequency, double maxWeightedTf) {
+    this.data = data;
+    this.documentFrequency = documentFrequency;
+    this.maxWeightedTf = maxWeightedTf;
+  }
+
+  public int getDocumentFrequency() {
+    return documentFrequency;
+  }
+
+  // Largest section-weighted term frequency of the word in any document of the list, so
+  // maxWeightedTf * idf bounds the TF-IDF the word can add to a single document
+  public double getMaxWeightedTf() {
+    return maxWeightedTf;
+  }
+
+  // The word's section-weighted frequency in a document, normalized by the document's size
+  public static double weightedTf(int[] frequencies, int documentSize) {
+    double weightedTf = 0.0;
+    for (int ordinal = 0; ordinal < SECTIONS.length; ordinal++) {
+      if (frequencies[ordinal] == 0) continue;
+      weightedTf += (double) frequencies[ordinal] / documentSize * SECTIONS[ordinal].weight();
+    }
+    return weightedTf;
+  }
+
+  public ByteBuffer getData() {
+    return data.duplicate();
+  }
+
+  public int sizeInBytes() {
+    return data.remaining();
+  }
+
+  public Cursor cursor() {
+    return new Cursor(data.duplicate());
+  }
+
+  // Forward-only iterator over the entries. Positions are skipped over by next() and only
+  // decoded when asked for; the positions arrays are reused between entries.
+  public static class Cursor {
+    private final ByteBuffer buffer;
+    private int docId = 0;
+    private final int[] frequencies = new int[SECTIONS.length];
+    private final int[] offsets = new int[SECTIONS.length];
+    private final boolean[] decoded = new boolean[SECTIONS.length];
+    private final int[][] positions = new int[SECTIONS.length][8];
+
+    private Cursor(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    public boolean next() {
+      if (!buffer.hasRemaining()) return false;
+
+      docId += VarByte.read(buffer);
+      Arrays.fill(frequencies, 0);
+      Arrays.fill(decoded, false);
+
+      int sectionCount = VarByte.read(buffer);
+      for (int s = 0; s < sectionCount; s++) {
+        int ordinal = buffer.get();
+        int frequency = VarByte.read(buffer);
+        frequencies[ordinal] = frequency;
+        offsets[ordinal] = buffer.position();
+        VarByte.skip(buffer, frequency);
+      }
+      return true;
+    }
+
+    public int docId() {
+      return docId;
+    }
+
+    public int frequency(Section section) {
+      return frequencies[section.ordinal()];
+    }
+
+    public int totalFrequency() {
+      int total = 0;
+      for (int frequency : frequencies) total += frequency;
+      return total;
+    }
+
+    public double weightedTf(int documentSize) {
+      return PostingList.weightedTf(frequencies, documentSize);
+    }
+
+    // Only the first frequency(section) entries are valid
+    public int[] positions(Section section) {
+      int ordinal = section.ordinal();
+      if (!decoded[ordinal] && frequencies[ordinal] > 0) decode(ordinal);
+      return positions[ordinal];
+    }
+
+    private void decode(int ordinal) {
+      int frequency = frequencies[ordinal];
+      if (positions[ordinal].length < frequency) {
+        positions[ordinal] = new int[Math.max(frequency, positions[ordinal].length * 2)];
+      }
+      // Jump back to the section's positions, then return to the next entry
+      int next = buffer.position();
+      buffer.position(offsets[ordinal]);
+      int position = 0;
+      for (int i = 0; i < frequency; i++) {
+        position += VarByte.read(buffer);
+        positions[ordinal][i] = position;
+      }
+      buffer.position(next);
+      decoded[ordinal] = true;
+    }
+  }
+
+  // Builds a posting list from (document, section, position) triples sorted by document ID.
+  // documentSizes gives each document's size for the list's max weighted TF; without it every
+  // size counts as 1, which still bounds the real value.
+  public static class Builder {
+    private final VarByte.Writer writer = new VarByte.Writer();
+    private final IntUnaryOperator documentSizes;
+    // Positions of the current document, encoded the same way as document_postings blobs
+    private final PositionBlob.Builder document = new PositionBlob.Builder();
+    private int currentDocId = -1;
+    private int lastDocId = 0;
+    private int documentFrequency = 0;
+    private double maxWeightedTf = 0.0;
+
+    public Builder() {
+      this(docId -> 1);
+    }
+
+    public Builder(IntUnaryOperator documentSizes) {
+      this.documentSizes = documentSizes;
+    }
+
+    public void add(int docId, Section section, int position) {
+      if (docId != currentDocId) {
+        finishDocument();
+        if (documentFrequency > 0 && docId <= lastDocId) {
+          throw new IllegalArgumentException(
+              "Documents must be added in ascending order: " + docId + " after " + lastDocId);
+        }
+        currentDocId = docId;
+      }
+
+      document.add(section, position);
+    }
+
+    public boolean isEmpty() {
+      return documentFrequency == 0 && currentDocId < 0;
+    }
+
+    public PostingList build() {
+      finishDocument();
+      return new PostingList(
+          ByteBuffer.wrap(writer.toByteArray()), documentFrequency, maxWeightedTf);
+    }
+
+    private void finishDocument() {
+      if (currentDocId < 0) return;
+
+      writer.writeInt(currentDocId - lastDocId);
+      int documentSize = Math.max(1, documentSizes.applyAsInt(currentDocId));
+      maxWeightedTf = Math.max(maxWeightedTf, document.weightedTf(documentSize));
+      document.writeTo(writer);
+
+      lastDocId = currentDocId;
+      currentDocId = -1;
+      documentFrequency++;
+    }
+  }
+}
@@ -0,0 +1,160 @@
+package com.sherlook.search.index;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+// Read-only view of an immutable segment file written by SegmentWriter. The file is
+// memory-mapped, so posting lists are read straight from the page cache and only the pages
+// that a query touches are ever loaded.
+//
+// Layout (all integers big-endian):
+//   header      magic, version, termCount, reserved (ints), postingsOffset, dictionaryOffset
+//   postings    concatenated posting lists, never crossing a CHUNK_SIZE boundary
+//   dictionary  int[termCount] entry offsets, then entries sorted by the UTF-8 bytes of the term:
+//               short length, term bytes, wordId, documentFrequency, long offset, int length,
+//               double maxWeightedTf
+//   footer      postingsChecksum, dictionaryChecksum (longs), version, magic (ints)
+public class Segment {
+  static final int MAGIC = 0x53484C4B; // "SHLK"
+  static final int VERSION = 2;
+  static final int HEADER_SIZE = 32;
+  static final int FOOTER_SIZE = 24;
+  // A single mapping is limited to 2 GB, so postings are mapped in chunks
+  static final long CHUNK_SIZE = 1L << 30;
+
+  private final Path path;
+  private final int termCount;
+  private final ByteBuffer dictionary;
+  private final MappedByteBuffer[] chunks;
+
+  private Segment(Path path, int termCount, ByteBuffer dictionary, MappedByteBuffer[] chunks) {
+    this.path = path;
+    this.termCount = termCount;
+    this.dictionary = dictionary;
+    this.chunks = chunks;
+  }
+
+  public static Segment open(Path path, boolean verifyPostings) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size < HEADER_SIZE + FOOTER_SIZE) {
+        throw new IOException("Segment file is truncated: " + path);
+      }
+
+      ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+      ByteBuffer footer =
+          channel.map(FileChannel.MapMode.READ_ONLY, size - FOOTER_SIZE, FOOTER_SIZE);
+      checkMagicAndVersion(header.getInt(0), header.getInt(4), path);
+      checkMagicAndVersion(footer.getInt(20), footer.getInt(16), path);
+
+      int termCount = header.getInt(8);
+      long postingsOffset = header.getLong(16);
+      long dictionaryOffset = header.getLong(24);
+      long dictionaryEnd = size - FOOTER_SIZE;
+      if (postingsOffset != HEADER_SIZE
+          || dictionaryOffset < postingsOffset
+          || dictionaryOffset > dictionaryEnd
+          || dictionaryEnd - dictionaryOffset > Integer.MAX_VALUE) {
+        throw new IOException("Segment header is corrupt: " + path);
+      }
+
+      ByteBuffer dictionary =
+          channel.map(
+              FileChannel.MapMode.READ_ONLY, dictionaryOffset, dictionaryEnd - dictionaryOffset);
+      CRC32 dictionaryCrc = new CRC32();
+      dictionaryCrc.update(header.duplicate());
+      dictionaryCrc.update(dictionary.duplicate());
+      if (dictionaryCrc.getValue() != footer.getLong(8)) {
+        throw new IOException("Segment dictionary checksum mismatch: " + path);
+      }
+
+      int chunkCount = (int) ((dictionaryOffset + CHUNK_SIZE - 1) / CHUNK_SIZE);
+      MappedByteBuffer[] chunks = new MappedByteBuffer[chunkCount];
+      for (int i = 0; i < chunkCount; i++) {
+        long start = i * CHUNK_SIZE;
+        long end = Math.min(start + CHUNK_SIZE, dictionaryOffset);
+        chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+      }
+
+      if (verifyPostings) {
+        CRC32 postingsCrc = new CRC32();
+        for (int i = 0; i < chunkCount; i++) {
+          ByteBuffer chunk = chunks[i].duplicate();
+          if (i == 0) chunk.position(HEADER_SIZE);
+          postingsCrc.update(chunk);
+        }
+        if (postingsCrc.getValue() != footer.getLong(0)) {
+          throw new IOException("Segment postings checksum mismatch: " + path);
+        }
+      }
+
+      return new Segment(path, termCount, dictionary, chunks);
+    }
+  }
+
+  private static void checkMagicAndVersion(int magic, int version, Path path) throws IOException {
+    if (magic != MAGIC) {
+      throw new IOException("Not a segment file: " + path);
+    }
+    if (version != VERSION) {
+      throw new IOException(
+          "Unsupported segment version " + version + " (expected " + VERSION + "): " + path);
+    }
+  }
+
+  public Path getPath() {
+    return path;
+  }
+
+  public int getTermCount() {
+    return termCount;
+  }
+
+  public PostingList getPostings(String word) {
+    byte[] key = word.getBytes(StandardCharsets.UTF_8);
+    int low = 0;
+    int high = termCount - 1;
+
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int entry = dictionary.getInt(mid * 4);
+      int cmp = compareTerm(entry, key);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return readPostings(entry + 2 + key.length);
+      }
+    }
+    return null;
+  }
+
+  private int compareTerm(int entry, byte[] key) {
+    int length = dictionary.getShort(entry) & 0xFFFF;
+    int start = entry + 2;
+    int common = Math.min(length, key.length);
+    for (int i = 0; i < common; i++) {
+      int cmp = Byte.toUnsignedInt(dictionary.get(start + i)) - Byte.toUnsignedInt(key[i]);
+      if (cmp != 0) return cmp;
+    }
+    return length - key.length;
+  }
+
+  private PostingList readPostings(int at) {
+    int documentFrequency = dictionary.getInt(at + 4);
+    long offset = dictionary.getLong(at + 8);
+    int length = dictionary.getInt(at + 16);
+    double maxWeightedTf = dictionary.getDouble(at + 20);
+
+    int chunk = (int) (offset / CHUNK_SIZE);
+    int start = (int) (offset - chunk * CHUNK_SIZE);
+    return new PostingList(chunks[chunk].slice(start, length), documentFrequency, maxWeightedTf);
+  }
+}
@@ -0,0 +1,212 @@
+package com.sherlook.search.index;
+
+import com.sherlook.search.indexer.Section;
+import com.sherlook.search.utils.DatabaseHelper;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+// Writes the whole index into a single immutable segment file (see Segment for the layout).
+// The file is written next to the target and atomically moved into place, so a server that
+// restarts mid-write keeps mapping the previous segment.
+public class SegmentWriter {
+  // Term lengths are stored as an unsigned short
+  private static final int MAX_TERM_LENGTH = 0xFFFF / 4;
+
+  private final Path path;
+
+  public SegmentWriter(Path path) {
+    this.path = path;
+  }
+
+  public int write(DatabaseHelper databaseHelper) throws IOException {
+    Map<Integer, String> words = new HashMap<>();
+    databaseHelper.getWordIds().forEach((word, id) -> words.put(id, word));
+    Map<Integer, Integer> documentSizes = new HashMap<>();
+    for (IndexedDocument document : databaseHelper.getIndexedDocuments()) {
+      documentSizes.put(document.getId(), document.getSize());
+    }
+
+    Path parent = path.toAbsolutePath().getParent();
+    if (parent != null) Files.createDirectories(parent);
+    Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+
+    List<Entry> entries = new ArrayList<>();
+    CRC32 postingsCrc = new CRC32();
+
+    try (FileChannel channel =
+        FileChannel.open(
+            temp,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+      channel.position(Segment.HEADER_SIZE);
+
+      PostingsWriter postingsWriter =
+          new PostingsWriter(channel, words, documentSizes, entries, postingsCrc);
+      try {
+        databaseHelper.forEachPosting(postingsWriter);
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+      postingsWriter.finish();
+      long dictionaryOffset = channel.position();
+
+      byte[] dictionary = encodeDictionary(entries);
+      ByteBuffer header = ByteBuffer.allocate(Segment.HEADER_SIZE);
+      header.putInt(Segment.MAGIC).putInt(Segment.VERSION).putInt(entries.size()).putInt(0);
+      header.putLong(Segment.HEADER_SIZE).putLong(dictionaryOffset).flip();
+
+      CRC32 dictionaryCrc = new CRC32();
+      dictionaryCrc.update(header.duplicate());
+      dictionaryCrc.update(dictionary);
+
+      writeFully(channel, ByteBuffer.wrap(dictionary));
+      ByteBuffer footer = ByteBuffer.allocate(Segment.FOOTER_SIZE);
+      footer.putLong(postingsCrc.getValue()).putLong(dictionaryCrc.getValue());
+      footer.putInt(Segment.VERSION).putInt(Segment.MAGIC).flip();
+      writeFully(channel, footer);
+
+      channel.position(0);
+      writeFully(channel, header);
+      channel.force(true);
+    }
+
+    Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    return entries.size();
+  }
+
+  private static byte[] encodeDictionary(List<Entry> entries) throws IOException {
+    entries.sort((a, b) -> Arrays.compareUnsigned(a.term, b.term));
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    int offset = entries.size() * 4;
+    for (Entry entry : entries) {
+      out.writeInt(offset);
+      offset += 2 + entry.term.length + 28;
+    }
+    for (Entry entry : entries) {
+      out.writeShort(entry.term.length);
+      out.write(entry.term);
+      out.writeInt(entry.wordId);
+      out.writeInt(entry.documentFrequency);
+      out.writeLong(entry.offset);
+      out.writeInt(entry.length);
+      out.writeDouble(entry.maxWeightedTf);
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) channel.write(buffer);
+  }
+
+  private static class Entry {
+    final byte[] term;
+    final int wordId;
+    final int documentFrequency;
+    final long offset;
+    final int length;
+    final double maxWeightedTf;
+
+    Entry(
+        byte[] term,
+        int wordId,
+        int documentFrequency,
+        long offset,
+        int length,
+        double maxWeightedTf) {
+      this.term = term;
+      this.wordId = wordId;
+      this.documentFrequency = documentFrequency;
+      this.offset = offset;
+      this.length = length;
+      this.maxWeightedTf = maxWeightedTf;
+    }
+  }
+
+  // Encodes one posting list at a time as rows arrive ordered by word ID
+  private static class PostingsWriter implements DatabaseHelper.PostingConsumer {
+    private final FileChannel channel;
+    private final Map<Integer, String> words;
+    private final Map<Integer, Integer> documentSizes;
+    private final List<Entry> entries;
+    private final CRC32 crc;
+    private PostingList.Builder builder;
+    private int currentWordId = -1;
+
+    PostingsWriter(
+        FileChannel channel,
+        Map<Integer, String> words,
+        Map<Integer, Integer> documentSizes,
+        List<Entry> entries,
+        CRC32 crc) {
+      this.channel = channel;
+      this.words = words;
+      this.documentSizes = documentSizes;
+      this.entries = entries;
+      this.crc = crc;
+    }
+
+    @Override
+    public void accept(int wordId, int documentId, int position, Section section) {
+      String word = words.get(wordId);
+      if (word == null || word.length() > MAX_TERM_LENGTH) return;
+
+      if (wordId != currentWordId) {
+        finish();
+        currentWordId = wordId;
+        builder = new PostingList.Builder(docId -> documentSizes.getOrDefault(docId, 1));
+      }
+      builder.add(documentId, section, position);
+    }
+
+    void finish() {
+      if (builder == null || builder.isEmpty()) return;
+
+      PostingList list = builder.build();
+      builder = null;
+      ByteBuffer data = list.getData();
+      try {
+        long offset = channel.position();
+        long chunkEnd = (offset / Segment.CHUNK_SIZE + 1) * Segment.CHUNK_SIZE;
+        if (offset + data.remaining() > chunkEnd) {
+          ByteBuffer padding = ByteBuffer.allocate((int) (chunkEnd - offset));
+          crc.update(padding.duplicate());
+          writeFully(channel, padding);
+          offset = chunkEnd;
+        }
+
+        int length = data.remaining();
+        crc.update(data.duplicate());
+        writeFully(channel, data);
+        entries.add(
+            new Entry(
+                words.get(currentWordId).getBytes(StandardCharsets.UTF_8),
+                currentWordId,
+                list.getDocumentFrequency(),
+                offset,
+                length,
+                list.getMaxWeightedTf()));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+}
@@ -0,0 +1,79 @@
+package com.sherlook.search.index;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Variable-byte integer coding: 7 bits per byte, high bit set on every byte but the last.
+// Small numbers (such as the gaps between sorted doc IDs or positions) take a single byte.
+public final class VarByte {
+
+  private VarByte() {}
+
+  public static int read(ByteBuffer buffer) {
+    int value = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = buffer.get();
+      value |= (b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return value;
+  }
+
+  // Moves past count numbers without decoding them
+  public static void skip(ByteBuffer buffer, int count) {
+    int remaining = count;
+    while (remaining > 0) {
+      if ((buffer.get() & 0x80) == 0) remaining--;
+    }
+  }
+
+  public static class Writer {
+    private byte[] bytes;
+    private int size;
+
+    public Writer() {
+      this(64);
+    }
+
+    public Writer(int initialCapacity) {
+      this.bytes = new byte[Math.max(16, initialCapacity)];
+    }
+
+    public void writeInt(int value) {
+      if (value < 0) {
+        throw new IllegalArgumentException("Cannot encode negative value: " + value);
+      }
+      ensureCapacity(5);
+      while ((value & ~0x7F) != 0) {
+        bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      bytes[size++] = (byte) value;
+    }
+
+    public void writeByte(int value) {
+      ensureCapacity(1);
+      bytes[size++] = (byte) value;
+    }
+
+    public int size() {
+      return size;
+    }
+
+    public void reset() {
+      size = 0;
+    }
+
+    public byte[] toByteArray() {
+      return Arrays.copyOf(bytes, size);
+    }
+
+    private void ensureCapacity(int extra) {
+      if (size + extra > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+      }
+    }
+  }
+}
@@ -0,0 +1,98 @@
+package com.sherlook.search.indexer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// Open-addressing set of terms that can be probed with a slice of a char array, so looking a
+// word up never builds a String; one is only made the first time a term is added. IDs are
+// dense, in the order terms were added.
+class CharTermTable {
+  private static final int INITIAL_SLOTS = 64;
+
+  // Term ID + 1 per slot, 0 when empty
+  private int[] slots = new int[INITIAL_SLOTS];
+  private int[] hashes = new int[INITIAL_SLOTS];
+  private final List<String> terms = new ArrayList<>();
+
+  int find(char[] chars, int offset, int length) {
+    int hash = hash(chars, offset, length);
+    int mask = slots.length - 1;
+    for (int slot = hash & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+      int id = slots[slot] - 1;
+      if (hashes[id] == hash && matches(terms.get(id), chars, offset, length)) return id;
+    }
+    return -1;
+  }
+
+  // Returns the term's ID, adding it if needed
+  int add(char[] chars, int offset, int length) {
+    int hash = hash(chars, offset, length);
+    int mask = slots.length - 1;
+    int slot = hash & mask;
+    for (; slots[slot] != 0; slot = (slot + 1) & mask) {
+      int id = slots[slot] - 1;
+      if (hashes[id] == hash && matches(terms.get(id), chars, offset, length)) return id;
+    }
+
+    int id = terms.size();
+    terms.add(new String(chars, offset, length));
+    if (id == hashes.length) hashes = Arrays.copyOf(hashes, id * 2);
+    hashes[id] = hash;
+    slots[slot] = id + 1;
+    if (terms.size() * 2 > slots.length) rehash();
+    return id;
+  }
+
+  int add(String term) {
+    return add(term.toCharArray(), 0, term.length());
+  }
+
+  String get(int id) {
+    return terms.get(id);
+  }
+
+  int size() {
+    return terms.size();
+  }
+
+  List<String> terms() {
+    return Collections.unmodifiableList(terms);
+  }
+
+  void clear() {
+    if (slots.length > INITIAL_SLOTS * 64) {
+      slots = new int[INITIAL_SLOTS];
+      hashes = new int[INITIAL_SLOTS];
+    } else {
+      Arrays.fill(slots, 0);
+    }
+    terms.clear();
+  }
+
+  private void rehash() {
+    slots = new int[slots.length * 2];
+    int mask = slots.length - 1;
+    for (int id = 0; id < terms.size(); id++) {
+      int slot = hashes[id] & mask;
+      while (slots[slot] != 0) slot = (slot + 1) & mask;
+      slots[slot] = id + 1;
+    }
+  }
+
+  private static int hash(char[] chars, int offset, int length) {
+    int hash = 0;
+    for (int i = offset; i < offset + length; i++) hash = 31 * hash + chars[i];
+    // Spread the low bits used for the slot
+    return hash ^ (hash >>> 16);
+  }
+
+  private static boolean matches(String term, char[] chars, int offset, int length) {
+    if (term.length() != length) return false;
+    for (int i = 0; i < length; i++) {
+      if (term.charAt(i) != chars[offset + i]) return false;
+    }
+    return true;
+  }
+}
@@ -9,15 +9,32 @@ public class Document {
   private final String description;
   private final String filePath;
   private final Timestamp crawlTime;
+  // Content hash from the crawl, and whether an older version of the page is already indexed
+  private final String hash;
+  private final boolean indexed;
 
   public Document(
       int id, String url, String title, String description, String filePath, Timestamp crawlTime) {
+    this(id, url, title, description, filePath, crawlTime, null, false);
+  }
+
+  public Document(
+      int id,
+      String url,
+      String title,
+      String description,
+      String filePath,
+      Timestamp crawlTime,
+      String hash,
+      boolean indexed) {
     this.id = id;
     this.url = url;
     this.title = title;
     this.description = description;
     this.filePath = filePath;
     this.crawlTime = crawlTime;
+    this.hash = hash;
+    this.indexed = indexed;
   }
 
   public int getId() {
@@ -43,4 +60,12 @@ public class Document {
   public Timestamp getCrawlTime() {
     return crawlTime;
   }
+
+  public String getHash() {
+    return hash;
+  }
+
+  public boolean isIndexed() {
+    return indexed;
+  }
 }
@@ -1,16 +1,32 @@
 package com.sherlook.search.indexer;
 
+import com.sherlook.search.crawler.HtmlSaver;
+import com.sherlook.search.index.ForwardText;
+import com.sherlook.search.index.PositionBlob;
+import com.sherlook.search.index.SegmentWriter;
 import com.sherlook.search.utils.ConsoleColors;
 import com.sherlook.search.utils.DatabaseHelper;
-import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Element;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.TransactionStatus;
@@ -21,140 +37,247 @@ public class Indexer {
   private final DatabaseHelper databaseHelper;
   private final PlatformTransactionManager txManager;
   private final Tokenizer tokenizer;
+  private final TermDictionary termDictionary;
+  private final Queue<TokenBuffer> bufferPool = new ConcurrentLinkedQueue<>();
 
   private static final int BATCH_SIZE = 10000;
 
+  @Value("${index.segment.path:}")
+  private String segmentPath = "";
+
+  // Number of threads parsing and tokenizing documents
+  @Value("${indexer.parallelism:4}")
+  private int parallelism = 4;
+
+  // Number of documents written per transaction
+  @Value("${indexer.batch-size:100}")
+  private int batchSize = 100;
+
+  // Re-index documents whose content hash changed since they were indexed
+  @Value("${indexer.incremental:true}")
+  private boolean incremental = true;
+
+  // Keep each document's text and token offsets for snippets
+  @Value("${indexer.forward-index:true}")
+  private boolean forwardIndex = true;
+
   @Autowired
   public Indexer(
       DatabaseHelper databaseHelper, PlatformTransactionManager txManager, Tokenizer tokenizer) {
     this.databaseHelper = databaseHelper;
     this.txManager = txManager;
     this.tokenizer = tokenizer;
+    this.termDictionary = new TermDictionary(databaseHelper);
   }
 
   public void indexDocument(Document document) {
+    try {
+      List<ParsedDocument> batch = List.of(parseDocument(document));
+      writeBatch(batch);
+      releaseBuffers(batch);
+    } catch (Exception e) {
+      ConsoleColors.printError("Indexer");
+      System.err.println(
+          "Failed to parse document ID=" + document.getId() + ". Cause: " + e.getMessage());
+    }
+  }
+
+  // Parse stage: runs on the parser pool, must not touch the database
+  ParsedDocument parseDocument(Document document) throws IOException {
+    String filePath = document.getFilePath();
+
+    // Parse the HTML, from its own file or a pack
+    org.jsoup.nodes.Document htmlDoc = Jsoup.parse(HtmlSaver.read(filePath));
+
+    // Extract title and description
+    String title = htmlDoc.title();
+    if (title.isEmpty()) {
+      Element firstHeader = htmlDoc.selectFirst("h1, h2, h3, h4, h5, h6");
+      if (firstHeader != null) title = firstHeader.text();
+    }
+
+    String description = "";
+    Element metaDesc = htmlDoc.selectFirst("meta[name=description]");
+    if (metaDesc != null) {
+      description = metaDesc.attr("content");
+    } else {
+      Element p = htmlDoc.selectFirst("p");
+      if (p != null) description = p.text();
+    }
+
+    // Extract words from the document
+    TokenBuffer tokens = takeBuffer();
+    int pos = 0;
+    if (!title.isEmpty()) pos = tokenizer.tokenize(title, pos, Section.TITLE, tokens);
+
+    StringBuilder ftsContent = new StringBuilder();
+    StringBuilder fullContent = new StringBuilder();
+    ftsContent.append(title).append(" ").append(description);
+    for (TextExtractor.Run run : TextExtractor.extract(htmlDoc.body())) {
+      pos = tokenizer.tokenize(run.text(), pos, run.section(), tokens);
+      fullContent.append(run.text()).append(" ");
+    }
+    ftsContent.append(fullContent.toString().trim());
+
+    return new ParsedDocument(document, title, description, tokens, ftsContent.toString().trim());
+  }
+
+  // Write stage: stores a batch of parsed documents in a single transaction. If the batch
+  // fails it is retried one document at a time so one bad page doesn't drop the others.
+  int writeBatch(List<ParsedDocument> batch) {
     TransactionStatus status = txManager.getTransaction(new DefaultTransactionDefinition());
 
     try {
-      String filePath = document.getFilePath();
-      long startTime = System.currentTimeMillis();
+      for (ParsedDocument parsed : batch) writeDocument(parsed);
+      termDictionary.flush();
+      txManager.commit(status);
+      return batch.size();
+    } catch (Exception e) {
+      termDictionary.discardPending();
+      txManager.rollback(status);
+      if (batch.size() == 1) {
+        ConsoleColors.printError("Indexer");
+        System.err.println(
+            "Failed to index document ID="
+                + batch.get(0).getDocument().getId()
+                + ", rolled back. Cause: "
+                + e.getMessage());
+        return 0;
+      }
 
-      ConsoleColors.printInfo("Indexer");
-      System.out.println("Indexing document: " + filePath);
+      ConsoleColors.printWarning("Indexer");
+      System.out.println("Batch failed, retrying documents one by one: " + e.getMessage());
+      int written = 0;
+      for (ParsedDocument parsed : batch) written += writeBatch(List.of(parsed));
+      return written;
+    }
+  }
 
-      // Parse the HTML file
-      File input = new File(filePath);
-      org.jsoup.nodes.Document htmlDoc = Jsoup.parse(input, "UTF-8");
+  private void writeDocument(ParsedDocument parsed) {
+    Document document = parsed.getDocument();
+    int documentId = document.getId();
 
-      // Extract title and description
-      String title = htmlDoc.title();
-      if (title.isEmpty()) {
-        Element firstHeader = htmlDoc.selectFirst("h1, h2, h3, h4, h5, h6");
-        if (firstHeader != null) title = firstHeader.text();
-      }
+    // Update the document metadata in the database
+    databaseHelper.updateDocumentMetadata(documentId, parsed.getTitle(), parsed.getDescription());
 
-      String description = "";
-      Element metaDesc = htmlDoc.selectFirst("meta[name=description]");
-      if (metaDesc != null) {
-        description = metaDesc.attr("content");
-      } else {
-        Element p = htmlDoc.selectFirst("p");
-        if (p != null) description = p.text();
-      }
+    TokenBuffer tokens = parsed.getTokens();
+    int totalWordCount = tokens.size();
+    if (document.isIndexed()) {
+      reindexWords(documentId, tokens);
+      databaseHelper.updateDocumentSize(documentId, totalWordCount);
+      databaseHelper.updateFTSEntry(documentId, parsed.getFtsContent());
+      if (forwardIndex) databaseHelper.updateDocumentText(documentId, ForwardText.of(tokens));
 
-      // Update the document metadata in the database
-      databaseHelper.updateDocumentMetadata(document.getId(), title, description);
       ConsoleColors.printInfo("Indexer");
-      System.out.println("  Updated metadata for document ID=" + document.getId());
-
-      // Extract words from the document
-      List<String> words = new ArrayList<>();
-      List<String> stems = new ArrayList<>();
-      List<Integer> positions = new ArrayList<>();
-      List<Section> sections = new ArrayList<>();
-      int pos = 0;
-      int totalWordCount = 0;
-
-      if (!title.isEmpty())
-        pos =
-            tokenizer.tokenizeWithPositions(
-                title, pos, words, stems, positions, sections, Section.TITLE);
-
-      StringBuilder ftsContent = new StringBuilder();
-      StringBuilder fullContent = new StringBuilder();
-      ftsContent.append(title).append(" ").append(description);
-      for (Element el : htmlDoc.select("* :not(script):not(style)")) {
-        if (el.tagName().equals("title") || el.tagName().equals("meta") || el.ownText().isEmpty())
-          continue;
-
-        Section sec = el.tagName().matches("h[1-6]") ? Section.HEADER : Section.BODY;
-        pos =
-            tokenizer.tokenizeWithPositions(el.text(), pos, words, stems, positions, sections, sec);
-        fullContent.append(el.text()).append(" ");
-        // Process in batches to avoid going out of memory
-        if (words.size() >= BATCH_SIZE) {
-          processBatch(document.getId(), words, stems, positions, sections);
-          totalWordCount += words.size();
-
-          words.clear();
-          stems.clear();
-          positions.clear();
-          sections.clear();
+      System.out.println("  Re-indexed " + totalWordCount + " words for document ID=" + documentId);
+    } else if (totalWordCount > 0) {
+      int[] wordIds = termDictionary.resolve(tokens);
+      if (databaseHelper.usesAggregatedPostings()) {
+        // One row per word, holding all of its positions
+        databaseHelper.insertDocumentPostings(
+            documentId, wordIds, PositionBlob.encodeTerms(tokens));
+      } else {
+        // Insert words into the database, in batches to keep the statements small
+        for (int from = 0; from < totalWordCount; from += BATCH_SIZE) {
+          processBatch(
+              documentId, tokens, wordIds, from, Math.min(from + BATCH_SIZE, totalWordCount));
         }
       }
 
-      // Insert words into the database
-      if (!words.isEmpty()) {
-        processBatch(document.getId(), words, stems, positions, sections);
-        totalWordCount += words.size();
-      }
-
       // Update document's total word count
-      if (totalWordCount > 0) {
-        databaseHelper.updateDocumentSize(document.getId(), totalWordCount);
+      databaseHelper.updateDocumentSize(documentId, totalWordCount);
+      databaseHelper.updateFTSEntry(documentId, parsed.getFtsContent());
+      if (forwardIndex) databaseHelper.updateDocumentText(documentId, ForwardText.of(tokens));
 
-        ConsoleColors.printInfo("Indexer");
-        System.out.println(
-            "  Indexed " + totalWordCount + " words for document ID=" + document.getId());
-        long elapsed = System.currentTimeMillis() - startTime;
-        ConsoleColors.printSuccess("Indexer");
-        System.out.println("Indexing completed in " + elapsed + " ms");
+      ConsoleColors.printInfo("Indexer");
+      System.out.println("  Indexed " + totalWordCount + " words for document ID=" + documentId);
+    }
 
-        ftsContent.append(fullContent.toString().trim());
-        databaseHelper.updateFTSEntry(document.getId(), ftsContent.toString().trim());
+    // Update index time, and the content hash the postings now reflect
+    databaseHelper.updateIndexTime(documentId);
+    if (document.getHash() != null)
+      databaseHelper.updateIndexedHash(documentId, document.getHash());
+  }
 
-        ConsoleColors.printInfo("Indexer");
-        System.out.println(
-            "  Updated FTS entry for document ID=" + document.getId() + " in the database");
+  // Brings a previously indexed document's postings in line with its new tokens, touching only
+  // the postings that differ. Word counts and document frequencies move by the difference
+  // between the old and new versions.
+  private void reindexWords(int documentId, TokenBuffer tokens) {
+    int[] wordIds = termDictionary.resolve(tokens);
+    if (databaseHelper.usesAggregatedPostings()) {
+      reindexAggregated(documentId, tokens, wordIds);
+      return;
+    }
+
+    Map<Long, Section> oldPostings = new HashMap<>();
+    Map<Integer, Integer> oldCounts = new HashMap<>();
+    databaseHelper.forEachDocumentPosting(
+        documentId,
+        (wordId, docId, position, section) -> {
+          oldPostings.put(postingKey(wordId, position), section);
+          oldCounts.merge(wordId, 1, Integer::sum);
+        });
+
+    int[] inserts = new int[tokens.size()];
+    int insertCount = 0;
+    int[] deleteWordIds = new int[oldPostings.size()];
+    int[] deletePositions = new int[oldPostings.size()];
+    int deleteCount = 0;
+    for (int i = 0; i < tokens.size(); i++) {
+      int wordId = wordIds[tokens.termId(i)];
+      Section oldSection = oldPostings.remove(postingKey(wordId, tokens.position(i)));
+      if (oldSection == tokens.section(i)) continue;
+      if (oldSection != null) {
+        deleteWordIds[deleteCount] = wordId;
+        deletePositions[deleteCount++] = tokens.position(i);
       }
+      inserts[insertCount++] = i;
+    }
+    for (long key : oldPostings.keySet()) {
+      deleteWordIds[deleteCount] = (int) (key >>> 32);
+      deletePositions[deleteCount++] = (int) key;
+    }
 
-      // Update index time
-      databaseHelper.updateIndexTime(document.getId());
+    databaseHelper.deleteDocumentWords(documentId, deleteWordIds, deletePositions, deleteCount);
+    databaseHelper.batchInsertDocumentWords(documentId, tokens, wordIds, inserts, insertCount);
 
-      txManager.commit(status);
-    } catch (Exception e) {
-      txManager.rollback(status);
-      ConsoleColors.printError("Indexer");
-      System.err.println(
-          "Failed to index document ID="
-              + document.getId()
-              + ", rolled back. Cause: "
-              + e.getMessage());
+    // resolve() counted the new version of the document, take the old one back
+    for (Map.Entry<Integer, Integer> entry : oldCounts.entrySet()) {
+      termDictionary.subtract(entry.getKey(), entry.getValue());
+    }
+  }
+
+  // Same as reindexWords for the aggregated layout, where the unit of change is a word's row
+  private void reindexAggregated(int documentId, TokenBuffer tokens, int[] wordIds) {
+    byte[][] blobs = PositionBlob.encodeTerms(tokens);
+    Map<Integer, byte[]> oldPostings = databaseHelper.getDocumentPostings(documentId);
+
+    int[] changedWordIds = new int[wordIds.length];
+    byte[][] changedBlobs = new byte[wordIds.length][];
+    int changed = 0;
+    for (int termId = 0; termId < wordIds.length; termId++) {
+      byte[] old = oldPostings.remove(wordIds[termId]);
+      if (old != null) termDictionary.subtract(wordIds[termId], PositionBlob.frequency(old));
+      if (Arrays.equals(old, blobs[termId])) continue;
+      changedWordIds[changed] = wordIds[termId];
+      changedBlobs[changed++] = blobs[termId];
+    }
+    for (Map.Entry<Integer, byte[]> entry : oldPostings.entrySet()) {
+      termDictionary.subtract(entry.getKey(), PositionBlob.frequency(entry.getValue()));
     }
+
+    databaseHelper.deleteDocumentPostings(documentId, new ArrayList<>(oldPostings.keySet()));
+    databaseHelper.insertDocumentPostings(
+        documentId, Arrays.copyOf(changedWordIds, changed), Arrays.copyOf(changedBlobs, changed));
   }
 
-  private void processBatch(
-      int documentId,
-      List<String> words,
-      List<String> stems,
-      List<Integer> positions,
-      List<Section> sections) {
+  private static long postingKey(int wordId, int position) {
+    return ((long) wordId << 32) | (position & 0xffffffffL);
+  }
+
+  private void processBatch(int documentId, TokenBuffer tokens, int[] wordIds, int from, int to) {
     try {
-      if (!words.isEmpty()) {
-        databaseHelper.batchInsertDocumentWords(documentId, words, stems, positions, sections);
-        ConsoleColors.printInfo("Indexer");
-        System.out.println("  Processed batch of " + words.size() + " words");
-      }
+      databaseHelper.batchInsertDocumentWords(documentId, tokens, wordIds, from, to);
     } catch (Exception e) {
       ConsoleColors.printError("Indexer");
       System.err.println("Error processing batch: " + e.getMessage());
@@ -162,6 +285,86 @@ public class Indexer {
     }
   }
 
+  // Token buffers go back to the pool once their document is written, so parsing reuses them
+  private TokenBuffer takeBuffer() {
+    TokenBuffer buffer = bufferPool.poll();
+    return buffer != null ? buffer : new TokenBuffer();
+  }
+
+  private void releaseBuffers(List<ParsedDocument> batch) {
+    for (ParsedDocument parsed : batch) {
+      if (parsed.isFailed()) continue;
+      parsed.getTokens().clear();
+      bufferPool.offer(parsed.getTokens());
+    }
+  }
+
+  // Parser pool -> bounded queue -> single writer. The writer is the calling thread, so all
+  // database work stays on one connection while parsing uses every core.
+  private int runPipeline(Queue<Document> docs) throws InterruptedException {
+    int total = docs.size();
+    int threads = Math.max(1, parallelism);
+    int documentsPerTransaction = Math.max(1, batchSize);
+    BlockingQueue<ParsedDocument> parsedQueue =
+        new ArrayBlockingQueue<>(documentsPerTransaction * 2);
+
+    ConsoleColors.printInfo("Indexer");
+    System.out.println(
+        "Parsing with "
+            + threads
+            + " threads, writing "
+            + documentsPerTransaction
+            + " documents per transaction");
+
+    ExecutorService parsers = Executors.newFixedThreadPool(threads);
+    try {
+      while (!docs.isEmpty()) {
+        Document document = docs.poll();
+        parsers.execute(
+            () -> {
+              ParsedDocument parsed = ParsedDocument.failed(document);
+              try {
+                parsed = parseDocument(document);
+              } catch (Exception e) {
+                ConsoleColors.printError("Indexer");
+                System.err.println(
+                    "Failed to parse document ID="
+                        + document.getId()
+                        + ", skipping. Cause: "
+                        + e.getMessage());
+              } finally {
+                // The writer takes exactly one item per document, even after an Error
+                try {
+                  parsedQueue.put(parsed);
+                } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                }
+              }
+            });
+      }
+
+      int written = 0;
+      List<ParsedDocument> batch = new ArrayList<>(documentsPerTransaction);
+      for (int received = 0; received < total; received++) {
+        ParsedDocument parsed = parsedQueue.take();
+        if (!parsed.isFailed()) batch.add(parsed);
+
+        if (batch.size() >= documentsPerTransaction
+            || (received == total - 1 && !batch.isEmpty())) {
+          written += writeBatch(batch);
+          releaseBuffers(batch);
+          batch = new ArrayList<>(documentsPerTransaction);
+
+          ConsoleColors.printInfo("Indexer");
+          System.out.println("Indexed " + written + "/" + total + " documents");
+        }
+      }
+      return written;
+    } finally {
+      parsers.shutdownNow();
+    }
+  }
+
   public Queue<Document> loadUnindexedDocuments() throws SQLException {
     ConsoleColors.printInfo("Indexer");
     System.out.println("Loading unindexed documents...");
@@ -170,44 +373,107 @@ public class Indexer {
     return q;
   }
 
+  public List<Document> loadChangedDocuments() {
+    ConsoleColors.printInfo("Indexer");
+    System.out.println("Loading documents changed since they were indexed...");
+    return databaseHelper.getChangedDocuments();
+  }
+
+  private void writeSegment() {
+    ConsoleColors.printInfo("Indexer");
+    System.out.println("Writing index segment to " + segmentPath);
+    try {
+      long startTime = System.currentTimeMillis();
+      int terms = new SegmentWriter(Paths.get(segmentPath)).write(databaseHelper);
+      ConsoleColors.printSuccess("Indexer");
+      System.out.println(
+          "Wrote segment with "
+              + terms
+              + " terms in "
+              + (System.currentTimeMillis() - startTime)
+              + " ms");
+    } catch (IOException | RuntimeException e) {
+      ConsoleColors.printError("Indexer");
+      System.err.println("Failed to write index segment: " + e.getMessage());
+      invalidateSegment();
+    }
+  }
+
+  // The segment left from the last run no longer matches the database, without it the
+  // in-memory index is loaded from the database instead
+  private void invalidateSegment() {
+    try {
+      if (Files.deleteIfExists(Paths.get(segmentPath))) {
+        ConsoleColors.printWarning("Indexer");
+        System.out.println("Removed stale segment " + segmentPath);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not remove stale segment " + segmentPath, e);
+    }
+  }
+
   public void index() {
     ConsoleColors.printInfo("Indexer");
     System.out.println("Starting indexing run");
 
     try {
       Queue<Document> docs = loadUnindexedDocuments();
+      int newDocuments = docs.size();
+      if (incremental) docs.addAll(loadChangedDocuments());
       ConsoleColors.printInfo("Indexer");
-      System.out.println("Found " + docs.size() + " documents to index");
+      System.out.println(
+          "Found "
+              + newDocuments
+              + " new and "
+              + (docs.size() - newDocuments)
+              + " changed documents to index");
+
+      int migrated = databaseHelper.migrateToAggregatedPostings();
+      if (migrated > 0) {
+        ConsoleColors.printInfo("Indexer");
+        System.out.println("Moved postings into " + migrated + " aggregated rows");
+      }
 
       long startTime = System.currentTimeMillis();
-      while (!docs.isEmpty()) indexDocument(docs.poll());
-      long elapsed = System.currentTimeMillis() - startTime;
-
+      termDictionary.warm();
       ConsoleColors.printInfo("Indexer");
       System.out.println(
-          "Indexing documents completed in "
-              + ((elapsed / 1000) / 60)
-              + " minutes and "
-              + ((elapsed / 1000) % 60)
-              + " seconds");
+          "Loaded "
+              + termDictionary.size()
+              + " words into the term dictionary in "
+              + (System.currentTimeMillis() - startTime)
+              + " ms");
 
       startTime = System.currentTimeMillis();
-      databaseHelper.calculateIDF();
-      elapsed = System.currentTimeMillis() - startTime;
+      int indexed = runPipeline(docs);
+      long elapsed = System.currentTimeMillis() - startTime;
 
-      ConsoleColors.printSuccess("Indexer");
+      ConsoleColors.printInfo("Indexer");
       System.out.println(
-          "IDF calculation completed in "
+          "Indexing "
+              + indexed
+              + " documents completed in "
               + ((elapsed / 1000) / 60)
               + " minutes and "
               + ((elapsed / 1000) % 60)
               + " seconds");
 
+      // Lets PageRank read links by document ID instead of joining on the target URL
+      int resolvedLinks = databaseHelper.resolveLinkTargets();
+      ConsoleColors.printInfo("Indexer");
+      System.out.println("Resolved " + resolvedLinks + " link targets");
+
+      if (!segmentPath.isEmpty()) writeSegment();
+
       ConsoleColors.printSuccess("Indexer");
       System.out.println("All done!");
     } catch (SQLException e) {
       ConsoleColors.printError("Indexer");
       System.err.println("Could not load unindexed docs: " + e.getMessage());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      ConsoleColors.printError("Indexer");
+      System.err.println("Indexing interrupted");
     }
   }
 }
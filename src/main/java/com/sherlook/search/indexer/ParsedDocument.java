@@ -0,0 +1,49 @@
+package com.sherlook.search.indexer;
+
+// Output of the parse stage of the indexing pipeline: everything the writer needs to store a
+// document without touching the HTML again.
+public class ParsedDocument {
+  private final Document document;
+  private final String title;
+  private final String description;
+  private final TokenBuffer tokens;
+  private final String ftsContent;
+
+  public ParsedDocument(
+      Document document, String title, String description, TokenBuffer tokens, String ftsContent) {
+    this.document = document;
+    this.title = title;
+    this.description = description;
+    this.tokens = tokens;
+    this.ftsContent = ftsContent;
+  }
+
+  // Placeholder handed to the writer when a document could not be parsed
+  public static ParsedDocument failed(Document document) {
+    return new ParsedDocument(document, null, null, null, null);
+  }
+
+  public boolean isFailed() {
+    return tokens == null;
+  }
+
+  public Document getDocument() {
+    return document;
+  }
+
+  public String getTitle() {
+    return title;
+  }
+
+  public String getDescription() {
+    return description;
+  }
+
+  public TokenBuffer getTokens() {
+    return tokens;
+  }
+
+  public String getFtsContent() {
+    return ftsContent;
+  }
+}
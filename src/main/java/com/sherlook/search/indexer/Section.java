@@ -1,9 +1,20 @@
 package com.sherlook.search.indexer;
 
 public enum Section {
-  TITLE,
-  HEADER,
-  BODY;
+  TITLE(2.0),
+  HEADER(1.5),
+  BODY(1.0);
+
+  // How much an occurrence in this section counts towards a document's TF-IDF
+  private final double weight;
+
+  Section(double weight) {
+    this.weight = weight;
+  }
+
+  public double weight() {
+    return weight;
+  }
 
   @Override
   public String toString() {
@@ -1,38 +1,114 @@
 package com.sherlook.search.indexer;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.sherlook.search.utils.ConsoleColors;
 import java.io.IOException;
 import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.core.WhitespaceTokenizer;
 import org.apache.lucene.analysis.en.PorterStemFilter;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+// Porter stemming through one shared analyzer. Lucene keeps a tokenizer and filter per thread
+// and reuses them for every call, and a bounded cache in front skips the analyzer entirely
+// for the common words that make up most of any page.
 @Component
 public class Stemmer {
+  public static final long DEFAULT_CACHE_SIZE = 100_000;
 
-  public String stem(String word) {
-    try (Analyzer analyzer =
-        new Analyzer() {
-          @Override
-          protected TokenStreamComponents createComponents(String fieldName) {
-            WhitespaceTokenizer tokenizer = new WhitespaceTokenizer();
-            TokenStream filter = new PorterStemFilter(tokenizer);
-            return new TokenStreamComponents(tokenizer, filter);
-          }
-        }) {
-      try (TokenStream tokenStream = analyzer.tokenStream(null, new StringReader(word))) {
-        CharTermAttribute attr = tokenStream.addAttribute(CharTermAttribute.class);
-        tokenStream.reset();
-        if (tokenStream.incrementToken()) {
-          String stemmed = attr.toString();
-          tokenStream.end();
-          return stemmed;
+  private final Analyzer analyzer =
+      new Analyzer() {
+        @Override
+        protected TokenStreamComponents createComponents(String fieldName) {
+          WhitespaceTokenizer tokenizer = new WhitespaceTokenizer();
+          TokenStream filter = new PorterStemFilter(tokenizer);
+          return new TokenStreamComponents(tokenizer, filter);
         }
+      };
+
+  private final Cache<String, String> cache;
+
+  public Stemmer() {
+    this(DEFAULT_CACHE_SIZE);
+  }
+
+  @Autowired
+  public Stemmer(@Value("${indexer.stem-cache-size:100000}") long cacheSize) {
+    this.cache = Caffeine.newBuilder().maximumSize(cacheSize).build();
+  }
+
+  public String stem(String word) {
+    return cache.get(word, this::stemUncached);
+  }
+
+  // Stems a batch of words without whitespace in them, in order. Words missing from the cache
+  // go through the analyzer together as one token stream.
+  public List<String> stemAll(List<String> words) {
+    Map<String, String> cached = cache.getAllPresent(words);
+    if (cached.size() == words.size()) {
+      List<String> stems = new ArrayList<>(words.size());
+      for (String word : words) stems.add(cached.get(word));
+      return stems;
+    }
+
+    List<String> missing = new ArrayList<>();
+    for (String word : words) {
+      if (!cached.containsKey(word)) missing.add(word);
+    }
+    String[] stemmed = stemTogether(missing);
+
+    List<String> stems = new ArrayList<>(words.size());
+    int next = 0;
+    for (String word : words) {
+      String stem = cached.get(word);
+      if (stem == null) {
+        stem = stemmed != null ? stemmed[next++] : stem(word);
+        cache.put(word, stem);
+      }
+      stems.add(stem);
+    }
+    return stems;
+  }
+
+  // One token per word, or null if the analyzer didn't keep them lined up
+  private String[] stemTogether(List<String> words) {
+    String[] stems = new String[words.size()];
+    try (TokenStream tokenStream =
+        analyzer.tokenStream(null, new StringReader(String.join(" ", words)))) {
+      CharTermAttribute attr = tokenStream.addAttribute(CharTermAttribute.class);
+      tokenStream.reset();
+      int count = 0;
+      while (tokenStream.incrementToken()) {
+        if (count == stems.length) return null;
+        stems[count++] = attr.toString();
+      }
+      tokenStream.end();
+      return count == stems.length ? stems : null;
+    } catch (IOException e) {
+      ConsoleColors.printInfo("Stemmer");
+      System.out.println("Error stemming " + words.size() + " words - " + e.getMessage());
+      return null;
+    }
+  }
+
+  private String stemUncached(String word) {
+    try (TokenStream tokenStream = analyzer.tokenStream(null, new StringReader(word))) {
+      CharTermAttribute attr = tokenStream.addAttribute(CharTermAttribute.class);
+      tokenStream.reset();
+      if (tokenStream.incrementToken()) {
+        String stemmed = attr.toString();
         tokenStream.end();
+        return stemmed;
       }
+      tokenStream.end();
     } catch (IOException e) {
       ConsoleColors.printInfo("Stemmer");
       System.out.println("Error stemming word: " + word + " - " + e.getMessage());
@@ -11,6 +11,8 @@ import org.springframework.stereotype.Component;
 @Component
 public class StopWordsFilter {
   private final Set<String> stopWords;
+  // Same words, for lookups straight from the tokenizer's buffer
+  private final CharTermTable stopWordTable = new CharTermTable();
 
   public StopWordsFilter() {
     try {
@@ -24,6 +26,7 @@ public class StopWordsFilter {
               .map(String::trim)
               .filter(line -> !line.isEmpty())
               .collect(Collectors.toSet());
+      for (String stopWord : stopWords) stopWordTable.add(stopWord.toLowerCase());
     } catch (IOException e) {
       throw new RuntimeException("Failed to load stop words", e);
     }
@@ -32,4 +35,9 @@ public class StopWordsFilter {
   public boolean isStopWord(String word) {
     return stopWords.contains(word.toLowerCase());
   }
+
+  // The slice must already be lowercase
+  public boolean isStopWord(char[] chars, int offset, int length) {
+    return stopWordTable.find(chars, offset, length) >= 0;
+  }
 }
@@ -0,0 +1,144 @@
+package com.sherlook.search.indexer;
+
+import com.sherlook.search.utils.DatabaseHelper;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Word -> ID dictionary held in memory for an indexing run. IDs for new words are assigned
+// locally, and the new words plus count and document frequency deltas for existing ones are
+// only written to the words table on flush(). Assumes it is the only writer of the words table
+// while in use and, like the indexer's writer stage, is meant to be used from a single thread.
+public class TermDictionary {
+  private final DatabaseHelper databaseHelper;
+  private final Map<String, Integer> ids = new HashMap<>();
+  private boolean warm = false;
+  private int nextId = -1;
+
+  // Changes since the last flush
+  private final Map<String, Integer> newWords = new LinkedHashMap<>();
+  private final Map<Integer, String> newStems = new HashMap<>();
+  private final Map<Integer, Integer> countDeltas = new HashMap<>();
+  private final Map<Integer, Integer> docFrequencyDeltas = new HashMap<>();
+
+  public TermDictionary(DatabaseHelper databaseHelper) {
+    this.databaseHelper = databaseHelper;
+  }
+
+  // Loads every known word so lookups never have to hit the database
+  public void warm() {
+    ids.clear();
+    ids.putAll(databaseHelper.getWordIds());
+    nextId = databaseHelper.getMaxWordId() + 1;
+    warm = true;
+  }
+
+  public int size() {
+    return ids.size();
+  }
+
+  // Resolves the words of one document, in order
+  public int[] resolve(List<String> words, List<String> stems) {
+    if (!warm) lookUpMissing(words);
+    if (nextId < 0) nextId = databaseHelper.getMaxWordId() + 1;
+
+    int[] resolved = new int[words.size()];
+    Set<Integer> distinct = new HashSet<>();
+    for (int i = 0; i < words.size(); i++) {
+      resolved[i] = idFor(words.get(i), stems.get(i), 1);
+      if (distinct.add(resolved[i])) docFrequencyDeltas.merge(resolved[i], 1, Integer::sum);
+    }
+    return resolved;
+  }
+
+  // Resolves each distinct term of one document's buffer once, returns word IDs indexed by
+  // term ID
+  public int[] resolve(TokenBuffer tokens) {
+    List<String> terms = tokens.terms();
+    if (!warm) lookUpMissing(terms);
+    if (nextId < 0) nextId = databaseHelper.getMaxWordId() + 1;
+
+    int[] resolved = new int[terms.size()];
+    for (int termId = 0; termId < terms.size(); termId++) {
+      resolved[termId] = idFor(terms.get(termId), tokens.stem(termId), tokens.occurrences(termId));
+      docFrequencyDeltas.merge(resolved[termId], 1, Integer::sum);
+    }
+    return resolved;
+  }
+
+  private int idFor(String word, String stem, int occurrences) {
+    Integer id = ids.get(word);
+    if (id == null) {
+      id = nextId++;
+      ids.put(word, id);
+      newWords.put(word, id);
+      newStems.put(id, stem);
+    }
+    countDeltas.merge(id, occurrences, Integer::sum);
+    return id;
+  }
+
+  // Takes back one document's occurrences of a word, e.g. the old version of a re-indexed
+  // document
+  public void subtract(int wordId, int occurrences) {
+    countDeltas.merge(wordId, -occurrences, Integer::sum);
+    docFrequencyDeltas.merge(wordId, -1, Integer::sum);
+  }
+
+  private void lookUpMissing(List<String> words) {
+    List<String> missing = new ArrayList<>();
+    for (String word : words) {
+      if (!ids.containsKey(word)) missing.add(word);
+    }
+    if (!missing.isEmpty()) ids.putAll(databaseHelper.getWordIds(missing));
+  }
+
+  public boolean hasPendingChanges() {
+    return !countDeltas.isEmpty();
+  }
+
+  // Must run inside the transaction that inserted the postings referencing the new IDs
+  public void flush() {
+    if (!hasPendingChanges()) return;
+
+    List<Integer> insertIds = new ArrayList<>(newWords.size());
+    List<String> insertWords = new ArrayList<>(newWords.size());
+    List<String> insertStems = new ArrayList<>(newWords.size());
+    List<Integer> insertCounts = new ArrayList<>(newWords.size());
+    List<Integer> insertDocFrequencies = new ArrayList<>(newWords.size());
+    for (Map.Entry<String, Integer> entry : newWords.entrySet()) {
+      int id = entry.getValue();
+      insertIds.add(id);
+      insertWords.add(entry.getKey());
+      insertStems.add(newStems.get(id));
+      insertCounts.add(countDeltas.remove(id));
+      insertDocFrequencies.add(docFrequencyDeltas.remove(id));
+    }
+
+    databaseHelper.insertWords(
+        insertIds, insertWords, insertStems, insertCounts, insertDocFrequencies);
+    databaseHelper.incrementWordCounts(
+        new HashMap<>(countDeltas), new HashMap<>(docFrequencyDeltas));
+    clearPending();
+  }
+
+  // Forgets everything since the last flush, used when the surrounding transaction rolls back
+  public void discardPending() {
+    for (Map.Entry<String, Integer> entry : newWords.entrySet()) {
+      ids.remove(entry.getKey());
+      nextId = Math.min(nextId, entry.getValue());
+    }
+    clearPending();
+  }
+
+  private void clearPending() {
+    newWords.clear();
+    newStems.clear();
+    countDeltas.clear();
+    docFrequencyDeltas.clear();
+  }
+}
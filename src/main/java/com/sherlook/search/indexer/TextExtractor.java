@@ -0,0 +1,89 @@
+package com.sherlook.search.indexer;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.select.NodeTraversor;
+import org.jsoup.select.NodeVisitor;
+
+// Walks a parsed page once and collects its text in document order, each text node exactly
+// once. Consecutive text in the same section is joined into one run, with a space wherever a
+// block element or <br> would break the line, the same way Element.text() renders it.
+class TextExtractor implements NodeVisitor {
+  record Run(String text, Section section) {}
+
+  private final List<Run> runs = new ArrayList<>();
+  private final StringBuilder current = new StringBuilder();
+  private int headerDepth = 0;
+  private int skipDepth = 0;
+
+  static List<Run> extract(Element root) {
+    TextExtractor extractor = new TextExtractor();
+    NodeTraversor.traverse(extractor, root);
+    extractor.flush();
+    return extractor.runs;
+  }
+
+  @Override
+  public void head(Node node, int depth) {
+    if (node instanceof TextNode) {
+      if (skipDepth == 0) append(((TextNode) node).text());
+      return;
+    }
+    if (!(node instanceof Element)) return;
+
+    Element element = (Element) node;
+    if (isSkipped(element)) {
+      skipDepth++;
+    } else if (isHeader(element)) {
+      flush();
+      headerDepth++;
+    } else if (element.isBlock() || element.normalName().equals("br")) {
+      append(" ");
+    }
+  }
+
+  @Override
+  public void tail(Node node, int depth) {
+    if (!(node instanceof Element)) return;
+
+    Element element = (Element) node;
+    if (isSkipped(element)) {
+      skipDepth--;
+    } else if (isHeader(element)) {
+      flush();
+      headerDepth--;
+    } else if (element.isBlock()) {
+      append(" ");
+    }
+  }
+
+  // Text nodes come with their whitespace already collapsed, only the joins can double it
+  private void append(String text) {
+    boolean endsWithSpace = current.length() > 0 && current.charAt(current.length() - 1) == ' ';
+    current.append(text, endsWithSpace && text.startsWith(" ") ? 1 : 0, text.length());
+  }
+
+  private void flush() {
+    String text = current.toString().trim();
+    current.setLength(0);
+    if (text.isEmpty()) return;
+    runs.add(new Run(text, headerDepth > 0 ? Section.HEADER : Section.BODY));
+  }
+
+  // The title is indexed on its own; scripts and styles hold no page text
+  private static boolean isSkipped(Element element) {
+    String name = element.normalName();
+    return name.equals("script") || name.equals("style") || name.equals("title");
+  }
+
+  private static boolean isHeader(Element element) {
+    String name = element.normalName();
+    return name.length() == 2
+        && name.charAt(0) == 'h'
+        && name.charAt(1) >= '1'
+        && name.charAt(1) <= '6';
+  }
+}
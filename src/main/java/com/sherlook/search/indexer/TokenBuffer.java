@@ -0,0 +1,142 @@
+package com.sherlook.search.indexer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Tokens of one document in columns: for each token the ID of its term, its position, its
+// section and where it starts in the document's text, in primitive arrays. Terms are interned
+// per buffer, so a term is stemmed and looked up in the dictionary once however often it
+// occurs. Buffers are meant to be cleared and reused for the next document.
+public class TokenBuffer {
+  private static final int INITIAL_CAPACITY = 256;
+  private static final Section[] SECTIONS = Section.values();
+
+  private final CharTermTable terms = new CharTermTable();
+  private final List<String> stems = new ArrayList<>();
+  private int[] termCounts = new int[INITIAL_CAPACITY];
+
+  private int[] termIds = new int[INITIAL_CAPACITY];
+  private int[] positions = new int[INITIAL_CAPACITY];
+  private byte[] sections = new byte[INITIAL_CAPACITY];
+  // Character offset into text, -1 for tokens added without one
+  private int[] offsets = new int[INITIAL_CAPACITY];
+  private int size = 0;
+
+  // Every text tokenized into the buffer, as written, one space between them
+  private final StringBuilder text = new StringBuilder();
+
+  // Scratch space for the tokenizer
+  private char[] chars = new char[INITIAL_CAPACITY];
+
+  public int add(String term, int position, Section section) {
+    return add(term.toCharArray(), 0, term.length(), position, section, -1);
+  }
+
+  // Appends a token and returns the ID of its term
+  public int add(
+      char[] source, int offset, int length, int position, Section section, int textOffset) {
+    int termId = terms.add(source, offset, length);
+    if (termId == stems.size()) {
+      stems.add(null);
+      if (termId == termCounts.length) termCounts = Arrays.copyOf(termCounts, termId * 2);
+      termCounts[termId] = 0;
+    }
+    termCounts[termId]++;
+
+    if (size == termIds.length) {
+      int capacity = size * 2;
+      termIds = Arrays.copyOf(termIds, capacity);
+      positions = Arrays.copyOf(positions, capacity);
+      sections = Arrays.copyOf(sections, capacity);
+      offsets = Arrays.copyOf(offsets, capacity);
+    }
+    termIds[size] = termId;
+    positions[size] = position;
+    sections[size] = (byte) section.ordinal();
+    offsets[size] = textOffset;
+    size++;
+    return termId;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int termId(int token) {
+    return termIds[token];
+  }
+
+  public int position(int token) {
+    return positions[token];
+  }
+
+  public Section section(int token) {
+    return SECTIONS[sections[token]];
+  }
+
+  public int textOffset(int token) {
+    return offsets[token];
+  }
+
+  // Adds a text about to be tokenized and returns where it starts
+  public int appendText(String value) {
+    if (text.length() > 0) text.append(' ');
+    int start = text.length();
+    text.append(value);
+    return start;
+  }
+
+  public String text() {
+    return text.toString();
+  }
+
+  public int termCount() {
+    return terms.size();
+  }
+
+  // Distinct terms, indexed by term ID
+  public List<String> terms() {
+    return terms.terms();
+  }
+
+  public String term(int termId) {
+    return terms.get(termId);
+  }
+
+  // Null until the tokenizer has stemmed the term
+  public String stem(int termId) {
+    return stems.get(termId);
+  }
+
+  public void setStem(int termId, String stem) {
+    stems.set(termId, stem);
+  }
+
+  // Number of tokens of the term
+  public int occurrences(int termId) {
+    return termCounts[termId];
+  }
+
+  public void clear() {
+    terms.clear();
+    stems.clear();
+    size = 0;
+    text.setLength(0);
+    // Don't hold on to the arrays of an unusually large document
+    if (termIds.length > INITIAL_CAPACITY * 256) {
+      termIds = new int[INITIAL_CAPACITY];
+      positions = new int[INITIAL_CAPACITY];
+      sections = new byte[INITIAL_CAPACITY];
+      offsets = new int[INITIAL_CAPACITY];
+      termCounts = new int[INITIAL_CAPACITY];
+      chars = new char[INITIAL_CAPACITY];
+    }
+    if (text.capacity() > INITIAL_CAPACITY * 4096) text.trimToSize();
+  }
+
+  char[] scratch(int length) {
+    if (chars.length < length) chars = new char[Math.max(length, chars.length * 2)];
+    return chars;
+  }
+}
@@ -21,41 +21,51 @@ public class Tokenizer {
     this.stopWordsFilter = new StopWordsFilter();
   }
 
-  public int tokenizeWithPositions(
-      String text,
-      int startPos,
-      List<String> tokens,
-      List<String> stems,
-      List<Integer> positions,
-      List<Section> sections,
-      Section currentSection) {
-
-    String[] words = text.toLowerCase().split("\\W+");
+  // Scans the text for runs of ASCII letters, digits and underscores, lowercased, and appends
+  // every word that isn't a stop word to the buffer. Stop words don't take a position. New
+  // terms are stemmed in one batch at the end. The text itself is kept in the buffer, with
+  // every token's offset into it. Returns the next position.
+  public int tokenize(String text, int startPos, Section section, TokenBuffer tokens) {
+    int textOffset = tokens.appendText(text);
+    int length = text.length();
+    char[] chars = tokens.scratch(length);
+    text.getChars(0, length, chars, 0);
+    int firstNewTerm = tokens.termCount();
     int pos = startPos;
 
-    for (String word : words) {
-      if (!word.isEmpty()) {
-        if (!stopWordsFilter.isStopWord(word)) {
-          tokens.add(word);
-
-          if (stems != null) stems.add(stemmer.stem(word));
-
-          positions.add(pos++);
-          sections.add(currentSection);
+    int start = -1;
+    for (int i = 0; i <= length; i++) {
+      char c = i < length ? chars[i] : ' ';
+      if (c >= 'A' && c <= 'Z') {
+        c = (char) (c + ('a' - 'A'));
+        chars[i] = c;
+      }
+      boolean wordChar = (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '_';
+      if (wordChar) {
+        if (start < 0) start = i;
+      } else if (start >= 0) {
+        if (!stopWordsFilter.isStopWord(chars, start, i - start)) {
+          tokens.add(chars, start, i - start, pos++, section, textOffset + start);
         }
+        start = -1;
       }
     }
 
+    int termCount = tokens.termCount();
+    if (termCount > firstNewTerm) {
+      List<String> stems = stemmer.stemAll(tokens.terms().subList(firstNewTerm, termCount));
+      for (int i = 0; i < stems.size(); i++) tokens.setStem(firstNewTerm + i, stems.get(i));
+    }
     return pos;
   }
 
   public void tokenizeQuery(String query, List<String> tokens, List<String> stems) {
-    String[] words = query.toLowerCase().split("\\W+");
-    for (String word : words) {
-      if (!(word.isEmpty() || stopWordsFilter.isStopWord(word))) {
-        tokens.add(word);
-        stems.add(stemmer.stem(word));
-      }
+    TokenBuffer buffer = new TokenBuffer();
+    tokenize(query, 0, Section.BODY, buffer);
+    for (int i = 0; i < buffer.size(); i++) {
+      int termId = buffer.termId(i);
+      tokens.add(buffer.term(termId));
+      stems.add(buffer.stem(termId));
     }
   }
 }
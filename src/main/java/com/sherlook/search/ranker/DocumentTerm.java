@@ -30,6 +30,15 @@ public class DocumentTerm {
     this.positionsBySection = positionsBySection;
   }
 
+  // Ranking only needs the ID and size, the strings are looked up for returned results
+  public DocumentTerm(
+      String word,
+      int documentId,
+      int documentSize,
+      Map<String, List<Integer>> positionsBySection) {
+    this(word, documentId, null, null, documentSize, null, positionsBySection);
+  }
+
   public String getWord() {
     return word;
   }
@@ -84,6 +93,10 @@ public class DocumentTerm {
       this.positionsBySection = new HashMap<String, List<Integer>>();
     }
 
+    public DocumentTermBuilder(String word, int documentId, int documentSize) {
+      this(word, documentId, null, null, documentSize, null);
+    }
+
     public void addPositions(String section, List<Integer> positions) {
       positionsBySection.put(section, positions);
     }
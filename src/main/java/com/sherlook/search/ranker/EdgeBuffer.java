@@ -0,0 +1,44 @@
+package com.sherlook.search.ranker;
+
+import java.util.Arrays;
+
+// Growable pair of int arrays holding (source, target) document IDs, filled straight from a
+// database cursor so loading the link graph doesn't create an object per link
+public class EdgeBuffer {
+  private int[] sources;
+  private int[] targets;
+  private int size = 0;
+
+  public EdgeBuffer() {
+    this(1024);
+  }
+
+  public EdgeBuffer(int initialCapacity) {
+    sources = new int[Math.max(16, initialCapacity)];
+    targets = new int[sources.length];
+  }
+
+  public void add(int sourceId, int targetId) {
+    if (size == sources.length) {
+      int capacity = sources.length + (sources.length >> 1);
+      sources = Arrays.copyOf(sources, capacity);
+      targets = Arrays.copyOf(targets, capacity);
+    }
+    sources[size] = sourceId;
+    targets[size] = targetId;
+    size++;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  // Backing arrays, only the first size() entries are valid
+  int[] sources() {
+    return sources;
+  }
+
+  int[] targets() {
+    return targets;
+  }
+}
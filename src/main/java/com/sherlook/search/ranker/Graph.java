@@ -1,20 +1,103 @@
 package com.sherlook.search.ranker;
 
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
+// Link graph in compressed sparse row form. Documents are remapped to dense indices
+// 0..size()-1, and the in-links of node i are sources[offsets[i] .. offsets[i + 1]), kept in
+// the order the links were given so sums come out exactly as they did with per-node lists.
 public class Graph {
-  Map<Integer, Integer> outgoingLinkCount;
-  Map<Integer, List<Integer>> incomingLinks;
-  Set<Integer> danglingNodes;
-
-  public Graph(
-      Map<Integer, Integer> outgoingLinkCount,
-      Map<Integer, List<Integer>> incomingLinks,
-      Set<Integer> danglingNodes) {
-    this.outgoingLinkCount = outgoingLinkCount;
-    this.incomingLinks = incomingLinks;
+  final int[] docIds;
+  final int[] offsets;
+  final int[] sources;
+  final int[] outDegree;
+  final int[] danglingNodes;
+
+  private Graph(int[] docIds, int[] offsets, int[] sources, int[] outDegree, int[] danglingNodes) {
+    this.docIds = docIds;
+    this.offsets = offsets;
+    this.sources = sources;
+    this.outDegree = outDegree;
     this.danglingNodes = danglingNodes;
   }
+
+  public static Graph build(List<Integer> docIds, List<Link> links) {
+    int[] ids = docIds.stream().mapToInt(Integer::intValue).toArray();
+    int[] linkSources = new int[links.size()];
+    int[] linkTargets = new int[links.size()];
+    for (int i = 0; i < links.size(); i++) {
+      linkSources[i] = links.get(i).getSourceId();
+      linkTargets[i] = links.get(i).getTargetId();
+    }
+    return build(ids, linkSources, linkTargets, links.size());
+  }
+
+  public static Graph build(int[] docIds, EdgeBuffer edges) {
+    return build(docIds, edges.sources(), edges.targets(), edges.size());
+  }
+
+  // Links whose source or target is not one of docIds are ignored
+  public static Graph build(int[] docIds, int[] linkSources, int[] linkTargets, int linkCount) {
+    int n = docIds.length;
+
+    // Document ID -> dense index, through a sorted copy of the IDs
+    int[] sortedIds = new int[n];
+    int[] denseIndex = new int[n];
+    long[] keyed = new long[n];
+    for (int i = 0; i < n; i++) keyed[i] = ((long) docIds[i] << 32) | i;
+    Arrays.sort(keyed);
+    for (int i = 0; i < n; i++) {
+      sortedIds[i] = (int) (keyed[i] >> 32);
+      denseIndex[i] = (int) keyed[i];
+    }
+
+    int[] outDegree = new int[n];
+    int[] offsets = new int[n + 1];
+    int[] resolvedSources = new int[linkCount];
+    int[] resolvedTargets = new int[linkCount];
+    int resolved = 0;
+    for (int i = 0; i < linkCount; i++) {
+      int source = lookup(sortedIds, denseIndex, linkSources[i]);
+      int target = lookup(sortedIds, denseIndex, linkTargets[i]);
+      if (source < 0 || target < 0) continue;
+      resolvedSources[resolved] = source;
+      resolvedTargets[resolved] = target;
+      resolved++;
+      outDegree[source]++;
+      offsets[target + 1]++;
+    }
+
+    for (int i = 0; i < n; i++) offsets[i + 1] += offsets[i];
+
+    // Stable counting sort by target
+    int[] sources = new int[resolved];
+    int[] next = Arrays.copyOf(offsets, n);
+    for (int i = 0; i < resolved; i++) {
+      sources[next[resolvedTargets[i]]++] = resolvedSources[i];
+    }
+
+    int danglingCount = 0;
+    for (int i = 0; i < n; i++) if (outDegree[i] == 0) danglingCount++;
+    int[] danglingNodes = new int[danglingCount];
+    for (int i = 0, d = 0; i < n; i++) if (outDegree[i] == 0) danglingNodes[d++] = i;
+
+    return new Graph(docIds.clone(), offsets, sources, outDegree, danglingNodes);
+  }
+
+  private static int lookup(int[] sortedIds, int[] denseIndex, int docId) {
+    int pos = Arrays.binarySearch(sortedIds, docId);
+    return pos >= 0 ? denseIndex[pos] : -1;
+  }
+
+  public int size() {
+    return docIds.length;
+  }
+
+  public int getLinkCount() {
+    return sources.length;
+  }
+
+  public int getDocId(int index) {
+    return docIds[index];
+  }
 }
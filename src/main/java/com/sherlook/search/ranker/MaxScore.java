@@ -0,0 +1,163 @@
+package com.sherlook.search.ranker;
+
+import com.sherlook.search.index.InvertedIndex;
+import com.sherlook.search.index.PostingList;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+// MaxScore evaluation of a keyword query over the in-memory index, for the k best documents
+// by TF-IDF. Each term's upper bound is the max weighted TF stored with its posting list
+// times its IDF. Terms sorted by bound are split where the smaller bounds together can no
+// longer beat the k-th best score so far: only documents containing one of the larger,
+// essential terms are scored, and the smaller terms are only looked up while the document
+// can still make the top k. Scores come from the section frequencies alone, positions are
+// never decoded.
+class MaxScore {
+
+  static class Result {
+    // Fully scored documents, leaving out those the caller already had
+    final List<RankedDocument> documents = new ArrayList<>();
+    int totalDocuments;
+    // Every match left out of documents scores at most this
+    double threshold = Double.NEGATIVE_INFINITY;
+    boolean pruned;
+  }
+
+  private static class Term {
+    final int queryIndex;
+    final double idf;
+    final double bound;
+    final PostingList.Cursor cursor;
+    int docId = -1;
+
+    Term(int queryIndex, double idf, PostingList list) {
+      this.queryIndex = queryIndex;
+      this.idf = idf;
+      this.bound = idf == 0.0 ? 0.0 : list.getMaxWeightedTf() * idf;
+      this.cursor = list.cursor();
+    }
+  }
+
+  private final InvertedIndex index;
+  private final BitSet matched = new BitSet();
+
+  private MaxScore(InvertedIndex index) {
+    this.index = index;
+  }
+
+  static Result evaluate(
+      InvertedIndex index,
+      List<String> queryTerms,
+      Map<String, Double> idfMap,
+      int k,
+      Set<Integer> known) {
+    return new MaxScore(index).run(queryTerms, idfMap, k, known);
+  }
+
+  private Result run(
+      List<String> queryTerms, Map<String, Double> idfMap, int k, Set<Integer> known) {
+    List<Term> list = new ArrayList<>();
+    for (String word : new LinkedHashSet<>(queryTerms)) {
+      PostingList postings = index.getPostings(word);
+      if (postings == null) continue;
+      list.add(new Term(list.size(), idfMap.getOrDefault(word, 0.0), postings));
+    }
+    list.sort(Comparator.comparingDouble(term -> term.bound));
+    Term[] terms = list.toArray(new Term[0]);
+    int termCount = terms.length;
+
+    // prefix[i] is the most terms 0..i can add to one document together
+    double[] prefix = new double[termCount];
+    for (int i = 0; i < termCount; i++) {
+      prefix[i] = terms[i].bound + (i > 0 ? prefix[i - 1] : 0.0);
+      advance(terms[i], 0);
+    }
+
+    Result result = new Result();
+    PriorityQueue<Double> topScores = new PriorityQueue<>();
+    double threshold = Double.NEGATIVE_INFINITY;
+    int firstEssential = 0;
+    double[] contributions = new double[termCount];
+    int scoredCount = 0;
+
+    while (firstEssential < termCount) {
+      int docId = Integer.MAX_VALUE;
+      for (int i = firstEssential; i < termCount; i++) docId = Math.min(docId, terms[i].docId);
+      if (docId == Integer.MAX_VALUE) break;
+
+      int size = index.getDocumentSize(docId);
+      double score = 0.0;
+      for (int i = firstEssential; i < termCount; i++) {
+        contributions[terms[i].queryIndex] = 0.0;
+        if (terms[i].docId != docId) continue;
+        double contribution = terms[i].cursor.weightedTf(size) * terms[i].idf;
+        contributions[terms[i].queryIndex] = contribution;
+        score += contribution;
+      }
+
+      boolean competitive = true;
+      for (int i = firstEssential - 1; i >= 0; i--) {
+        contributions[terms[i].queryIndex] = 0.0;
+        if (score + prefix[i] <= threshold) {
+          competitive = false;
+          break;
+        }
+        advance(terms[i], docId);
+        if (terms[i].docId != docId) continue;
+        double contribution = terms[i].cursor.weightedTf(size) * terms[i].idf;
+        contributions[terms[i].queryIndex] = contribution;
+        score += contribution;
+      }
+
+      if (competitive) {
+        // Summed again in query order, the order getDocumentTfIdf adds them in
+        double tfIdf = 0.0;
+        for (int i = 0; i < termCount; i++) tfIdf += contributions[i];
+        scoredCount++;
+        if (!known.contains(docId)) result.documents.add(new RankedDocument(docId, tfIdf));
+
+        topScores.add(tfIdf);
+        if (topScores.size() > k) topScores.poll();
+        if (topScores.size() == k) {
+          threshold = topScores.peek();
+          while (firstEssential < termCount && prefix[firstEssential] <= threshold) {
+            firstEssential++;
+          }
+        }
+      }
+
+      for (Term term : terms) {
+        if (term.docId == docId) advance(term, docId + 1);
+      }
+    }
+
+    // Run the rest of every list so the match count stays exact
+    for (Term term : terms) advance(term, Integer.MAX_VALUE);
+    result.totalDocuments = matched.cardinality();
+    result.pruned = scoredCount < result.totalDocuments;
+    result.threshold = threshold;
+    return result;
+  }
+
+  // Moves the term to its first document at or after target, counting the documents passed
+  private void advance(Term term, int target) {
+    while (term.docId < target) {
+      if (!term.cursor.next()) {
+        term.docId = Integer.MAX_VALUE;
+        return;
+      }
+      term.docId = term.cursor.docId();
+      if (!index.hasDocument(term.docId)) {
+        term.docId = -1;
+        continue;
+      }
+      matched.set(term.docId);
+    }
+  }
+}
@@ -0,0 +1,168 @@
+package com.sherlook.search.ranker;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+// Power iteration over a CSR graph. All vectors are allocated once per run, iterations only
+// read and write primitive arrays. Each iteration is split into fixed-size node blocks, run on
+// a ForkJoinPool with parallelism > 1 and one after another otherwise. Per-block partial sums
+// are always combined in block order, so the scores are bit-for-bit the same for any number of
+// threads.
+public class PageRank {
+  private static final int BLOCK_SIZE = 4096;
+
+  private final double dampingFactor;
+  private final double convergenceThreshold;
+  private final int maxIterations;
+  private final int parallelism;
+
+  private int iterations;
+  private double maxDiff;
+  private boolean converged;
+
+  public PageRank(double dampingFactor, double convergenceThreshold, int maxIterations) {
+    this(dampingFactor, convergenceThreshold, maxIterations, 1);
+  }
+
+  public PageRank(
+      double dampingFactor, double convergenceThreshold, int maxIterations, int parallelism) {
+    this.dampingFactor = dampingFactor;
+    this.convergenceThreshold = convergenceThreshold;
+    this.maxIterations = maxIterations;
+    this.parallelism = parallelism;
+  }
+
+  // Scores indexed like the graph's dense node indices
+  public double[] compute(Graph graph) {
+    int n = graph.size();
+    iterations = 0;
+    maxDiff = 0.0;
+    converged = false;
+    if (n == 0) return new double[0];
+
+    int[] offsets = graph.offsets;
+    int[] sources = graph.sources;
+    int[] outDegree = graph.outDegree;
+
+    int blockCount = (n + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    double[][] vectors = {new double[n], new double[n]};
+    double[] share = new double[n];
+    double[] blockDangling = new double[blockCount];
+    double[] blockDiff = new double[blockCount];
+    Arrays.fill(vectors[0], 1.0 / n); // assuming uniform distribution
+
+    double teleport = (1 - dampingFactor) / n;
+    double[] danglingContribution = new double[1];
+
+    // Phase 1: per-node share of its rank and the block's dangling mass
+    IntConsumer shareBlock =
+        block -> {
+          double[] previous = vectors[0];
+          double dangling = 0.0;
+          for (int j = block * BLOCK_SIZE, end = Math.min(n, j + BLOCK_SIZE); j < end; j++) {
+            if (outDegree[j] > 0) {
+              share[j] = previous[j] / outDegree[j];
+            } else {
+              share[j] = 0.0;
+              dangling += previous[j];
+            }
+          }
+          blockDangling[block] = dangling;
+        };
+
+    // Phase 2: the block's slice of the new vector and its max diff
+    IntConsumer rankBlock =
+        block -> {
+          double[] previous = vectors[0];
+          double[] current = vectors[1];
+          double diff = 0.0;
+          for (int i = block * BLOCK_SIZE, end = Math.min(n, i + BLOCK_SIZE); i < end; i++) {
+            double incomingSum = 0.0;
+            for (int k = offsets[i], last = offsets[i + 1]; k < last; k++) {
+              incomingSum += share[sources[k]];
+            }
+            double rank = teleport + dampingFactor * (incomingSum + danglingContribution[0]);
+            current[i] = rank;
+            diff = Math.max(diff, Math.abs(rank - previous[i]));
+          }
+          blockDiff[block] = diff;
+        };
+
+    ForkJoinPool pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+    try {
+      while (iterations < maxIterations) {
+        iterations++;
+
+        runBlocks(pool, shareBlock, blockCount);
+        double sumDanglingNodeRanks = 0.0;
+        for (double dangling : blockDangling) sumDanglingNodeRanks += dangling;
+        danglingContribution[0] = sumDanglingNodeRanks / n;
+
+        runBlocks(pool, rankBlock, blockCount);
+        double diff = 0.0;
+        for (double blockMax : blockDiff) diff = Math.max(diff, blockMax);
+        maxDiff = diff;
+
+        // On convergence the previous vector is returned, as the map-based version did
+        if (diff < convergenceThreshold) {
+          converged = true;
+          return vectors[0];
+        }
+
+        double[] swap = vectors[0];
+        vectors[0] = vectors[1];
+        vectors[1] = swap;
+      }
+      return vectors[0];
+    } finally {
+      if (pool != null) pool.shutdown();
+    }
+  }
+
+  private static void runBlocks(ForkJoinPool pool, IntConsumer body, int blockCount) {
+    if (pool != null) {
+      pool.invoke(new BlockAction(body, 0, blockCount));
+    } else {
+      for (int block = 0; block < blockCount; block++) body.accept(block);
+    }
+  }
+
+  // Runs body for every block in [from, to), splitting the range in halves
+  private static class BlockAction extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final transient IntConsumer body;
+    private final int from;
+    private final int to;
+
+    BlockAction(IntConsumer body, int from, int to) {
+      this.body = body;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= 1) {
+        for (int block = from; block < to; block++) body.accept(block);
+        return;
+      }
+      int mid = (from + to) >>> 1;
+      invokeAll(new BlockAction(body, from, mid), new BlockAction(body, mid, to));
+    }
+  }
+
+  public int getIterations() {
+    return iterations;
+  }
+
+  public double getMaxDiff() {
+    return maxDiff;
+  }
+
+  public boolean isConverged() {
+    return converged;
+  }
+}
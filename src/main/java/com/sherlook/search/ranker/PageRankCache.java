@@ -0,0 +1,142 @@
+package com.sherlook.search.ranker;
+
+import com.sherlook.search.utils.ConsoleColors;
+import com.sherlook.search.utils.DatabaseHelper;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+// Serving-side copy of documents.page_rank as a dense float[] indexed by document ID, so
+// ranking never queries SQLite for it. Scores only change when the page-rank command runs,
+// which bumps page_rank_generation; a background thread polls the counter and swaps in a
+// fresh array when it moves.
+@Component
+public class PageRankCache {
+  private final DatabaseHelper databaseHelper;
+
+  @Value("${ranker.pagerank.cache.enabled:true}")
+  private boolean enabled = true;
+
+  // How often the generation counter is checked, 0 loads once and never reloads
+  @Value("${ranker.pagerank.cache.reload-interval-ms:30000}")
+  private long reloadIntervalMs = 30000;
+
+  private static final class Snapshot {
+    final float[] scores;
+    final double maxPageRank;
+    final long generation;
+
+    Snapshot(float[] scores, double maxPageRank, long generation) {
+      this.scores = scores;
+      this.maxPageRank = maxPageRank;
+      this.generation = generation;
+    }
+  }
+
+  private volatile Snapshot snapshot;
+  private ScheduledExecutorService reloader;
+
+  @Autowired
+  public PageRankCache(DatabaseHelper databaseHelper) {
+    this.databaseHelper = databaseHelper;
+  }
+
+  public boolean isLoaded() {
+    return snapshot != null;
+  }
+
+  public synchronized void load() {
+    if (!enabled) {
+      ConsoleColors.printInfo("PageRankCache");
+      System.out.println("PageRank cache disabled, scores will be read from the database");
+      return;
+    }
+
+    reload();
+    if (reloader == null && reloadIntervalMs > 0) {
+      reloader =
+          Executors.newSingleThreadScheduledExecutor(
+              r -> {
+                Thread thread = new Thread(r, "page-rank-cache");
+                thread.setDaemon(true);
+                return thread;
+              });
+      reloader.scheduleWithFixedDelay(
+          this::reloadIfChanged, reloadIntervalMs, reloadIntervalMs, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  public double getPageRank(int documentId) {
+    float[] scores = snapshot.scores;
+    return documentId >= 0 && documentId < scores.length ? scores[documentId] : 0.0;
+  }
+
+  // Same shape as DatabaseHelper.getPageRank, documents it doesn't know are left out
+  public Map<Integer, Double> getPageRank(List<Integer> docIds) {
+    float[] scores = snapshot.scores;
+    Map<Integer, Double> pageRank = new HashMap<>(docIds.size() * 2);
+    for (int docId : docIds) {
+      if (docId >= 0 && docId < scores.length) pageRank.put(docId, (double) scores[docId]);
+    }
+    return pageRank;
+  }
+
+  public double getMaxPageRank() {
+    return snapshot.maxPageRank;
+  }
+
+  public long getGeneration() {
+    return snapshot != null ? snapshot.generation : -1;
+  }
+
+  void reloadIfChanged() {
+    try {
+      Snapshot current = snapshot;
+      if (current == null || databaseHelper.getPageRankGeneration() != current.generation) {
+        reload();
+      }
+    } catch (Exception e) {
+      ConsoleColors.printError("PageRankCache");
+      System.err.println("Failed to check for new PageRank scores: " + e.getMessage());
+    }
+  }
+
+  private synchronized void reload() {
+    long start = System.currentTimeMillis();
+    try {
+      // Read first, so a run finishing mid-load is picked up on the next check
+      long generation = databaseHelper.getPageRankGeneration();
+      float[][] scores = {new float[(int) databaseHelper.getMaxDocumentId() + 1]};
+      double[] max = {0.0};
+      databaseHelper.forEachPageRank(
+          (documentId, pageRank) -> {
+            if (documentId >= scores[0].length) {
+              scores[0] = Arrays.copyOf(scores[0], Math.max(documentId + 1, scores[0].length * 2));
+            }
+            scores[0][documentId] = (float) pageRank;
+            max[0] = Math.max(max[0], (float) pageRank);
+          });
+      snapshot = new Snapshot(scores[0], max[0], generation);
+
+      ConsoleColors.printSuccess("PageRankCache");
+      System.out.println(
+          "Loaded PageRank generation "
+              + generation
+              + " for "
+              + scores[0].length
+              + " document IDs in "
+              + (System.currentTimeMillis() - start)
+              + " ms");
+    } catch (Exception e) {
+      ConsoleColors.printError("PageRankCache");
+      System.err.println("Failed to load PageRank scores: " + e.getMessage());
+    }
+  }
+}
@@ -2,10 +2,10 @@ package com.sherlook.search.ranker;
 
 public class RankedDocument {
   private final int documentId;
-  private final String url;
-  private final String title;
+  private String url;
+  private String title;
   private String snippet;
-  private final String description;
+  private String description;
   private final double tfIdf;
   private double finalScore = 0.0;
 
@@ -18,6 +18,17 @@ public class RankedDocument {
     this.description = description;
   }
 
+  // Ranked by ID only, setMetadata fills in the strings once the document makes a page
+  public RankedDocument(int documentId, double tfIdf) {
+    this(documentId, null, null, tfIdf, null);
+  }
+
+  public void setMetadata(String url, String title, String description) {
+    this.url = url;
+    this.title = title;
+    this.description = description;
+  }
+
   public int getDocId() {
     return documentId;
   }
@@ -1,5 +1,10 @@
 package com.sherlook.search.ranker;
 
+import com.sherlook.search.index.ForwardText;
+import com.sherlook.search.index.IndexedDocument;
+import com.sherlook.search.index.InvertedIndex;
+import com.sherlook.search.index.PostingList;
+import com.sherlook.search.indexer.Section;
 import com.sherlook.search.utils.ConsoleColors;
 import com.sherlook.search.utils.DatabaseHelper;
 import java.util.ArrayList;
@@ -7,37 +12,129 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.stream.Collectors;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 @Component
 public class Ranker {
 
   private final DatabaseHelper databaseHelper;
+  private final InvertedIndex invertedIndex;
+  private final PageRankCache pageRankCache;
+
+  // 1 runs PageRank on the calling thread, more splits each iteration across a ForkJoinPool
+  @Value("${ranker.pagerank.parallelism:1}")
+  private int pageRankParallelism = 1;
+
+  // Rank only as far as the requested page instead of fetching PageRank for every match
+  @Value("${ranker.top-k.enabled:true}")
+  private boolean topKEnabled = true;
+
+  // Extra documents scored with each PageRank fetch, so the next page is usually ready
+  @Value("${ranker.top-k.headroom:20}")
+  private int topKHeadroom = 20;
+
+  // Skip keyword matches that can't reach the top by TF-IDF, when the in-memory index is loaded
+  @Value("${ranker.max-score.enabled:true}")
+  private boolean maxScoreEnabled = true;
+
+  // Documents by TF-IDF that MaxScore keeps at first, doubled whenever paging needs more
+  @Value("${ranker.max-score.initial-k:100}")
+  private int maxScoreInitialK = 100;
 
   private static final Map<String, Double> SECTION_WEIGHTS =
-      Map.of("title", 2.0, "header", 1.5, "body", 1.0);
+      Map.of(
+          Section.TITLE.toString(), Section.TITLE.weight(),
+          Section.HEADER.toString(), Section.HEADER.weight(),
+          Section.BODY.toString(), Section.BODY.weight());
   private static final double DAMPING_FACTOR_PAGE_RANK = 0.85;
   private static final double CONVERGENCE_THRESHOLD = 0.00001;
-  private static final double MAX_ITERATIONS = 100;
+  private static final int MAX_ITERATIONS = 100;
   private static final double TF_IDF_CONTRIBUTION = 0.7;
   private static final double PAGE_RANK_CONTRIBUTION = 0.3;
+  // Positions either side of a query term shown in its snippet
+  private static final int SNIPPET_WINDOW = 15;
 
   // for optimization, helps me avoid two getDocumentTerms db calls, the most
   // expensive one
+  //
+  // In top-K mode only a prefix of the matches is in final order. The rest wait in two
+  // pools: documents whose PageRank was fetched, best final score first, and documents
+  // known only by TF-IDF. Ranker.ensureRanked moves documents into the ranked prefix as
+  // pages ask for them. After MaxScore, matches that were never scored wait as a third pool,
+  // known only to score at most prunedMaxTfIdf.
   public static class RankingResult {
     private final List<RankedDocument> rankedDocuments;
+    // Empty when ranked on the in-memory index, the page's positions are decoded from it
     private final List<DocumentTerm> documentTerms;
+    private final int totalDocuments;
+
+    private final PriorityQueue<RankedDocument> scored =
+        new PriorityQueue<>((a, b) -> Double.compare(b.getFinalScore(), a.getFinalScore()));
+    private List<RankedDocument> unscored = new ArrayList<>();
+    private double unscoredMaxTfIdf = 0.0;
+    private double maxPageRank = 0.0;
+
+    private List<String> queryTerms;
+    private Map<String, Double> idfMap;
+    private final Set<Integer> known = new HashSet<>();
+    private int evaluatedK = 0;
+    private boolean pruned = false;
+    private double prunedMaxTfIdf = 0.0;
 
     public RankingResult(List<RankedDocument> rankedDocuments, List<DocumentTerm> documentTerms) {
       this.rankedDocuments = rankedDocuments;
       this.documentTerms = documentTerms;
+      this.totalDocuments = rankedDocuments.size();
+    }
+
+    private RankingResult(
+        List<RankedDocument> matches, List<DocumentTerm> documentTerms, double maxPageRank) {
+      this.rankedDocuments = new ArrayList<>();
+      this.documentTerms = documentTerms;
+      this.totalDocuments = matches.size();
+      this.unscored = new ArrayList<>(matches);
+      this.maxPageRank = maxPageRank;
+      for (RankedDocument doc : matches) {
+        unscoredMaxTfIdf = Math.max(unscoredMaxTfIdf, doc.getTfIdf());
+      }
     }
 
+    private RankingResult(
+        MaxScore.Result evaluated,
+        List<String> queryTerms,
+        Map<String, Double> idfMap,
+        int k,
+        double maxPageRank) {
+      this.rankedDocuments = new ArrayList<>();
+      this.documentTerms = new ArrayList<>();
+      this.totalDocuments = evaluated.totalDocuments;
+      this.maxPageRank = maxPageRank;
+      this.queryTerms = queryTerms;
+      this.idfMap = idfMap;
+      addEvaluated(evaluated, k);
+    }
+
+    private void addEvaluated(MaxScore.Result evaluated, int k) {
+      for (RankedDocument doc : evaluated.documents) {
+        known.add(doc.getDocId());
+        unscored.add(doc);
+        unscoredMaxTfIdf = Math.max(unscoredMaxTfIdf, doc.getTfIdf());
+      }
+      evaluatedK = k;
+      pruned = evaluated.pruned;
+      prunedMaxTfIdf = evaluated.threshold;
+    }
+
+    // Documents in final order so far, every match once the result is fully ranked
     public List<RankedDocument> getRankedDocuments() {
       return rankedDocuments;
     }
@@ -47,13 +144,62 @@ public class Ranker {
     }
 
     public int getTotalDocuments() {
-      return rankedDocuments.size();
+      return totalDocuments;
     }
   }
 
   @Autowired
-  public Ranker(DatabaseHelper databaseHelper) {
+  public Ranker(
+      DatabaseHelper databaseHelper, InvertedIndex invertedIndex, PageRankCache pageRankCache) {
     this.databaseHelper = databaseHelper;
+    this.invertedIndex = invertedIndex;
+    this.pageRankCache = pageRankCache;
+  }
+
+  // Scores come from the in-memory copy when serving, otherwise from SQLite
+  private Map<Integer, Double> getPageRank(List<Integer> docIds) {
+    if (pageRankCache.isLoaded()) return pageRankCache.getPageRank(docIds);
+    return databaseHelper.getPageRank(docIds);
+  }
+
+  private double getMaxPageRank() {
+    if (pageRankCache.isLoaded()) return pageRankCache.getMaxPageRank();
+    return databaseHelper.getMaxPageRank();
+  }
+
+  // Serve from the in-memory index when it is loaded, otherwise fall back to SQLite. Only
+  // documents holding every term of the phrase have their positions decoded from the index.
+  private List<DocumentTerm> getPhraseTerms(List<String> queryTerms) {
+    if (invertedIndex.isLoaded()) {
+      return invertedIndex.getDocumentTerms(
+          queryTerms, invertedIndex.getDocumentsContainingAll(queryTerms));
+    }
+    return databaseHelper.getDocumentTerms(queryTerms);
+  }
+
+  // Same scores as getDocumentTfIdf, summed straight off the posting lists
+  private List<RankedDocument> getIndexTfIdf(List<String> queryTerms) {
+    Map<String, Double> idfMap = databaseHelper.getIDF(queryTerms);
+    Map<Integer, Double> scores = new LinkedHashMap<>();
+    for (String term : new LinkedHashSet<>(queryTerms)) {
+      PostingList list = invertedIndex.getPostings(term);
+      if (list == null) continue;
+
+      double idf = idfMap.getOrDefault(term, 0.0);
+      PostingList.Cursor cursor = list.cursor();
+      while (cursor.next()) {
+        int docId = cursor.docId();
+        if (!invertedIndex.hasDocument(docId)) continue;
+        double weightedTf = cursor.weightedTf(invertedIndex.getDocumentSize(docId));
+        scores.merge(docId, weightedTf * idf, Double::sum);
+      }
+    }
+
+    List<RankedDocument> rankedDocs = new ArrayList<>(scores.size());
+    for (Map.Entry<Integer, Double> entry : scores.entrySet()) {
+      rankedDocs.add(new RankedDocument(entry.getKey(), entry.getValue()));
+    }
+    return rankedDocs;
   }
 
   public List<RankedDocument> getDocumentTfIdf(
@@ -101,89 +247,36 @@ public class Ranker {
     return rankedDocs;
   }
 
-  private Graph buildGraph(List<Integer> docIds, List<Link> links) {
-    Map<Integer, List<Integer>> incomingLinks = new HashMap<>();
-    Map<Integer, Integer> outgoingLinkCount = new HashMap<>();
-    Set<Integer> danglingNodes = new HashSet<>();
-    for (int docId : docIds) {
-      incomingLinks.put(docId, new ArrayList<>());
-      outgoingLinkCount.put(docId, 0);
-    }
-    for (Link link : links) {
-      int source = link.getSourceId();
-      int target = link.getTargetId();
-      outgoingLinkCount.put(source, outgoingLinkCount.get(source) + 1);
-      incomingLinks.get(target).add(source);
-    }
-
-    for (int docId : docIds) {
-      if (outgoingLinkCount.get(docId) == 0) {
-        danglingNodes.add(docId);
-      }
-    }
-
-    return new Graph(outgoingLinkCount, incomingLinks, danglingNodes);
-  }
-
   public Map<Integer, Double> computePageRank(List<Integer> docIds, List<Link> links) {
-    Graph graph = buildGraph(docIds, links);
-    Map<Integer, Double> pageRankPrevious = new HashMap<>();
-    Map<Integer, Double> pageRankCurrent = new HashMap<>();
-    int numDocs = docIds.size();
-
-    for (int docId : docIds) {
-      pageRankPrevious.put(docId, 1.0 / docIds.size()); // assuming uniform distribution
-      pageRankCurrent.put(docId, 0.0);
-    }
-
-    boolean converged = false;
-    for (int i = 0; i < MAX_ITERATIONS; ++i) {
-      double sumDanglingNodeRanks = 0.0;
-      for (int danglingNode : graph.danglingNodes) {
-        sumDanglingNodeRanks += pageRankPrevious.getOrDefault(danglingNode, 0.0);
-      }
-      // uniform dangling contribution
-      double danglingContribution = sumDanglingNodeRanks / numDocs;
-
-      for (int docId : docIds) {
-        double incomingSum = 0.0;
-        for (int source : graph.incomingLinks.get(docId)) {
-          int outDegree = graph.outgoingLinkCount.get(source);
-          if (outDegree > 0) {
-            incomingSum += pageRankPrevious.get(source) / outDegree;
-          }
-        }
-        double newRank =
-            (1 - DAMPING_FACTOR_PAGE_RANK) / numDocs
-                + DAMPING_FACTOR_PAGE_RANK * (incomingSum + danglingContribution);
-        pageRankCurrent.put(docId, newRank);
-      }
+    Graph graph = Graph.build(docIds, links);
+    double[] scores = computePageRank(graph);
 
-      double maxDiff = 0.0;
-      for (int docId : docIds) {
-        double diff = Math.abs(pageRankCurrent.get(docId) - pageRankPrevious.get(docId));
-        maxDiff = Math.max(maxDiff, diff);
-      }
+    Map<Integer, Double> pageRank = new HashMap<>(graph.size() * 2);
+    for (int i = 0; i < graph.size(); i++) pageRank.put(graph.getDocId(i), scores[i]);
+    return pageRank;
+  }
 
-      // check convergence
-      if (maxDiff < CONVERGENCE_THRESHOLD) {
-        ConsoleColors.printSuccess("Ranker");
-        System.out.println("Converged after " + (i + 1) + " iterations with max diff: " + maxDiff);
+  private double[] computePageRank(Graph graph) {
+    PageRank pageRank =
+        new PageRank(
+            DAMPING_FACTOR_PAGE_RANK, CONVERGENCE_THRESHOLD, MAX_ITERATIONS, pageRankParallelism);
+    double[] scores = pageRank.compute(graph);
 
-        ConsoleColors.printSuccess("Ranker");
-        System.out.println("Convergence threshold: " + CONVERGENCE_THRESHOLD);
-        converged = true;
-        break;
-      }
-      pageRankPrevious = pageRankCurrent;
-      pageRankCurrent = new HashMap<>();
-    }
+    if (pageRank.isConverged()) {
+      ConsoleColors.printSuccess("Ranker");
+      System.out.println(
+          "Converged after "
+              + pageRank.getIterations()
+              + " iterations with max diff: "
+              + pageRank.getMaxDiff());
 
-    if (!converged) {
+      ConsoleColors.printSuccess("Ranker");
+      System.out.println("Convergence threshold: " + CONVERGENCE_THRESHOLD);
+    } else {
       ConsoleColors.printWarning("Ranker");
       System.out.println("PageRank did not converge after " + MAX_ITERATIONS + " iterations");
     }
-    return pageRankPrevious;
+    return scores;
   }
 
   public void rankPagesByPopularity() {
@@ -192,16 +285,31 @@ public class Ranker {
 
     long start = System.currentTimeMillis();
 
-    List<Integer> docIds = databaseHelper.getAllDocumentIds();
-    List<Link> links = databaseHelper.getLinks();
-    Map<Integer, Double> pageRankScores = computePageRank(docIds, links);
+    int[] docIds =
+        databaseHelper.getAllDocumentIds().stream().mapToInt(Integer::intValue).toArray();
+    EdgeBuffer edges = new EdgeBuffer();
+    databaseHelper.forEachLink(edges::add);
+    Graph graph = Graph.build(docIds, edges);
+
+    ConsoleColors.printInfo("Ranker");
+    System.out.println(
+        "Built link graph with "
+            + graph.size()
+            + " documents and "
+            + graph.getLinkCount()
+            + " links in "
+            + (System.currentTimeMillis() - start)
+            + " ms");
+
+    double[] pageRankScores = computePageRank(graph);
 
     ConsoleColors.printSuccess("Ranker");
     System.out.println("PageRank scores computed");
 
     ConsoleColors.printSuccess("Ranker");
     System.out.println("Updating PageRank scores in the database");
-    databaseHelper.batchUpdatePageRank(pageRankScores);
+    databaseHelper.batchUpdatePageRank(graph.docIds, pageRankScores);
+    databaseHelper.incrementPageRankGeneration();
     ConsoleColors.printSuccess("Ranker");
     System.out.println("PageRank scores updated in the database");
 
@@ -347,21 +455,32 @@ public class Ranker {
             + String.join(" ", queryTerms)
             + ConsoleColors.RESET);
 
-    List<DocumentTerm> documentTerms = databaseHelper.getDocumentTerms(queryTerms);
-
-    ConsoleColors.printInfo("Ranker");
-    System.out.println(
-        "Found "
-            + ConsoleColors.BOLD_CYAN
-            + documentTerms.size()
-            + ConsoleColors.RESET
-            + " document terms matching the query");
+    if (!isPhraseSearch && topKEnabled && maxScoreEnabled && invertedIndex.isLoaded()) {
+      return rankWithMaxScore(queryTerms, start);
+    }
 
+    List<DocumentTerm> documentTerms;
     List<RankedDocument> tfIdfDocs;
-    if (isPhraseSearch) {
-      tfIdfDocs = getDocumentTfIdfPhrases(queryTerms, documentTerms);
+    if (!isPhraseSearch && invertedIndex.isLoaded()) {
+      documentTerms = new ArrayList<>();
+      tfIdfDocs = getIndexTfIdf(queryTerms);
     } else {
-      tfIdfDocs = getDocumentTfIdf(queryTerms, documentTerms);
+      documentTerms = getPhraseTerms(queryTerms);
+
+      ConsoleColors.printInfo("Ranker");
+      System.out.println(
+          "Found "
+              + ConsoleColors.BOLD_CYAN
+              + documentTerms.size()
+              + ConsoleColors.RESET
+              + " document terms matching the query");
+
+      if (isPhraseSearch) {
+        tfIdfDocs = getDocumentTfIdfPhrases(queryTerms, documentTerms);
+      } else {
+        tfIdfDocs = getDocumentTfIdf(queryTerms, documentTerms);
+      }
+      if (invertedIndex.isLoaded()) documentTerms = new ArrayList<>();
     }
 
     ConsoleColors.printInfo("Ranker");
@@ -372,20 +491,10 @@ public class Ranker {
             + ConsoleColors.RESET
             + " documents");
 
-    // Apply PageRank
-    List<Integer> docIds =
-        tfIdfDocs.stream().map(RankedDocument::getDocId).collect(Collectors.toList());
-    Map<Integer, Double> pageRankScores = databaseHelper.getPageRank(docIds);
-
-    for (RankedDocument doc : tfIdfDocs) {
-      double tfIdfScore = doc.getTfIdf();
-      double pageRankScore = pageRankScores.getOrDefault(doc.getDocId(), 0.0);
-      double finalScore = TF_IDF_CONTRIBUTION * tfIdfScore + PAGE_RANK_CONTRIBUTION * pageRankScore;
-      doc.setFinalScore(finalScore);
+    if (topKEnabled) {
+      return new RankingResult(tfIdfDocs, documentTerms, getMaxPageRank());
     }
-
-    // Sort by final score
-    tfIdfDocs.sort((d1, d2) -> Double.compare(d2.getFinalScore(), d1.getFinalScore()));
+    applyPageRankAndSort(tfIdfDocs);
 
     long end = System.currentTimeMillis();
     ConsoleColors.printSuccess("Ranker");
@@ -404,6 +513,29 @@ public class Ranker {
     return new RankingResult(tfIdfDocs, documentTerms);
   }
 
+  private RankingResult rankWithMaxScore(List<String> queryTerms, long start) {
+    Map<String, Double> idfMap = databaseHelper.getIDF(queryTerms);
+    int k = Math.max(1, maxScoreInitialK);
+    MaxScore.Result evaluated =
+        MaxScore.evaluate(invertedIndex, queryTerms, idfMap, k, Collections.emptySet());
+
+    ConsoleColors.printInfo("Ranker");
+    System.out.println(
+        "MaxScore scored "
+            + ConsoleColors.BOLD_CYAN
+            + evaluated.documents.size()
+            + ConsoleColors.RESET
+            + " of "
+            + ConsoleColors.BOLD_CYAN
+            + evaluated.totalDocuments
+            + ConsoleColors.RESET
+            + " matching documents in "
+            + (System.currentTimeMillis() - start)
+            + " ms");
+
+    return new RankingResult(evaluated, queryTerms, idfMap, k, getMaxPageRank());
+  }
+
   public RankingResult rankAndStoreTotalDocumentsPhrases(String[] phrases, int[] operators) {
     long start = System.currentTimeMillis();
     ConsoleColors.printInfo("Ranker");
@@ -428,9 +560,9 @@ public class Ranker {
               + phrases[i]
               + ConsoleColors.RESET);
 
-      List<DocumentTerm> documentTerms = databaseHelper.getDocumentTerms(queryTerms);
+      List<DocumentTerm> documentTerms = getPhraseTerms(queryTerms);
       List<RankedDocument> phraseDocs = getDocumentTfIdfPhrases(queryTerms, documentTerms);
-      allDocumentTerms.addAll(documentTerms);
+      if (!invertedIndex.isLoaded()) allDocumentTerms.addAll(documentTerms);
       docIdSets.add(phraseDocs.stream().map(RankedDocument::getDocId).collect(Collectors.toSet()));
 
       ConsoleColors.printInfo("Ranker");
@@ -481,7 +613,7 @@ public class Ranker {
     Map<Integer, RankedDocument> docMap = new HashMap<>();
     for (int i = 0; i < phrases.length && phrases[i] != null; i++) {
       List<String> queryTerms = Arrays.asList(phrases[i].split("\\s+"));
-      List<DocumentTerm> documentTerms = databaseHelper.getDocumentTerms(queryTerms);
+      List<DocumentTerm> documentTerms = getPhraseTerms(queryTerms);
       List<RankedDocument> phraseDocs = getDocumentTfIdfPhrases(queryTerms, documentTerms);
       for (RankedDocument doc : phraseDocs) {
         if (resultDocIds.contains(doc.getDocId())) {
@@ -492,20 +624,10 @@ public class Ranker {
 
     finalDocs.addAll(docMap.values());
 
-    // Apply PageRank
-    List<Integer> docIds =
-        finalDocs.stream().map(RankedDocument::getDocId).collect(Collectors.toList());
-    Map<Integer, Double> pageRankScores = databaseHelper.getPageRank(docIds);
-
-    for (RankedDocument doc : finalDocs) {
-      double tfIdfScore = doc.getTfIdf();
-      double pageRankScore = pageRankScores.getOrDefault(doc.getDocId(), 0.0);
-      double finalScore = TF_IDF_CONTRIBUTION * tfIdfScore + PAGE_RANK_CONTRIBUTION * pageRankScore;
-      doc.setFinalScore(finalScore);
+    if (topKEnabled) {
+      return new RankingResult(finalDocs, allDocumentTerms, getMaxPageRank());
     }
-
-    // Sort by final score
-    finalDocs.sort((d1, d2) -> Double.compare(d2.getFinalScore(), d1.getFinalScore()));
+    applyPageRankAndSort(finalDocs);
 
     long end = System.currentTimeMillis();
     ConsoleColors.printSuccess("Ranker");
@@ -524,6 +646,115 @@ public class Ranker {
     return new RankingResult(finalDocs, allDocumentTerms);
   }
 
+  private void applyPageRankAndSort(List<RankedDocument> docs) {
+    List<Integer> docIds = docs.stream().map(RankedDocument::getDocId).collect(Collectors.toList());
+    Map<Integer, Double> pageRankScores = getPageRank(docIds);
+
+    for (RankedDocument doc : docs) {
+      double tfIdfScore = doc.getTfIdf();
+      double pageRankScore = pageRankScores.getOrDefault(doc.getDocId(), 0.0);
+      double finalScore = TF_IDF_CONTRIBUTION * tfIdfScore + PAGE_RANK_CONTRIBUTION * pageRankScore;
+      doc.setFinalScore(finalScore);
+    }
+
+    // Sort by final score
+    docs.sort((d1, d2) -> Double.compare(d2.getFinalScore(), d1.getFinalScore()));
+  }
+
+  // Extends the ranked prefix to at least count documents. The best fetched document is final
+  // once no unfetched one could beat it even with the highest PageRank there is; otherwise
+  // the next best documents by TF-IDF get their PageRank fetched, or MaxScore runs again for
+  // more documents when the ones it skipped are what could still come first.
+  private void ensureRanked(RankingResult result, int count) {
+    while (result.rankedDocuments.size() < count) {
+      RankedDocument best = result.scored.peek();
+      if (!result.unscored.isEmpty() || result.pruned) {
+        double maxTfIdf =
+            result.pruned
+                ? Math.max(result.unscoredMaxTfIdf, result.prunedMaxTfIdf)
+                : result.unscoredMaxTfIdf;
+        double bound = TF_IDF_CONTRIBUTION * maxTfIdf + PAGE_RANK_CONTRIBUTION * result.maxPageRank;
+        if (best == null || best.getFinalScore() < bound) {
+          if (result.pruned
+              && (result.unscored.isEmpty() || result.prunedMaxTfIdf >= result.unscoredMaxTfIdf)) {
+            evaluateMore(result, count);
+          } else {
+            scoreNextBatch(result, count - result.rankedDocuments.size() + topKHeadroom);
+          }
+          continue;
+        }
+      }
+      if (best == null) return;
+      result.rankedDocuments.add(result.scored.poll());
+    }
+  }
+
+  // Runs MaxScore again for at least twice as many documents, adding the ones it scores for
+  // the first time
+  private void evaluateMore(RankingResult result, int count) {
+    int k = Math.max(result.evaluatedK * 2, count + topKHeadroom);
+    MaxScore.Result evaluated =
+        MaxScore.evaluate(invertedIndex, result.queryTerms, result.idfMap, k, result.known);
+    result.addEvaluated(evaluated, k);
+  }
+
+  // Moves the batchSize best unscored documents by TF-IDF into the scored pool, found with a
+  // bounded min-heap in one pass
+  private void scoreNextBatch(RankingResult result, int batchSize) {
+    PriorityQueue<RankedDocument> batch =
+        new PriorityQueue<>((a, b) -> Double.compare(a.getTfIdf(), b.getTfIdf()));
+    List<RankedDocument> rest = new ArrayList<>(Math.max(0, result.unscored.size() - batchSize));
+    for (RankedDocument doc : result.unscored) {
+      if (batch.size() < batchSize) {
+        batch.add(doc);
+      } else if (doc.getTfIdf() > batch.peek().getTfIdf()) {
+        rest.add(batch.poll());
+        batch.add(doc);
+      } else {
+        rest.add(doc);
+      }
+    }
+
+    result.unscored = rest;
+    result.unscoredMaxTfIdf = 0.0;
+    for (RankedDocument doc : rest) {
+      result.unscoredMaxTfIdf = Math.max(result.unscoredMaxTfIdf, doc.getTfIdf());
+    }
+
+    List<RankedDocument> docs = new ArrayList<>(batch);
+    List<Integer> docIds = docs.stream().map(RankedDocument::getDocId).collect(Collectors.toList());
+    Map<Integer, Double> pageRankScores = getPageRank(docIds);
+    for (RankedDocument doc : docs) {
+      double pageRankScore = pageRankScores.getOrDefault(doc.getDocId(), 0.0);
+      doc.setFinalScore(
+          TF_IDF_CONTRIBUTION * doc.getTfIdf() + PAGE_RANK_CONTRIBUTION * pageRankScore);
+      result.scored.add(doc);
+    }
+  }
+
+  // Ranking runs on document IDs, the strings are only looked up for the page returned
+  private void hydrate(List<RankedDocument> documents) {
+    if (invertedIndex.isLoaded()) {
+      for (RankedDocument doc : documents) {
+        IndexedDocument metadata = invertedIndex.getDocument(doc.getDocId());
+        if (metadata != null) {
+          doc.setMetadata(metadata.getUrl(), metadata.getTitle(), metadata.getDescription());
+        }
+      }
+      return;
+    }
+
+    List<Integer> docIds =
+        documents.stream().map(RankedDocument::getDocId).collect(Collectors.toList());
+    Map<Integer, IndexedDocument> metadata = databaseHelper.getDocumentMetadata(docIds);
+    for (RankedDocument doc : documents) {
+      IndexedDocument document = metadata.get(doc.getDocId());
+      if (document != null) {
+        doc.setMetadata(document.getUrl(), document.getTitle(), document.getDescription());
+      }
+    }
+  }
+
   private void generateSnippets(
       List<RankedDocument> documents, List<DocumentTerm> allDocTerms, List<String> queryTerms) {
     long totalStart = System.currentTimeMillis();
@@ -570,8 +801,13 @@ public class Ranker {
 
     // Measure database call time
     long dbStart = System.currentTimeMillis();
+    // Cut from the stored forward index, documents indexed before it existed fall back to
+    // looking up the words around their positions
+    Map<Integer, ForwardText> texts = databaseHelper.getDocumentTexts(docPositions.keySet());
+    Map<Integer, List<Integer>> missingPositions = new HashMap<>(docPositions);
+    missingPositions.keySet().removeAll(texts.keySet());
     Map<Integer, Map<Integer, String>> surroundingWords =
-        databaseHelper.getWordsAroundPositions(docPositions, 15);
+        databaseHelper.getWordsAroundPositions(missingPositions, SNIPPET_WINDOW);
     long dbEnd = System.currentTimeMillis();
 
     ConsoleColors.printInfo("Ranker");
@@ -579,7 +815,20 @@ public class Ranker {
 
     // Measure snippet creation time
     long snippetStart = System.currentTimeMillis();
+    Set<String> queryLower =
+        queryTerms.stream().map(String::toLowerCase).collect(Collectors.toSet());
     for (RankedDocument doc : documents) {
+      ForwardText text = texts.get(doc.getDocId());
+      if (text != null) {
+        String snippet =
+            text.snippet(
+                docPositions.getOrDefault(doc.getDocId(), Collections.emptyList()),
+                SNIPPET_WINDOW,
+                queryLower);
+        doc.setSnippet(snippet != null ? snippet : doc.getDescription());
+        continue;
+      }
+
       Map<Integer, String> wordMap =
           surroundingWords.getOrDefault(doc.getDocId(), Collections.emptyMap());
 
@@ -594,8 +843,6 @@ public class Ranker {
 
       // Build snippet with highlighted terms
       StringBuilder snippet = new StringBuilder("");
-      Set<String> queryLower =
-          queryTerms.stream().map(String::toLowerCase).collect(Collectors.toSet());
 
       for (Integer pos : positions) {
         String word = wordMap.get(pos);
@@ -622,14 +869,27 @@ public class Ranker {
 
   public List<RankedDocument> getPageWithSnippets(
       RankingResult result, List<String> queryTerms, int offset, int limit) {
-    List<RankedDocument> allDocs = result.getRankedDocuments();
-    List<DocumentTerm> documentTerms = result.getDocumentTerms();
-
-    int endIndex = Math.min(offset + limit, allDocs.size());
-    List<RankedDocument> pagedResults =
-        offset < allDocs.size() ? allDocs.subList(offset, endIndex) : new ArrayList<>();
+    // Cached results are shared between requests, extend and copy the page under its lock
+    List<DocumentTerm> documentTerms;
+    List<RankedDocument> pagedResults;
+    synchronized (result) {
+      ensureRanked(result, offset + limit);
+      documentTerms = result.getDocumentTerms();
+      List<RankedDocument> allDocs = result.getRankedDocuments();
+      int endIndex = Math.min(offset + limit, allDocs.size());
+      pagedResults =
+          offset < allDocs.size()
+              ? new ArrayList<>(allDocs.subList(offset, endIndex))
+              : new ArrayList<>();
+    }
 
     if (!pagedResults.isEmpty()) {
+      if (invertedIndex.isLoaded()) {
+        Set<Integer> docIds =
+            pagedResults.stream().map(RankedDocument::getDocId).collect(Collectors.toSet());
+        documentTerms = invertedIndex.getDocumentTerms(queryTerms, docIds);
+      }
+      hydrate(pagedResults);
       generateSnippets(pagedResults, documentTerms, queryTerms);
     }
 
@@ -1,8 +1,12 @@
 package com.sherlook.search.utils;
 
+import com.sherlook.search.index.ForwardText;
+import com.sherlook.search.index.IndexedDocument;
+import com.sherlook.search.index.PositionBlob;
 import com.sherlook.search.indexer.Document;
 import com.sherlook.search.indexer.DocumentWord;
 import com.sherlook.search.indexer.Section;
+import com.sherlook.search.indexer.TokenBuffer;
 import com.sherlook.search.indexer.Word;
 import com.sherlook.search.ranker.DocumentTerm;
 import com.sherlook.search.ranker.DocumentTerm.DocumentTermBuilder;
@@ -11,24 +15,38 @@ import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 import java.util.stream.Collectors;
 import org.apache.commons.lang3.tuple.Pair;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
 @Component
 public class DatabaseHelper {
   private final JdbcTemplate jdbcTemplate;
+  private final Set<String> checkedColumns = ConcurrentHashMap.newKeySet();
+
+  // "rows" keeps one document_words row per position, "aggregated" one document_postings row
+  // per word and document holding all of its positions
+  @Value("${index.postings.layout:rows}")
+  private String postingsLayout = "rows";
+
+  private volatile boolean postingsLayoutChecked = false;
 
   @Autowired
   public DatabaseHelper(JdbcTemplate jdbcTemplate) {
@@ -39,6 +57,126 @@ public class DatabaseHelper {
     this.jdbcTemplate.setDataSource(jdbcTemplate.getDataSource());
   }
 
+  // Columns added after the first release are declared in schema.sql for new databases, and
+  // added here on first use for databases created before them. Returns true if the column
+  // was just added.
+  private boolean ensureColumn(String table, String column, String definition) {
+    String key = table + "." + column;
+    if (checkedColumns.contains(key)) return false;
+
+    synchronized (checkedColumns) {
+      if (checkedColumns.contains(key)) return false;
+      List<String> columns =
+          jdbcTemplate.query(
+              "PRAGMA table_info(" + table + ")", (rs, rowNum) -> rs.getString("name"));
+      boolean added = !columns.contains(column);
+      if (added) {
+        jdbcTemplate.execute("ALTER TABLE " + table + " ADD COLUMN " + column + " " + definition);
+      }
+      checkedColumns.add(key);
+      return added;
+    }
+  }
+
+  // Number of documents containing each word, kept up to date by the indexer. A database from
+  // before the column existed is counted once from the postings.
+  private void ensureDocFrequency() {
+    if (!ensureColumn("words", "doc_frequency", "INTEGER DEFAULT 0 NOT NULL")) return;
+    if (usesAggregatedPostings()) {
+      jdbcTemplate.update(
+          "UPDATE words SET doc_frequency ="
+              + " (SELECT COUNT(*) FROM document_postings WHERE word_id = words.id)");
+    } else {
+      jdbcTemplate.update(
+          "UPDATE words SET doc_frequency ="
+              + " (SELECT COUNT(DISTINCT document_id) FROM document_words WHERE word_id = words.id)");
+    }
+  }
+
+  public boolean usesAggregatedPostings() {
+    return "aggregated".equalsIgnoreCase(postingsLayout);
+  }
+
+  // Postings written in the aggregated layout only exist in document_postings, and migrating
+  // empties document_words, so going back to rows would serve an empty index. Refuses to.
+  private void checkPostingsLayout() {
+    if (postingsLayoutChecked) return;
+    if (!usesAggregatedPostings()) {
+      Integer aggregated =
+          jdbcTemplate.queryForObject(
+              "SELECT COUNT(*) FROM (SELECT 1 FROM document_postings LIMIT 1)", Integer.class);
+      if (aggregated != null && aggregated > 0) {
+        throw new IllegalStateException(
+            "Postings are stored in the aggregated layout, which can't be converted back to"
+                + " rows; set index.postings.layout=aggregated");
+      }
+    }
+    postingsLayoutChecked = true;
+  }
+
+  // Moves postings stored one row per position into document_postings the first time the
+  // aggregated layout is used on such a database, and empties document_words. This is one
+  // way, see checkPostingsLayout. Returns the number of rows written.
+  @Transactional
+  public int migrateToAggregatedPostings() {
+    checkPostingsLayout();
+    if (!usesAggregatedPostings()) return 0;
+    Integer existing =
+        jdbcTemplate.queryForObject("SELECT COUNT(*) FROM document_postings", Integer.class);
+    Integer legacy =
+        jdbcTemplate.queryForObject(
+            "SELECT COUNT(*) FROM (SELECT 1 FROM document_words LIMIT 1)", Integer.class);
+    if (existing == null || existing > 0 || legacy == null || legacy == 0) return 0;
+
+    List<Object[]> batch = new ArrayList<>();
+    int[] written = {0};
+    int[] current = {-1, -1};
+    PositionBlob.Builder builder = new PositionBlob.Builder();
+    Runnable finishRow =
+        () -> {
+          if (current[0] < 0) return;
+          byte[] blob = builder.build();
+          batch.add(
+              new Object[] {
+                current[0],
+                current[1],
+                PositionBlob.frequency(blob),
+                PositionBlob.sectionFlags(blob),
+                blob
+              });
+          if (batch.size() >= 10000) {
+            written[0] += insertPostingRows(batch);
+            batch.clear();
+          }
+        };
+    jdbcTemplate.query(
+        "SELECT word_id, document_id, position, section FROM document_words "
+            + "ORDER BY word_id, document_id",
+        rs -> {
+          int wordId = rs.getInt("word_id");
+          int documentId = rs.getInt("document_id");
+          if (wordId != current[0] || documentId != current[1]) {
+            finishRow.run();
+            current[0] = wordId;
+            current[1] = documentId;
+          }
+          builder.add(Section.fromString(rs.getString("section")), rs.getInt("position"));
+        });
+    finishRow.run();
+    written[0] += insertPostingRows(batch);
+    jdbcTemplate.update("DELETE FROM document_words");
+    return written[0];
+  }
+
+  private int insertPostingRows(List<Object[]> rows) {
+    if (rows.isEmpty()) return 0;
+    jdbcTemplate.batchUpdate(
+        "INSERT OR REPLACE INTO document_postings"
+            + " (word_id, document_id, frequency, sections, positions) VALUES (?, ?, ?, ?, ?)",
+        rows);
+    return rows.size();
+  }
+
   @Transactional
   public void insertDocument(
       String url, String title, String description, String filePath, String hash) {
@@ -50,9 +188,44 @@ public class DatabaseHelper {
     jdbcTemplate.update(sql, url, title, description, filePath, hash);
   }
 
+  // Title, description, stored copy and content hash of a page crawled again
+  public void updateCrawledDocument(
+      int documentId, String title, String description, String filePath, String hash) {
+    String sql =
+        """
+        UPDATE documents
+        SET title = ?, description = ?, file_path = ?, document_hash = ?,
+            crawl_time = CURRENT_TIMESTAMP
+        WHERE id = ?
+        """;
+    jdbcTemplate.update(sql, title, description, filePath, hash, documentId);
+  }
+
+  public void updateCrawlTime(String url) {
+    jdbcTemplate.update("UPDATE documents SET crawl_time = CURRENT_TIMESTAMP WHERE url = ?", url);
+  }
+
+  // Content hash of the stored copy of the page, null if it was never crawled
+  public String getDocumentHash(String url) {
+    List<String> hashes =
+        jdbcTemplate.queryForList(
+            "SELECT document_hash FROM documents WHERE url = ?", String.class, url);
+    return hashes.isEmpty() ? null : hashes.get(0);
+  }
+
+  @Transactional
+  public void replaceLinks(int documentId, List<String> links) {
+    jdbcTemplate.update("DELETE FROM links WHERE source_document_id = ?", documentId);
+    insertLinks(documentId, links);
+  }
+
   @Transactional
   public void insertLinks(int documentId, List<String> links) {
-    String sql = "INSERT INTO links (source_document_id, target_url) VALUES (?, ?)";
+    ensureColumn("links", "target_document_id", "INTEGER");
+    // Targets that are already crawled are resolved right away, the rest at index time
+    String sql =
+        "INSERT INTO links (source_document_id, target_url, target_document_id)"
+            + " VALUES (?, ?, (SELECT id FROM documents WHERE url = ?))";
     jdbcTemplate.batchUpdate(
         sql,
         links,
@@ -60,6 +233,7 @@ public class DatabaseHelper {
         (ps, link) -> {
           ps.setInt(1, documentId);
           ps.setString(2, link);
+          ps.setString(3, link);
         });
   }
 
@@ -75,6 +249,22 @@ public class DatabaseHelper {
     return documentId != null ? documentId : -1;
   }
 
+  // SimHash of the page text, for near-duplicate detection
+  public void updateDocumentSimHash(int documentId, long simHash) {
+    ensureColumn("documents", "document_simhash", "INTEGER DEFAULT NULL");
+    jdbcTemplate.update(
+        "UPDATE documents SET document_simhash = ? WHERE id = ?", simHash, documentId);
+  }
+
+  public void forEachDocumentSimHash(LongConsumer consumer) {
+    ensureColumn("documents", "document_simhash", "INTEGER DEFAULT NULL");
+    jdbcTemplate.query(
+        "SELECT document_simhash FROM documents WHERE document_simhash IS NOT NULL",
+        rs -> {
+          consumer.accept(rs.getLong(1));
+        });
+  }
+
   @Transactional
   public boolean isHashExsists(String hash) {
     String sql = "SELECT COUNT(*) FROM documents WHERE document_hash = ?";
@@ -131,7 +321,37 @@ public class DatabaseHelper {
                 rs.getString("title"),
                 rs.getString("description"),
                 rs.getString("file_path"),
-                rs.getTimestamp("crawl_time")));
+                rs.getTimestamp("crawl_time"),
+                rs.getString("document_hash"),
+                false));
+  }
+
+  // Indexed documents whose content hash no longer matches the one they were indexed with.
+  // Documents indexed before indexed_hash existed have none and are left alone.
+  public List<Document> getChangedDocuments() {
+    ensureColumn("documents", "indexed_hash", "TEXT DEFAULT NULL");
+    String sql =
+        "SELECT * FROM documents WHERE index_time IS NOT NULL"
+            + " AND indexed_hash IS NOT NULL AND indexed_hash <> document_hash";
+
+    return jdbcTemplate.query(
+        sql,
+        (rs, rowNum) ->
+            new Document(
+                rs.getInt("id"),
+                rs.getString("url"),
+                rs.getString("title"),
+                rs.getString("description"),
+                rs.getString("file_path"),
+                rs.getTimestamp("crawl_time"),
+                rs.getString("document_hash"),
+                true));
+  }
+
+  // Content hash the document's postings were built from
+  public void updateIndexedHash(int documentId, String hash) {
+    ensureColumn("documents", "indexed_hash", "TEXT DEFAULT NULL");
+    jdbcTemplate.update("UPDATE documents SET indexed_hash = ? WHERE id = ?", hash, documentId);
   }
 
   public void insertDocumentWord(int documentId, String word, int position, Section section) {
@@ -162,12 +382,34 @@ public class DatabaseHelper {
     return result != null ? result : 0;
   }
 
+  public long getMaxDocumentId() {
+    Long result = jdbcTemplate.queryForObject("SELECT MAX(id) FROM documents", Long.class);
+    return result != null ? result : 0;
+  }
+
+  // Streams the URLs of documents stored after the given document ID
+  public void forEachDocumentUrl(long afterId, Consumer<String> consumer) {
+    jdbcTemplate.query(
+        "SELECT url FROM documents WHERE id > ?",
+        rs -> {
+          consumer.accept(rs.getString(1));
+        },
+        afterId);
+  }
+
   public boolean isUrlCrawled(String url) {
     String sql = "SELECT COUNT(*) FROM documents WHERE url = ?";
     Integer count = jdbcTemplate.queryForObject(sql, Integer.class, url);
     return count != null && count > 0;
   }
 
+  // Crawled within the last hours, crawl_time is stored in UTC like datetime('now')
+  public boolean isUrlCrawledWithin(String url, long hours) {
+    String sql = "SELECT COUNT(*) FROM documents WHERE url = ? AND crawl_time > datetime('now', ?)";
+    Integer count = jdbcTemplate.queryForObject(sql, Integer.class, url, -hours + " hours");
+    return count != null && count > 0;
+  }
+
   public Map<String, Integer> getOrCreateWordIds(List<String> words, List<String> stems) {
     Map<String, Integer> wordIds = new HashMap<>();
     if (words.isEmpty() || words.size() != stems.size()) return wordIds;
@@ -235,6 +477,193 @@ public class DatabaseHelper {
     return getOrCreateWordIds(words, stems);
   }
 
+  public int getMaxWordId() {
+    Integer maxId = jdbcTemplate.queryForObject("SELECT MAX(id) FROM words", Integer.class);
+    return maxId != null ? maxId : 0;
+  }
+
+  public Map<String, Integer> getWordIds(Collection<String> words) {
+    Map<String, Integer> wordIds = new HashMap<>();
+    List<String> unique = new ArrayList<>(new HashSet<>(words));
+
+    // Chunked to stay under SQLite's bound-parameter limit
+    int chunkSize = 500;
+    for (int i = 0; i < unique.size(); i += chunkSize) {
+      List<String> chunk = unique.subList(i, Math.min(i + chunkSize, unique.size()));
+      String sql =
+          "SELECT id, word FROM words WHERE word IN ("
+              + String.join(",", Collections.nCopies(chunk.size(), "?"))
+              + ")";
+      jdbcTemplate.query(
+          sql,
+          (RowCallbackHandler) rs -> wordIds.put(rs.getString("word"), rs.getInt("id")),
+          chunk.toArray());
+    }
+    return wordIds;
+  }
+
+  public void insertWords(
+      List<Integer> ids,
+      List<String> words,
+      List<String> stems,
+      List<Integer> counts,
+      List<Integer> docFrequencies) {
+    if (ids.isEmpty()) return;
+    ensureDocFrequency();
+
+    jdbcTemplate.batchUpdate(
+        "INSERT INTO words (id, word, stem, count, doc_frequency) VALUES (?, ?, ?, ?, ?)",
+        new BatchPreparedStatementSetter() {
+          @Override
+          public void setValues(PreparedStatement ps, int i) throws SQLException {
+            ps.setInt(1, ids.get(i));
+            ps.setString(2, words.get(i));
+            ps.setString(3, stems.get(i));
+            ps.setInt(4, counts.get(i));
+            ps.setInt(5, docFrequencies.get(i));
+          }
+
+          @Override
+          public int getBatchSize() {
+            return ids.size();
+          }
+        });
+  }
+
+  // Applies count and document frequency deltas in one statement per word, skipping words
+  // whose deltas cancelled out
+  public void incrementWordCounts(
+      Map<Integer, Integer> countDeltas, Map<Integer, Integer> docFrequencyDeltas) {
+    Set<Integer> ids = new HashSet<>(countDeltas.keySet());
+    ids.addAll(docFrequencyDeltas.keySet());
+    ids.removeIf(
+        id -> countDeltas.getOrDefault(id, 0) == 0 && docFrequencyDeltas.getOrDefault(id, 0) == 0);
+    if (ids.isEmpty()) return;
+    ensureDocFrequency();
+
+    List<Integer> changed = new ArrayList<>(ids);
+    jdbcTemplate.batchUpdate(
+        "UPDATE words SET count = count + ?, doc_frequency = doc_frequency + ? WHERE id = ?",
+        changed,
+        changed.size(),
+        (ps, id) -> {
+          ps.setInt(1, countDeltas.getOrDefault(id, 0));
+          ps.setInt(2, docFrequencyDeltas.getOrDefault(id, 0));
+          ps.setInt(3, id);
+        });
+  }
+
+  // Inserts tokens [from, to) of the buffer; wordIds maps the buffer's term IDs to word IDs
+  // (see TermDictionary)
+  public void batchInsertDocumentWords(
+      int documentId, TokenBuffer tokens, int[] wordIds, int from, int to) {
+    if (from >= to || wordIds.length != tokens.termCount()) return;
+
+    jdbcTemplate.batchUpdate(
+        "INSERT INTO document_words (document_id, word_id, position, section) VALUES (?, ?, ?, ?)",
+        new BatchPreparedStatementSetter() {
+          @Override
+          public void setValues(PreparedStatement ps, int i) throws SQLException {
+            int token = from + i;
+            ps.setInt(1, documentId);
+            ps.setInt(2, wordIds[tokens.termId(token)]);
+            ps.setInt(3, tokens.position(token));
+            ps.setString(4, tokens.section(token).toString());
+          }
+
+          @Override
+          public int getBatchSize() {
+            return to - from;
+          }
+        });
+  }
+
+  // Inserts the first count tokens listed in tokenIndexes
+  public void batchInsertDocumentWords(
+      int documentId, TokenBuffer tokens, int[] wordIds, int[] tokenIndexes, int count) {
+    if (count == 0 || wordIds.length != tokens.termCount()) return;
+
+    jdbcTemplate.batchUpdate(
+        "INSERT INTO document_words (document_id, word_id, position, section) VALUES (?, ?, ?, ?)",
+        new BatchPreparedStatementSetter() {
+          @Override
+          public void setValues(PreparedStatement ps, int i) throws SQLException {
+            int token = tokenIndexes[i];
+            ps.setInt(1, documentId);
+            ps.setInt(2, wordIds[tokens.termId(token)]);
+            ps.setInt(3, tokens.position(token));
+            ps.setString(4, tokens.section(token).toString());
+          }
+
+          @Override
+          public int getBatchSize() {
+            return count;
+          }
+        });
+  }
+
+  // Deletes the first count postings of a document given by word ID and position
+  public void deleteDocumentWords(int documentId, int[] wordIds, int[] positions, int count) {
+    if (count == 0) return;
+
+    jdbcTemplate.batchUpdate(
+        "DELETE FROM document_words WHERE document_id = ? AND word_id = ? AND position = ?",
+        new BatchPreparedStatementSetter() {
+          @Override
+          public void setValues(PreparedStatement ps, int i) throws SQLException {
+            ps.setInt(1, documentId);
+            ps.setInt(2, wordIds[i]);
+            ps.setInt(3, positions[i]);
+          }
+
+          @Override
+          public int getBatchSize() {
+            return count;
+          }
+        });
+  }
+
+  // Writes (or replaces) one aggregated postings row per word; positions holds PositionBlob
+  // encoded positions, parallel to wordIds
+  public void insertDocumentPostings(int documentId, int[] wordIds, byte[][] positions) {
+    List<Object[]> rows = new ArrayList<>(wordIds.length);
+    for (int i = 0; i < wordIds.length; i++) {
+      rows.add(
+          new Object[] {
+            wordIds[i],
+            documentId,
+            PositionBlob.frequency(positions[i]),
+            PositionBlob.sectionFlags(positions[i]),
+            positions[i]
+          });
+    }
+    insertPostingRows(rows);
+  }
+
+  public void deleteDocumentPostings(int documentId, List<Integer> wordIds) {
+    if (wordIds.isEmpty()) return;
+    jdbcTemplate.batchUpdate(
+        "DELETE FROM document_postings WHERE word_id = ? AND document_id = ?",
+        wordIds,
+        wordIds.size(),
+        (ps, wordId) -> {
+          ps.setInt(1, wordId);
+          ps.setInt(2, documentId);
+        });
+  }
+
+  // Word ID -> encoded positions of one document's aggregated postings
+  public Map<Integer, byte[]> getDocumentPostings(int documentId) {
+    Map<Integer, byte[]> postings = new HashMap<>();
+    jdbcTemplate.query(
+        "SELECT word_id, positions FROM document_postings WHERE document_id = ?",
+        rs -> {
+          postings.put(rs.getInt("word_id"), rs.getBytes("positions"));
+        },
+        documentId);
+    return postings;
+  }
+
   public void batchInsertDocumentWords(
       int documentId,
       List<String> words,
@@ -247,6 +676,13 @@ public class DatabaseHelper {
         || words.size() != stems.size()) return;
 
     Map<String, Integer> wordIds = getOrCreateWordIds(words, stems);
+    ensureDocFrequency();
+    List<Integer> distinctIds = new ArrayList<>(new HashSet<>(wordIds.values()));
+    jdbcTemplate.batchUpdate(
+        "UPDATE words SET doc_frequency = doc_frequency + 1 WHERE id = ?",
+        distinctIds,
+        distinctIds.size(),
+        (ps, id) -> ps.setInt(1, id));
 
     List<Object[]> batch = new ArrayList<>(words.size());
     for (int i = 0; i < words.size(); i++) {
@@ -265,6 +701,8 @@ public class DatabaseHelper {
     if (queryTerms == null || queryTerms.isEmpty()) {
       return Collections.emptyList();
     }
+    checkPostingsLayout();
+    if (usesAggregatedPostings()) return getAggregatedDocumentTerms(queryTerms);
     long totalStartTime = System.currentTimeMillis();
     System.out.println("\n--- Starting getDocumentTerms (Final Optimized Plan) ---");
     System.out.println("Query Terms: " + queryTerms);
@@ -346,8 +784,8 @@ public class DatabaseHelper {
       String idPlaceholders =
           "(" + String.join(",", Collections.nCopies(wordIdToWord.size(), "?")) + ")";
       String sql =
-          "SELECT d.id AS document_id, d.url, d.title, dw.word_id, dw.section, "
-              + "d.document_size, d.description, GROUP_CONCAT(dw.position) AS positions "
+          "SELECT d.id AS document_id, dw.word_id, dw.section, "
+              + "d.document_size, GROUP_CONCAT(dw.position) AS positions "
               + "FROM document_words dw "
               + "JOIN documents d ON dw.document_id = d.id "
               + "JOIN temp_candidate_ids t ON dw.document_id = t.id "
@@ -388,12 +826,7 @@ public class DatabaseHelper {
                           k -> {
                             try {
                               return new DocumentTermBuilder(
-                                  word,
-                                  docId,
-                                  rs.getString("url"),
-                                  rs.getString("title"),
-                                  rs.getInt("document_size"),
-                                  rs.getString("description"));
+                                  word, docId, rs.getInt("document_size"));
                             } catch (SQLException e) {
                               throw new RuntimeException(e);
                             }
@@ -428,6 +861,152 @@ public class DatabaseHelper {
     return result;
   }
 
+  // One primary-key range read per query word; each row already holds the word's positions in
+  // the document, so there is no candidate table, grouping or string parsing
+  private List<DocumentTerm> getAggregatedDocumentTerms(List<String> queryTerms) {
+    long startTime = System.currentTimeMillis();
+    Map<Integer, String> wordIdToWord = new HashMap<>();
+    getWordIds(queryTerms).forEach((word, id) -> wordIdToWord.put(id, word));
+    if (wordIdToWord.isEmpty()) return Collections.emptyList();
+
+    String sql =
+        "SELECT p.word_id, p.positions, d.id, d.document_size "
+            + "FROM document_postings p JOIN documents d ON d.id = p.document_id "
+            + "WHERE p.word_id IN ("
+            + String.join(",", Collections.nCopies(wordIdToWord.size(), "?"))
+            + ")";
+    List<DocumentTerm> result = new ArrayList<>();
+    jdbcTemplate.query(
+        sql,
+        (RowCallbackHandler)
+            rs ->
+                result.add(
+                    new DocumentTerm(
+                        wordIdToWord.get(rs.getInt("word_id")),
+                        rs.getInt("id"),
+                        rs.getInt("document_size"),
+                        PositionBlob.bySection(rs.getBytes("positions")))),
+        wordIdToWord.keySet().toArray());
+
+    System.out.println(
+        String.format(
+            "Aggregated postings read: %d ms [%d document terms]",
+            System.currentTimeMillis() - startTime, result.size()));
+    return result;
+  }
+
+  @FunctionalInterface
+  public interface PostingConsumer {
+    void accept(int wordId, int documentId, int position, Section section);
+  }
+
+  public Map<String, Integer> getWordIds() {
+    Map<String, Integer> wordIds = new HashMap<>();
+    jdbcTemplate.query(
+        "SELECT id, word FROM words",
+        rs -> {
+          wordIds.put(rs.getString("word"), rs.getInt("id"));
+        });
+    return wordIds;
+  }
+
+  public List<IndexedDocument> getIndexedDocuments() {
+    String sql = "SELECT id, url, title, description, document_size FROM documents";
+    return jdbcTemplate.query(
+        sql,
+        (rs, rowNum) ->
+            new IndexedDocument(
+                rs.getInt("id"),
+                rs.getString("url"),
+                rs.getString("title"),
+                rs.getString("description"),
+                rs.getInt("document_size")));
+  }
+
+  // URL, title and description of the given documents, looked up once they make a page
+  public Map<Integer, IndexedDocument> getDocumentMetadata(List<Integer> docIds) {
+    if (docIds.isEmpty()) return Collections.emptyMap();
+
+    String sql =
+        "SELECT id, url, title, description, document_size FROM documents WHERE id IN ("
+            + String.join(",", Collections.nCopies(docIds.size(), "?"))
+            + ")";
+    Map<Integer, IndexedDocument> documents = new HashMap<>();
+    jdbcTemplate.query(
+        sql,
+        (RowCallbackHandler)
+            rs -> {
+              IndexedDocument document =
+                  new IndexedDocument(
+                      rs.getInt("id"),
+                      rs.getString("url"),
+                      rs.getString("title"),
+                      rs.getString("description"),
+                      rs.getInt("document_size"));
+              documents.put(document.getId(), document);
+            },
+        docIds.toArray());
+    return documents;
+  }
+
+  // Streams every row of document_words ordered by word, document and position without
+  // materializing the result set
+  public void forEachPosting(PostingConsumer consumer) {
+    checkPostingsLayout();
+    if (usesAggregatedPostings()) {
+      // Served from the primary key, without a sort
+      jdbcTemplate.query(
+          "SELECT word_id, document_id, positions FROM document_postings "
+              + "ORDER BY word_id, document_id",
+          rs -> {
+            int wordId = rs.getInt("word_id");
+            int documentId = rs.getInt("document_id");
+            PositionBlob.decode(
+                rs.getBytes("positions"),
+                (section, position) -> consumer.accept(wordId, documentId, position, section));
+          });
+      return;
+    }
+
+    String sql =
+        "SELECT word_id, document_id, position, section FROM document_words "
+            + "ORDER BY word_id, document_id, position";
+    jdbcTemplate.query(
+        sql,
+        rs -> {
+          consumer.accept(
+              rs.getInt("word_id"),
+              rs.getInt("document_id"),
+              rs.getInt("position"),
+              Section.fromString(rs.getString("section")));
+        });
+  }
+
+  // Streams one document's postings
+  public void forEachDocumentPosting(int documentId, PostingConsumer consumer) {
+    if (usesAggregatedPostings()) {
+      getDocumentPostings(documentId)
+          .forEach(
+              (wordId, blob) ->
+                  PositionBlob.decode(
+                      blob,
+                      (section, position) ->
+                          consumer.accept(wordId, documentId, position, section)));
+      return;
+    }
+
+    jdbcTemplate.query(
+        "SELECT word_id, position, section FROM document_words WHERE document_id = ?",
+        rs -> {
+          consumer.accept(
+              rs.getInt("word_id"),
+              documentId,
+              rs.getInt("position"),
+              Section.fromString(rs.getString("section")));
+        },
+        documentId);
+  }
+
   public Map<String, Integer> getTermFrequencyAcrossDocuments(List<String> queryTerms) {
     String sql =
         "SELECT w.word, w.count FROM words w WHERE w.word IN ("
@@ -448,21 +1027,43 @@ public class DatabaseHelper {
     return count != null ? count : 0;
   }
 
+  @FunctionalInterface
+  public interface LinkConsumer {
+    void accept(int sourceId, int targetId);
+  }
+
   public List<Link> getLinks() {
     List<Link> links = new ArrayList<>();
+    forEachLink((sourceId, targetId) -> links.add(new Link(sourceId, targetId)));
+    return links;
+  }
+
+  // Streams every link whose target is a crawled document. Links resolved ahead of time are
+  // read by ID, only the rest pay for the join on the target URL.
+  public void forEachLink(LinkConsumer consumer) {
+    ensureColumn("links", "target_document_id", "INTEGER");
     String sql =
-        "SELECT l.source_document_id, d.id as target_document_id"
-            + " FROM links l"
-            + " JOIN documents d ON l.target_url = d.url";
+        "SELECT source_document_id, target_document_id FROM links"
+            + " WHERE target_document_id IS NOT NULL"
+            + " UNION ALL"
+            + " SELECT l.source_document_id, d.id FROM links l"
+            + " JOIN documents d ON l.target_url = d.url"
+            + " WHERE l.target_document_id IS NULL";
     jdbcTemplate.query(
         sql,
-        (rs, rowNum) -> {
-          int sourceDocumentId = rs.getInt("source_document_id");
-          int targetDocumentId = rs.getInt("target_document_id");
-          links.add(new Link(sourceDocumentId, targetDocumentId));
-          return null;
+        rs -> {
+          consumer.accept(rs.getInt(1), rs.getInt(2));
         });
-    return links;
+  }
+
+  // Fills in target_document_id for links whose target has been crawled since they were stored
+  public int resolveLinkTargets() {
+    ensureColumn("links", "target_document_id", "INTEGER");
+    return jdbcTemplate.update(
+        "UPDATE links SET target_document_id ="
+            + " (SELECT id FROM documents WHERE url = links.target_url)"
+            + " WHERE target_document_id IS NULL"
+            + " AND target_url IN (SELECT url FROM documents)");
   }
 
   public List<Integer> getAllDocumentIds() {
@@ -505,6 +1106,73 @@ public class DatabaseHelper {
     }
   }
 
+  // Array form used by the ranker: scores[i] belongs to docIds[i]
+  public void batchUpdatePageRank(int[] docIds, double[] scores) {
+    String sql = "UPDATE documents SET page_rank = ? WHERE id = ?";
+    int batchSize = 500;
+
+    for (int i = 0; i < docIds.length; i += batchSize) {
+      int from = i;
+      int size = Math.min(batchSize, docIds.length - i);
+
+      jdbcTemplate.batchUpdate(
+          sql,
+          new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int j) throws SQLException {
+              ps.setDouble(1, scores[from + j]);
+              ps.setInt(2, docIds[from + j]);
+            }
+
+            @Override
+            public int getBatchSize() {
+              return size;
+            }
+          });
+
+      // Small delay between batches
+      try {
+        Thread.sleep(50);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  @FunctionalInterface
+  public interface PageRankConsumer {
+    void accept(int documentId, double pageRank);
+  }
+
+  public void forEachPageRank(PageRankConsumer consumer) {
+    jdbcTemplate.query(
+        "SELECT id, page_rank FROM documents",
+        rs -> {
+          consumer.accept(rs.getInt(1), rs.getDouble(2));
+        });
+  }
+
+  // Bumped after every PageRank run so serving processes know to reload their copy
+  public long getPageRankGeneration() {
+    List<Long> values =
+        jdbcTemplate.query(
+            "SELECT value FROM metadata WHERE name = 'page_rank_generation'",
+            (rs, rowNum) -> rs.getLong(1));
+    return values.isEmpty() ? 0 : values.get(0);
+  }
+
+  public void incrementPageRankGeneration() {
+    jdbcTemplate.update(
+        "INSERT INTO metadata (name, value) VALUES ('page_rank_generation', 1)"
+            + " ON CONFLICT(name) DO UPDATE SET value = value + 1");
+  }
+
+  // Upper bound on any document's PageRank, answered from idx_documents_page_rank
+  public double getMaxPageRank() {
+    Double max = jdbcTemplate.queryForObject("SELECT MAX(page_rank) FROM documents", Double.class);
+    return max != null ? max : 0.0;
+  }
+
   public Map<Integer, Double> getPageRank(List<Integer> docIds) {
     if (docIds.isEmpty()) {
       return Collections.emptyMap();
@@ -541,46 +1209,32 @@ public class DatabaseHelper {
     jdbcTemplate.update(sql, size, documentId);
   }
 
-  @Transactional
-  public void calculateIDF() {
-    int totalDocCount = getTotalDocumentCount();
-    if (totalDocCount == 0) return;
-
-    String sql =
-        "SELECT w.id, COUNT(DISTINCT dw.document_id) as doc_frequency "
-            + "FROM words w "
-            + "JOIN document_words dw ON w.id = dw.word_id "
-            + "GROUP BY w.id";
-
-    List<Map<String, Object>> rows = jdbcTemplate.queryForList(sql);
-
-    jdbcTemplate.batchUpdate(
-        "UPDATE words SET idf = ? WHERE id = ?",
-        rows,
-        rows.size(),
-        (ps, row) -> {
-          int docFrequency = ((Number) row.get("doc_frequency")).intValue();
-          double idf = Math.log((double) totalDocCount / docFrequency + 1);
-          ps.setDouble(1, idf);
-          ps.setInt(2, ((Number) row.get("id")).intValue());
-        });
-  }
-
+  // IDF is derived from the maintained document frequencies when a query asks for it, so
+  // indexing never has to rewrite the words table
   public Map<String, Double> getIDF(List<String> queryTerms) {
+    Map<String, Double> idfMap = new HashMap<>();
+    if (queryTerms.isEmpty()) return idfMap;
+    ensureDocFrequency();
+
+    int totalDocCount = getTotalDocumentCount();
     String sql =
-        "SELECT w.word, w.idf FROM words w WHERE w.word IN ("
+        "SELECT w.word, w.doc_frequency FROM words w WHERE w.word IN ("
             + String.join(",", Collections.nCopies(queryTerms.size(), "?"))
             + ")";
     List<Map<String, Object>> rows = jdbcTemplate.queryForList(sql, queryTerms.toArray());
-    Map<String, Double> idfMap = new HashMap<>();
     for (Map<String, Object> row : rows) {
       String word = (String) row.get("word");
-      Double idf = ((Number) row.get("idf")).doubleValue();
-      idfMap.put(word, idf);
+      int docFrequency = ((Number) row.get("doc_frequency")).intValue();
+      idfMap.put(word, idf(totalDocCount, docFrequency));
     }
     return idfMap;
   }
 
+  public static double idf(int totalDocCount, int docFrequency) {
+    if (docFrequency <= 0 || totalDocCount <= 0) return 0;
+    return Math.log((double) totalDocCount / docFrequency + 1);
+  }
+
   public void batchInsertDocumentWords(
       int documentId, List<String> words, List<Integer> positions, List<Section> sections) {
     List<String> stems = words.stream().map(String::toLowerCase).collect(Collectors.toList());
@@ -593,6 +1247,7 @@ public class DatabaseHelper {
     if (docPositions.isEmpty()) {
       return Collections.emptyMap();
     }
+    if (usesAggregatedPostings()) return getAggregatedWordsAround(docPositions, windowSize);
 
     // Build dynamic query with parameters
     StringBuilder sql =
@@ -642,8 +1297,71 @@ public class DatabaseHelper {
     return result;
   }
 
+  // Positions are not indexed by document in the aggregated layout, so every posting of the
+  // documents is decoded and only positions inside a window are kept
+  private Map<Integer, Map<Integer, String>> getAggregatedWordsAround(
+      Map<Integer, List<Integer>> docPositions, int windowSize) {
+    Map<Integer, Map<Integer, String>> result = new HashMap<>();
+    String sql =
+        "SELECT p.document_id, p.positions, w.word FROM document_postings p "
+            + "JOIN words w ON w.id = p.word_id WHERE p.document_id IN ("
+            + String.join(",", Collections.nCopies(docPositions.size(), "?"))
+            + ")";
+    jdbcTemplate.query(
+        sql,
+        (RowCallbackHandler)
+            rs -> {
+              int docId = rs.getInt("document_id");
+              String word = rs.getString("word");
+              List<Integer> centers = docPositions.get(docId);
+              PositionBlob.decode(
+                  rs.getBytes("positions"),
+                  (section, position) -> {
+                    for (int center : centers) {
+                      if (Math.abs(position - center) <= windowSize) {
+                        result.computeIfAbsent(docId, k -> new HashMap<>()).put(position, word);
+                        return;
+                      }
+                    }
+                  });
+            },
+        docPositions.keySet().toArray());
+    return result;
+  }
+
+  @Transactional
+  public void updateDocumentText(int documentId, ForwardText text) {
+    jdbcTemplate.update(
+        "INSERT OR REPLACE INTO document_text(document_id, content, offsets) VALUES(?, ?, ?)",
+        documentId,
+        text.encodeText(),
+        text.encodeOffsets());
+  }
+
+  // Forward index of the documents, those indexed before it existed are left out
+  public Map<Integer, ForwardText> getDocumentTexts(Collection<Integer> docIds) {
+    if (docIds.isEmpty()) return Collections.emptyMap();
+
+    String sql =
+        "SELECT document_id, content, offsets FROM document_text WHERE document_id IN ("
+            + String.join(",", Collections.nCopies(docIds.size(), "?"))
+            + ")";
+    Map<Integer, ForwardText> texts = new HashMap<>();
+    jdbcTemplate.query(
+        sql,
+        (RowCallbackHandler)
+            rs ->
+                texts.put(
+                    rs.getInt("document_id"),
+                    ForwardText.decode(rs.getBytes("content"), rs.getBytes("offsets"))),
+        docIds.toArray());
+    return texts;
+  }
+
   @Transactional
   public void updateFTSEntry(int documentId, String ftsContent) {
+    // Replaces the entry of a re-indexed document instead of adding a second one
+    jdbcTemplate.update("DELETE FROM documents_fts WHERE rowid = ?", documentId);
     String insertSql = "INSERT INTO documents_fts(rowid, content) VALUES(?, ?)";
     jdbcTemplate.update(insertSql, documentId, ftsContent);
   }
@@ -0,0 +1,70 @@
+package com.sherlook.search.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// 64-bit SimHash of a page's text: every pair of adjacent words votes on each bit with its
+// hash, so pages that share most of their text end up a few bits apart.
+public class SimHash {
+  private static final int BITS = 64;
+
+  // Returns 0 for text without words, which callers should treat as "no fingerprint"
+  public static long of(String text) {
+    if (text == null) return 0;
+    List<String> words = words(text);
+    if (words.isEmpty()) return 0;
+
+    int[] votes = new int[BITS];
+    if (words.size() == 1) vote(votes, hash(words.get(0)));
+    for (int i = 1; i < words.size(); i++) {
+      vote(votes, hash(words.get(i - 1) + ' ' + words.get(i)));
+    }
+
+    long fingerprint = 0;
+    for (int bit = 0; bit < BITS; bit++) {
+      if (votes[bit] > 0) fingerprint |= 1L << bit;
+    }
+    return fingerprint;
+  }
+
+  public static int distance(long a, long b) {
+    return Long.bitCount(a ^ b);
+  }
+
+  private static void vote(int[] votes, long hash) {
+    for (int bit = 0; bit < BITS; bit++) {
+      votes[bit] += ((hash >>> bit) & 1) != 0 ? 1 : -1;
+    }
+  }
+
+  // Lowercased runs of letters and digits
+  private static List<String> words(String text) {
+    List<String> words = new ArrayList<>();
+    int start = -1;
+    for (int i = 0; i <= text.length(); i++) {
+      boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+      if (wordChar && start < 0) {
+        start = i;
+      } else if (!wordChar && start >= 0) {
+        words.add(text.substring(start, i).toLowerCase());
+        start = -1;
+      }
+    }
+    return words;
+  }
+
+  private static long hash(String feature) {
+    // FNV-1a over the chars, then a murmur3 finalizer to spread the bits
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < feature.length(); i++) {
+      hash ^= feature.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+}
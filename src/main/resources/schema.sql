@@ -11,14 +11,17 @@ CREATE TABLE IF NOT EXISTS documents (
     crawl_time DATETIME DEFAULT CURRENT_TIMESTAMP NOT NULL,
     index_time DATETIME DEFAULT NULL,
     page_rank REAL DEFAULT 0.0 NOT NULL,
-    document_size INTEGER DEFAULT 0 NOT NULL
+    document_size INTEGER DEFAULT 0 NOT NULL,
+    document_simhash INTEGER DEFAULT NULL,
+    indexed_hash TEXT DEFAULT NULL
 );
 CREATE TABLE IF NOT EXISTS words (
     id INTEGER PRIMARY KEY AUTOINCREMENT,
     word TEXT NOT NULL UNIQUE,
     count INTEGER DEFAULT 0 NOT NULL,
     idf REAL DEFAULT 0.0 NOT NULL,
-    stem TEXT NOT NULL
+    stem TEXT NOT NULL,
+    doc_frequency INTEGER DEFAULT 0 NOT NULL
 );
 CREATE TABLE IF NOT EXISTS document_words (
     document_id INTEGER,
@@ -30,18 +33,45 @@ CREATE TABLE IF NOT EXISTS document_words (
     PRIMARY KEY(document_id, word_id, position)
 );
 
+CREATE TABLE IF NOT EXISTS document_postings (
+    word_id INTEGER NOT NULL,
+    document_id INTEGER NOT NULL,
+    frequency INTEGER NOT NULL,
+    sections INTEGER NOT NULL,
+    positions BLOB NOT NULL,
+    PRIMARY KEY(word_id, document_id)
+) WITHOUT ROWID;
+
+-- Forward index for snippets: the deflated text the tokenizer saw and the character offset
+-- of every token position in it, variable-byte delta coded
+CREATE TABLE IF NOT EXISTS document_text (
+    document_id INTEGER PRIMARY KEY,
+    content BLOB NOT NULL,
+    offsets BLOB NOT NULL
+);
+
 CREATE TABLE IF NOT EXISTS links (
     source_document_id INTEGER,
     target_url TEXT NOT NULL,
+    target_document_id INTEGER DEFAULT NULL,
     FOREIGN KEY(source_document_id) REFERENCES documents(id),
     PRIMARY KEY(source_document_id, target_url)
 );
 
+-- Counters other processes poll for changes, such as page_rank_generation
+CREATE TABLE IF NOT EXISTS metadata (
+    name TEXT PRIMARY KEY,
+    value INTEGER NOT NULL
+);
+
 CREATE VIRTUAL TABLE IF NOT EXISTS documents_fts USING fts5(
     content
 );
 
 
 CREATE INDEX IF NOT EXISTS idx_documents_wid_docid ON document_words(word_id, document_id);
-CREATE INDEX IF NOT EXISTS idx_document_words ON document_words(word_id);
-CREATE INDEX IF NOT EXISTS idx_documents_documents ON document_words(document_id);
+-- Covered by idx_documents_wid_docid and the primary key
+DROP INDEX IF EXISTS idx_document_words;
+DROP INDEX IF EXISTS idx_documents_documents;
+CREATE INDEX IF NOT EXISTS idx_document_postings_document ON document_postings(document_id);
+CREATE INDEX IF NOT EXISTS idx_documents_page_rank ON documents(page_rank);
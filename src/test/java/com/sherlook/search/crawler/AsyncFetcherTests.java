@@ -0,0 +1,90 @@
+package com.sherlook.search.crawler;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.sherlook.search.utils.DatabaseHelper;
+import com.sun.net.httpserver.HttpServer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class AsyncFetcherTests {
+
+  private HttpServer server;
+  private String baseUrl;
+  private PersistentQueue mockQueue;
+  private DatabaseHelper mockDatabase;
+  private HtmlSaver mockHtmlSaver;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext(
+        "/page",
+        exchange -> {
+          byte[] body =
+              "<html><head><title>Async Title</title></head><body>hi</body></html>"
+                  .getBytes(StandardCharsets.UTF_8);
+          exchange.getResponseHeaders().add("Content-Type", "text/html; charset=utf-8");
+          exchange.sendResponseHeaders(200, body.length);
+          exchange.getResponseBody().write(body);
+          exchange.close();
+        });
+    server.start();
+    baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+
+    mockQueue = mock(PersistentQueue.class);
+    mockDatabase = mock(DatabaseHelper.class);
+    mockHtmlSaver = mock(HtmlSaver.class);
+  }
+
+  @AfterEach
+  void tearDown() {
+    server.stop(0);
+  }
+
+  private AsyncFetcher fetcher() {
+    SeenUrlFilter visited = new SeenUrlFilter(1000, 0.001);
+    CrawlTask processor = new CrawlTask(mockQueue, visited, 5, mockDatabase, mockHtmlSaver, 5, 0);
+    return new AsyncFetcher(mockQueue, mockDatabase, processor, 5, 10, 2, 2);
+  }
+
+  @Test
+  void testFetchesParsesAndStoresPage() throws Exception {
+    String url = baseUrl + "/page";
+    when(mockQueue.poll(anyLong(), any(TimeUnit.class)))
+        .thenReturn(new UrlDepthPair(url, 0))
+        .thenReturn(null);
+    when(mockDatabase.getDocumentId(url)).thenReturn(1);
+    when(mockHtmlSaver.save(eq(url), any())).thenReturn("page.html");
+
+    fetcher().run();
+
+    verify(mockHtmlSaver).save(eq(url), any());
+    verify(mockDatabase).insertDocument(eq(url), eq("Async Title"), any(), eq("page.html"), any());
+    verify(mockDatabase).insertLinks(1, List.of());
+  }
+
+  @Test
+  void testSkipsPageOnErrorStatus() throws Exception {
+    String url = baseUrl + "/missing";
+    when(mockQueue.poll(anyLong(), any(TimeUnit.class)))
+        .thenReturn(new UrlDepthPair(url, 0))
+        .thenReturn(null);
+
+    fetcher().run();
+
+    verify(mockHtmlSaver, never()).save(any(), any());
+    verify(mockDatabase, never()).insertDocument(any(), any(), any(), any(), any());
+  }
+}
@@ -1,6 +1,9 @@
 package com.sherlook.search.crawler;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
@@ -9,8 +12,6 @@ import com.sherlook.search.utils.Hash;
 import java.net.SocketTimeoutException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import org.jsoup.Connection;
 import org.jsoup.Jsoup;
@@ -35,7 +36,7 @@ class CrawlTaskTests {
 
   @Test
   void testSkipsIfAlreadyVisitedOrInDb() throws Exception {
-    Set<String> visited = ConcurrentHashMap.newKeySet();
+    SeenUrlFilter visited = new SeenUrlFilter(1000, 0.001);
     visited.add("http://example.com");
 
     when(mockQueue.poll(10, TimeUnit.SECONDS))
@@ -50,9 +51,26 @@ class CrawlTaskTests {
     verify(mockHtmlSaver, never()).save(any(), any());
   }
 
+  @Test
+  void testUnseenUrlSkipsDatabaseLookup() throws Exception {
+    SeenUrlFilter visited = new SeenUrlFilter(1000, 0.001);
+
+    try (MockedStatic<Robots> robotsMock = mockStatic(Robots.class)) {
+      robotsMock.when(() -> Robots.isAllowed("http://example.com")).thenReturn(true);
+
+      CrawlTask task = new CrawlTask(mockQueue, visited, 5, mockDatabase, mockHtmlSaver, 5, 0);
+      assertEquals(
+          "http://example.com", task.admit(new UrlDepthPair("http://example.com", 0), "test"));
+    }
+
+    // Only a URL the filter may have seen is confirmed against the database
+    verify(mockDatabase, never()).isUrlCrawled(any());
+    assertTrue(visited.mightContain("http://example.com"));
+  }
+
   @Test
   void testSkipsIfDisallowedByRobots() throws Exception {
-    Set<String> visited = ConcurrentHashMap.newKeySet();
+    SeenUrlFilter visited = new SeenUrlFilter(1000, 0.001);
 
     when(mockQueue.poll(10, TimeUnit.SECONDS))
         .thenReturn(new UrlDepthPair("http://example.com", 0))
@@ -72,7 +90,7 @@ class CrawlTaskTests {
 
   @Test
   void testProcessesPageSuccessfully() throws Exception {
-    Set<String> visited = ConcurrentHashMap.newKeySet();
+    SeenUrlFilter visited = new SeenUrlFilter(1000, 0.001);
     Path examplePath = Paths.get("example.html");
 
     // Arrange document and mocks
@@ -86,7 +104,7 @@ class CrawlTaskTests {
         .thenReturn(new UrlDepthPair("http://example.com", 0))
         .thenReturn(null);
     when(mockDatabase.isUrlCrawled("http://example.com")).thenReturn(false);
-    when(mockHtmlSaver.getFilePath("http://example.com")).thenReturn(examplePath);
+    when(mockHtmlSaver.save(eq("http://example.com"), any())).thenReturn(examplePath.toString());
     when(mockDatabase.isHashExsists("http://example.com")).thenReturn(false);
 
     // Static mocks must be closed after use
@@ -119,10 +137,33 @@ class CrawlTaskTests {
             eq(Hash.sha256("<html>example</html>")));
   }
 
+  @Test
+  void testRecrawlOfUnchangedPageOnlyTouchesCrawlTime() throws Exception {
+    Document doc = Jsoup.parse("<html><body>same</body></html>", "http://example.com");
+    when(mockDatabase.getDocumentHash("http://example.com")).thenReturn(Hash.sha256(doc.html()));
+
+    CrawlTask task =
+        new CrawlTask(
+            mockQueue,
+            new SeenUrlFilter(1000, 0.001),
+            5,
+            mockDatabase,
+            mockHtmlSaver,
+            5,
+            0,
+            null,
+            24);
+    task.process(new UrlDepthPair("http://example.com", 0), "http://example.com", doc, "test");
+
+    verify(mockDatabase).updateCrawlTime("http://example.com");
+    verify(mockHtmlSaver, never()).save(any(), any());
+    verify(mockDatabase, never()).updateCrawledDocument(anyInt(), any(), any(), any(), any());
+  }
+
   @Test
   void testHandlesTimeoutGracefully() throws Exception {
 
-    Set<String> visited = ConcurrentHashMap.newKeySet();
+    SeenUrlFilter visited = new SeenUrlFilter(1000, 0.001);
 
     when(mockQueue.poll(10, TimeUnit.SECONDS))
         .thenReturn(new UrlDepthPair("http://example.com", 0))
@@ -0,0 +1,43 @@
+package com.sherlook.search.crawler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class FrontierTests {
+
+  @TempDir Path tempDir;
+
+  @Test
+  void testManySpillsAreMergedWithoutLosingUrls() throws Exception {
+    File spillDir = tempDir.resolve("spill").toFile();
+    // A run every 10 URLs past a window of 4, so 1000 URLs spill about a hundred times
+    Frontier frontier = new Frontier(new HostScheduler(0, url -> -1), spillDir, 4, 10);
+    int total = 1000;
+    for (int i = 0; i < total; i++) {
+      frontier.add(new UrlDepthPair("http://host" + (i % 7) + ".com/" + i, i % 3));
+      assertTrue(frontier.runCount() <= Frontier.MAX_OPEN_RUNS, "Too many open runs");
+    }
+    assertEquals(total, frontier.size());
+    assertTrue(spillDir.list().length <= Frontier.MAX_OPEN_RUNS, "Merged runs are deleted");
+
+    Set<String> seen = new HashSet<>();
+    for (int i = 0; i < total; i++) {
+      UrlDepthPair polled = frontier.poll(1, TimeUnit.SECONDS);
+      assertNotNull(polled, "Lost a URL after " + i + " polls");
+      assertTrue(seen.add(polled.getUrl()), "Handed out twice: " + polled.getUrl());
+    }
+    assertNull(frontier.poll(100, TimeUnit.MILLISECONDS));
+    assertEquals(0, frontier.size());
+    frontier.close();
+  }
+}
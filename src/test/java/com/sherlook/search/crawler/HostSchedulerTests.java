@@ -0,0 +1,53 @@
+package com.sherlook.search.crawler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class HostSchedulerTests {
+
+  @Test
+  void testPollServesReadyHostsBeforeWaitingOnABusyOne() throws Exception {
+    HostScheduler scheduler = new HostScheduler(1000, url -> -1);
+    scheduler.add(new UrlDepthPair("http://example.com/a", 0));
+    scheduler.add(new UrlDepthPair("http://example.com/b", 0));
+    scheduler.add(new UrlDepthPair("http://example.org/a", 0));
+
+    assertEquals("http://example.com/a", scheduler.poll(1, TimeUnit.SECONDS).getUrl());
+    // example.com has to wait, example.org is ready right away
+    assertEquals("http://example.org/a", scheduler.poll(1, TimeUnit.SECONDS).getUrl());
+    assertNull(scheduler.poll(100, TimeUnit.MILLISECONDS), "example.com is not ready yet");
+    assertEquals(1, scheduler.size());
+  }
+
+  @Test
+  void testPollWaitsForTheHostDelay() throws Exception {
+    HostScheduler scheduler = new HostScheduler(200, url -> -1);
+    scheduler.add(new UrlDepthPair("http://example.com/a", 0));
+    scheduler.add(new UrlDepthPair("http://example.com/b", 0));
+
+    scheduler.poll(1, TimeUnit.SECONDS);
+    long start = System.currentTimeMillis();
+    UrlDepthPair second = scheduler.poll(1, TimeUnit.SECONDS);
+
+    assertEquals("http://example.com/b", second.getUrl());
+    assertTrue(System.currentTimeMillis() - start >= 150, "Second fetch should be delayed");
+  }
+
+  @Test
+  void testCrawlDelayOverridesShorterDefault() throws Exception {
+    HostScheduler scheduler = new HostScheduler(0, url -> url.contains("slow.com") ? 60_000 : -1);
+    scheduler.add(new UrlDepthPair("http://slow.com/a", 0));
+    scheduler.add(new UrlDepthPair("http://slow.com/b", 0));
+    scheduler.add(new UrlDepthPair("http://fast.com/a", 0));
+    scheduler.add(new UrlDepthPair("http://fast.com/b", 0));
+
+    assertEquals("http://slow.com/a", scheduler.poll(1, TimeUnit.SECONDS).getUrl());
+    assertEquals("http://fast.com/a", scheduler.poll(1, TimeUnit.SECONDS).getUrl());
+    assertEquals("http://fast.com/b", scheduler.poll(1, TimeUnit.SECONDS).getUrl());
+    assertNull(scheduler.poll(100, TimeUnit.MILLISECONDS), "slow.com asked for 60s");
+  }
+}
@@ -7,6 +7,8 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
 import org.junit.jupiter.api.*;
 
 class HtmlSaverTests {
@@ -54,4 +56,40 @@ class HtmlSaverTests {
     assertTrue(path.getFileName().toString().endsWith(".html"), "Filename should end with .html");
     assertEquals(tempDir, path.getParent(), "File should be saved in the specified directory");
   }
+
+  @Test
+  void testPackedPagesReadBackFromTheirLocation() throws Exception {
+    Path packDir = tempDir.resolve("packs");
+    List<String> locations = new ArrayList<>();
+    // Packs of 256 bytes, so the pages below span several files per shard
+    try (HtmlSaver packed = new HtmlSaver(packDir.toString(), 4, 256)) {
+      for (int i = 0; i < 50; i++) {
+        locations.add(packed.save("http://example.com/" + i, page(i)));
+      }
+    }
+
+    for (int i = 0; i < 50; i++) {
+      assertTrue(locations.get(i).contains(".pack#"), "Location should point into a pack");
+      assertEquals(page(i), HtmlSaver.read(locations.get(i)));
+    }
+    try (var files = Files.list(packDir)) {
+      assertTrue(files.count() > 4, "Full packs should roll over");
+    }
+
+    // A new saver never appends to existing packs
+    try (HtmlSaver reopened = new HtmlSaver(packDir.toString(), 4, 256)) {
+      String location = reopened.save("http://example.com/new", page(99));
+      assertFalse(locations.stream().anyMatch(old -> old.startsWith(location.split("#")[0])));
+      assertEquals(page(99), HtmlSaver.read(location));
+    }
+
+    // Plain file paths still work
+    String url = "http://example.com/loose";
+    assertEquals(htmlSaver.getFilePath(url).toString(), htmlSaver.save(url, page(7)));
+    assertEquals(page(7), HtmlSaver.read(htmlSaver.getFilePath(url).toString()));
+  }
+
+  private static String page(int i) {
+    return "<html><body><p>Page " + i + " é</p>" + "<p>filler</p>".repeat(i * 5) + "</body></html>";
+  }
 }
@@ -0,0 +1,54 @@
+package com.sherlook.search.crawler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.sherlook.search.utils.SimHash;
+import org.junit.jupiter.api.Test;
+
+class NearDuplicateIndexTests {
+
+  private static final String ARTICLE =
+      "The city council met on Tuesday to discuss the new budget for public transport. Members"
+          + " debated funding for bus routes, cycling lanes and the planned tram extension to"
+          + " the northern suburbs, and agreed to publish a revised plan next month after a"
+          + " round of consultation with residents and local businesses. Several speakers"
+          + " warned that ticket prices had risen faster than wages over the past three years,"
+          + " while others argued that the network needed investment before fares could fall."
+          + " The mayor said the city would apply for a regional grant to cover part of the"
+          + " cost and promised that no existing routes would be cut during the works. A"
+          + " final vote on the budget is expected before the end of the quarter, once the"
+          + " finance committee has reviewed the figures and the transport authority has"
+          + " answered the questions raised during the meeting.";
+
+  @Test
+  void testPagesDifferingInATimestampAreNearDuplicates() {
+    long original = SimHash.of(ARTICLE + " Last updated 10:42 session a81f93");
+    long refreshed = SimHash.of(ARTICLE + " Last updated 11:07 session 77c2e0");
+    long unrelated =
+        SimHash.of(
+            "Recipe: whisk two eggs with flour and milk, rest the batter for an hour, then fry"
+                + " thin pancakes in butter and serve them with lemon and sugar.");
+
+    assertTrue(SimHash.distance(original, refreshed) <= 3);
+    assertTrue(SimHash.distance(original, unrelated) > 3);
+    assertEquals(0, SimHash.of("  ... "), "Text without words has no fingerprint");
+
+    NearDuplicateIndex index = new NearDuplicateIndex(3);
+    assertTrue(index.addIfUnique(original));
+    assertFalse(index.addIfUnique(refreshed));
+    assertTrue(index.addIfUnique(unrelated));
+    assertEquals(2, index.size());
+  }
+
+  @Test
+  void testFindsEveryFingerprintWithinDistance() {
+    NearDuplicateIndex index = new NearDuplicateIndex(3);
+    long fingerprint = 0x0123456789abcdefL;
+    index.add(fingerprint);
+
+    // Flipped bits spread over different bands must still be found
+    assertEquals(fingerprint, index.findNear(fingerprint ^ (1L | 1L << 20 | 1L << 40)));
+    assertEquals(fingerprint, index.findNear(fingerprint ^ (1L << 63 | 1L << 62)));
+    assertNull(index.findNear(fingerprint ^ (1L | 1L << 20 | 1L << 40 | 1L << 60)));
+  }
+}
@@ -4,8 +4,9 @@ import static org.junit.jupiter.api.Assertions.*;
 
 import java.io.*;
 import java.nio.file.*;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import org.junit.jupiter.api.*;
 
@@ -17,12 +18,25 @@ class PersistentQueueTests {
   @BeforeEach
   void setUp() throws IOException {
     tempFilePath = Files.createTempFile("queue", ".txt");
-    Set<String> visitedUrls = ConcurrentHashMap.newKeySet();
-    queue = new PersistentQueue(tempFilePath.toFile(), visitedUrls);
+    queue = new PersistentQueue(tempFilePath.toFile());
   }
 
   @AfterEach
   void tearDown() throws IOException {
+    queue.close();
+    // Sealed segments sit next to the queue file
+    try (var siblings = Files.list(tempFilePath.getParent())) {
+      for (Path path : siblings.toList()) {
+        if (path.getFileName().toString().startsWith(tempFilePath.getFileName() + ".")) {
+          if (Files.isDirectory(path)) {
+            try (var runs = Files.list(path)) {
+              for (Path run : runs.toList()) Files.deleteIfExists(run);
+            }
+          }
+          Files.deleteIfExists(path);
+        }
+      }
+    }
     Files.deleteIfExists(tempFilePath);
   }
 
@@ -67,8 +81,7 @@ class PersistentQueueTests {
   void testConstructorLoadsUncrawledUrls() throws Exception {
     Files.writeString(tempFilePath, "U_http://example.com 0\nU_http://second.com 1\n");
 
-    PersistentQueue reloaded =
-        new PersistentQueue(tempFilePath.toFile(), ConcurrentHashMap.newKeySet());
+    PersistentQueue reloaded = new PersistentQueue(tempFilePath.toFile());
     UrlDepthPair first = reloaded.poll(1, TimeUnit.SECONDS);
     UrlDepthPair second = reloaded.poll(1, TimeUnit.SECONDS);
 
@@ -81,4 +94,77 @@ class PersistentQueueTests {
     queue.offer(null);
     assertNull(queue.poll(1, TimeUnit.SECONDS));
   }
+
+  @Test
+  void testReloadResumesPendingUrls() throws Exception {
+    queue.offer(new UrlDepthPair("http://a.com", 0));
+    queue.offer(new UrlDepthPair("http://b.com", 1));
+    queue.offer(new UrlDepthPair("http://c.com", 2));
+    queue.poll(1, TimeUnit.SECONDS);
+    queue.close();
+
+    PersistentQueue reloaded = new PersistentQueue(tempFilePath.toFile());
+
+    assertEquals(2, reloaded.size());
+    assertEquals(new UrlDepthPair("http://b.com", 1), reloaded.poll(1, TimeUnit.SECONDS));
+    assertEquals(new UrlDepthPair("http://c.com", 2), reloaded.poll(1, TimeUnit.SECONDS));
+    reloaded.close();
+  }
+
+  @Test
+  void testReloadIgnoresTornLastRecord() throws Exception {
+    Files.writeString(tempFilePath, "U_http://example.com 0\nU_http://torn.c");
+
+    PersistentQueue reloaded = new PersistentQueue(tempFilePath.toFile());
+    reloaded.offer(new UrlDepthPair("http://after.com", 0));
+
+    assertEquals(2, reloaded.size());
+    assertEquals(
+        List.of("U_http://example.com 0", "U_http://after.com 0"),
+        Files.readAllLines(tempFilePath));
+    reloaded.close();
+  }
+
+  @Test
+  void testConsumedSegmentsAreCompacted() throws Exception {
+    // Tiny segments so every couple of records rolls over to a new one
+    PersistentQueue segmented = new PersistentQueue(tempFilePath.toFile(), 0, "never", 40, 100);
+    for (int i = 0; i < 6; i++) segmented.offer(new UrlDepthPair("http://host" + i + ".com", 0));
+    assertTrue(segmented.sealedSegmentCount() > 1);
+
+    // Nothing is consumed yet, so nothing can go
+    assertEquals(0, segmented.compactLog());
+
+    for (int i = 0; i < 6; i++) segmented.poll(1, TimeUnit.SECONDS);
+    segmented.compactLog();
+    assertEquals(0, segmented.sealedSegmentCount(), "Fully consumed segments should be deleted");
+    segmented.close();
+
+    PersistentQueue reloaded = new PersistentQueue(tempFilePath.toFile());
+    assertEquals(0, reloaded.size(), "Nothing should come back after compaction");
+    reloaded.close();
+  }
+
+  @Test
+  void testSpilledFrontierKeepsEveryUrl() throws Exception {
+    // A window of 4 URLs, runs are spilled every 10000 URLs past it
+    PersistentQueue spilling = new PersistentQueue(tempFilePath.toFile(), 0, "never", 1 << 20, 4);
+    int total = 25000;
+    for (int i = 0; i < total; i++) {
+      assertTrue(spilling.offer(new UrlDepthPair("http://host" + (i % 50) + ".com/" + i, i % 3)));
+    }
+    assertFalse(spilling.offer(new UrlDepthPair("http://host0.com/0", 0)), "Still pending");
+    assertTrue(spilling.spillRunCount() > 0, "URLs past the window should be spilled");
+    assertEquals(total, spilling.size());
+
+    Set<String> seen = new HashSet<>();
+    for (int i = 0; i < total; i++) {
+      UrlDepthPair polled = spilling.poll(1, TimeUnit.SECONDS);
+      assertNotNull(polled, "Lost a URL after " + i + " polls");
+      assertTrue(seen.add(polled.getUrl()), "Handed out twice: " + polled.getUrl());
+    }
+    assertNull(spilling.poll(100, TimeUnit.MILLISECONDS));
+    assertEquals(0, spilling.size());
+    spilling.close();
+  }
 }
@@ -0,0 +1,93 @@
+package com.sherlook.search.crawler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.sherlook.search.indexer.Indexer;
+import com.sherlook.search.ranker.DocumentTerm;
+import com.sherlook.search.utils.DatabaseHelper;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.jsoup.Jsoup;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.Rollback;
+import org.springframework.transaction.annotation.Transactional;
+
+@SpringBootTest
+@Transactional
+@Rollback
+class RecrawlTests {
+
+  private static final String URL = "https://test-recrawl.com/page";
+  private static final String PAGE =
+      "<html><head><title>Recrawl</title></head><body><p>%s</p></body></html>";
+
+  @Autowired private JdbcTemplate jdbcTemplate;
+  @Autowired private DatabaseHelper databaseHelper;
+  @Autowired private Indexer indexer;
+
+  @TempDir Path tempDir;
+
+  @Test
+  void testIndex_WithPageChangedOnRecrawl_ShouldReindexNewContent() throws Exception {
+    CrawlTask task =
+        new CrawlTask(
+            null,
+            new SeenUrlFilter(100, 0.001),
+            10,
+            databaseHelper,
+            new HtmlSaver(tempDir.toString()),
+            0,
+            0,
+            null,
+            24);
+
+    crawl(task, "zebra grazing");
+    indexer.index();
+    assertEquals(Map.of("zebra", 1), termsOfPage());
+
+    // A day and a half later the page is due again, and has changed
+    jdbcTemplate.update(
+        "UPDATE documents SET crawl_time = datetime('now', '-36 hours') WHERE url = ?", URL);
+    assertFalse(databaseHelper.isUrlCrawledWithin(URL, 24));
+    crawl(task, "quokka grazing");
+    assertTrue(databaseHelper.isUrlCrawledWithin(URL, 24));
+    assertEquals(1, changedPages());
+
+    indexer.index();
+
+    assertEquals(Map.of("quokka", 1), termsOfPage());
+    assertEquals(0, changedPages());
+    assertEquals(
+        1,
+        jdbcTemplate.queryForObject(
+            "SELECT COUNT(*) FROM documents WHERE url = ?", Integer.class, URL));
+  }
+
+  private void crawl(CrawlTask task, String text) throws Exception {
+    task.process(new UrlDepthPair(URL, 0), URL, Jsoup.parse(PAGE.formatted(text), URL), "Test");
+  }
+
+  // Query words found in the page, with how many sections they are in
+  private Map<String, Integer> termsOfPage() {
+    int documentId = databaseHelper.getDocumentId(URL);
+    List<DocumentTerm> terms = databaseHelper.getDocumentTerms(List.of("zebra", "quokka"));
+    return terms.stream()
+        .filter(term -> term.getDocumentId() == documentId)
+        .collect(
+            Collectors.toMap(DocumentTerm::getWord, term -> term.getPositionsBySection().size()));
+  }
+
+  private long changedPages() {
+    return databaseHelper.getChangedDocuments().stream()
+        .filter(document -> document.getUrl().equals(URL))
+        .count();
+  }
+}
@@ -106,4 +106,20 @@ class RobotsTests {
 
     assertTrue(Robots.isAllowed(fullUrl)); // Allow wins due to longer match
   }
+
+  @Test
+  void testCrawlDelayParsingAndLookup() throws Exception {
+    assertEquals(10000, Robots.parseCrawlDelay(" 10"));
+    assertEquals(500, Robots.parseCrawlDelay("0.5"));
+    assertEquals(-1, Robots.parseCrawlDelay("soon"));
+
+    Field delayField = Robots.class.getDeclaredField("robotsCrawlDelay");
+    delayField.setAccessible(true);
+    @SuppressWarnings("unchecked")
+    var delayMap = (Map<String, Long>) delayField.get(null);
+    delayMap.put("http://slow.com", 5000L);
+
+    assertEquals(5000, Robots.getCrawlDelayMs("http://slow.com/some/page"));
+    assertEquals(-1, Robots.getCrawlDelayMs("http://fast.com/page"));
+  }
 }
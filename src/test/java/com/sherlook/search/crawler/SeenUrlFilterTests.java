@@ -0,0 +1,54 @@
+package com.sherlook.search.crawler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SeenUrlFilterTests {
+
+  @TempDir Path tempDir;
+
+  @Test
+  void testGrowsPastExpectedSizeWithinFalsePositiveRate() {
+    SeenUrlFilter filter = new SeenUrlFilter(1000, 0.01);
+    int lookedSeen = 0;
+    for (int i = 0; i < 20000; i++) {
+      if (!filter.add("http://example.com/page" + i)) lookedSeen++;
+    }
+    assertTrue(lookedSeen < 200, "New URLs taken as seen: " + lookedSeen);
+    assertTrue(filter.sliceCount() > 1, "Filter should have grown");
+
+    // No false negatives
+    for (int i = 0; i < 20000; i++) {
+      assertTrue(filter.mightContain("http://example.com/page" + i));
+      assertFalse(filter.add("http://example.com/page" + i));
+    }
+
+    int falsePositives = 0;
+    for (int i = 0; i < 100000; i++) {
+      if (filter.mightContain("http://other.org/" + i)) falsePositives++;
+    }
+    assertTrue(falsePositives < 1000, "False positives: " + falsePositives);
+  }
+
+  @Test
+  void testSnapshotRoundTrip() throws Exception {
+    File file = tempDir.resolve("seen").toFile();
+    SeenUrlFilter filter = new SeenUrlFilter(10, 0.001);
+    for (int i = 0; i < 100; i++) filter.add("http://example.com/" + i);
+    filter.save(file, 42);
+
+    SeenUrlFilter loaded = SeenUrlFilter.load(file, 5, 0.5);
+    assertEquals(42, loaded.getLastDocumentId());
+    assertEquals(100, loaded.size());
+    assertEquals(filter.sliceCount(), loaded.sliceCount());
+    for (int i = 0; i < 100; i++) assertTrue(loaded.mightContain("http://example.com/" + i));
+
+    SeenUrlFilter missing = SeenUrlFilter.load(tempDir.resolve("none").toFile(), 10, 0.001);
+    assertEquals(0, missing.size());
+    assertEquals(0, missing.getLastDocumentId());
+  }
+}
@@ -0,0 +1,38 @@
+package com.sherlook.search.index;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class DocumentStoreTests {
+
+  @Test
+  void testGet_WithSparseIdsAndNullFields_ShouldDecodeOnlyStoredDocuments() {
+    DocumentStore store =
+        new DocumentStore.Builder()
+            .add(new IndexedDocument(7, "https://café.example", "Café", null, 120))
+            .add(new IndexedDocument(2, "https://b.example", null, "second page", 40))
+            .build();
+
+    assertEquals(2, store.count());
+    assertTrue(store.contains(7));
+    assertFalse(store.contains(3));
+    assertFalse(store.contains(1000));
+    assertEquals(120, store.getSize(7));
+    assertEquals(0, store.getSize(3));
+
+    IndexedDocument cafe = store.get(7);
+    assertEquals("https://café.example", cafe.getUrl());
+    assertEquals("Café", cafe.getTitle());
+    assertNull(cafe.getDescription());
+
+    IndexedDocument second = store.get(2);
+    assertNull(second.getTitle());
+    assertEquals("second page", second.getDescription());
+    assertEquals(40, second.getSize());
+    assertNull(store.get(3));
+  }
+}
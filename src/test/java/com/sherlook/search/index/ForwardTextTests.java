@@ -0,0 +1,40 @@
+package com.sherlook.search.index;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import com.sherlook.search.indexer.Section;
+import com.sherlook.search.indexer.TokenBuffer;
+import com.sherlook.search.indexer.Tokenizer;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class ForwardTextTests {
+
+  private final Tokenizer tokenizer = new Tokenizer();
+
+  @Test
+  void testSnippet_WithEncodedText_ShouldKeepCasingPunctuationAndMergeWindows() {
+    TokenBuffer tokens = new TokenBuffer();
+    int next = tokenizer.tokenize("Sherlock Holmes", 0, Section.TITLE, tokens);
+    tokenizer.tokenize(
+        "Dr. Watson met Holmes at 221B Baker Street. The game is <afoot>, said Holmes & co.",
+        next,
+        Section.BODY,
+        tokens);
+
+    ForwardText text = ForwardText.of(tokens);
+    ForwardText decoded = ForwardText.decode(text.encodeText(), text.encodeOffsets());
+
+    assertEquals(tokens.size(), decoded.size());
+    assertEquals(text.getText(), decoded.getText());
+    // Position 3 is "Watson" and 11 the last "Holmes", stop words take no position
+    assertEquals(
+        "... Dr. <b>Watson</b> met ... afoot&gt;, said <b>Holmes</b> ...",
+        decoded.snippet(List.of(11, 3), 1, Set.of("watson", "holmes")));
+    assertEquals(
+        "Sherlock <b>Holmes</b> Dr. Watson ...", decoded.snippet(List.of(0), 3, Set.of("holmes")));
+    assertNull(decoded.snippet(List.of(50), 3, Set.of("holmes")));
+  }
+}
@@ -0,0 +1,129 @@
+package com.sherlook.search.index;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+import com.sherlook.search.indexer.Section;
+import com.sherlook.search.ranker.DocumentTerm;
+import com.sherlook.search.utils.DatabaseHelper;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class InvertedIndexTests {
+
+  @Mock private DatabaseHelper databaseHelper;
+
+  private InvertedIndex loadIndex() {
+    when(databaseHelper.getWordIds()).thenReturn(Map.of("machine", 1, "learning", 2));
+    when(databaseHelper.getIndexedDocuments())
+        .thenReturn(
+            Arrays.asList(
+                new IndexedDocument(10, "https://a.com", "A", "first", 100),
+                new IndexedDocument(20, "https://b.com", "B", "second", 50)));
+    doAnswer(
+            invocation -> {
+              DatabaseHelper.PostingConsumer consumer = invocation.getArgument(0);
+              consumer.accept(1, 10, 0, Section.TITLE);
+              consumer.accept(1, 10, 7, Section.BODY);
+              consumer.accept(1, 10, 300, Section.BODY);
+              consumer.accept(1, 20, 4, Section.HEADER);
+              consumer.accept(2, 20, 5, Section.BODY);
+              return null;
+            })
+        .when(databaseHelper)
+        .forEachPosting(any());
+
+    InvertedIndex index = new InvertedIndex(databaseHelper);
+    index.load();
+    return index;
+  }
+
+  @Test
+  void testLoad_WithPostings_ShouldBuildCompressedLists() {
+    InvertedIndex index = loadIndex();
+
+    assertTrue(index.isLoaded());
+    assertEquals(2, index.getPostings("machine").getDocumentFrequency());
+    assertEquals(1, index.getPostings("learning").getDocumentFrequency());
+    assertNull(index.getPostings("missing"));
+
+    PostingList.Cursor cursor = index.getPostings("machine").cursor();
+    assertTrue(cursor.next());
+    assertEquals(10, cursor.docId());
+    assertEquals(1, cursor.frequency(Section.TITLE));
+    assertEquals(2, cursor.frequency(Section.BODY));
+    assertEquals(300, cursor.positions(Section.BODY)[1]);
+    assertEquals(3, cursor.totalFrequency());
+    assertTrue(cursor.next());
+    assertEquals(20, cursor.docId());
+    assertEquals(4, cursor.positions(Section.HEADER)[0]);
+    assertFalse(cursor.next());
+  }
+
+  @Test
+  void testGetDocumentTerms_WithLoadedIndex_ShouldMatchDatabaseShape() {
+    InvertedIndex index = loadIndex();
+
+    List<DocumentTerm> terms =
+        index.getDocumentTerms(Arrays.asList("machine", "learning"), Set.of(10, 20));
+
+    assertEquals(3, terms.size());
+    Map<String, DocumentTerm> byKey =
+        terms.stream()
+            .collect(Collectors.toMap(t -> t.getWord() + "@" + t.getDocumentId(), t -> t));
+
+    DocumentTerm first = byKey.get("machine@10");
+    assertNull(first.getUrl());
+    assertEquals(100, first.getDocumentSize());
+    assertEquals(Arrays.asList(0), first.getPositionsBySection().get("title"));
+    assertEquals(Arrays.asList(7, 300), first.getPositionsBySection().get("body"));
+
+    DocumentTerm learning = byKey.get("learning@20");
+    assertEquals(Arrays.asList(5), learning.getPositionsBySection().get("body"));
+
+    // Strings are only decoded from the document store on request
+    IndexedDocument second = index.getDocument(20);
+    assertEquals("https://b.com", second.getUrl());
+    assertEquals("second", second.getDescription());
+    assertEquals(50, index.getDocumentSize(20));
+    assertFalse(index.hasDocument(30));
+    assertNull(index.getDocument(30));
+  }
+
+  @Test
+  void testGetDocumentTerms_WithSomeDocuments_ShouldDecodeOnlyThose() {
+    InvertedIndex index = loadIndex();
+
+    List<DocumentTerm> terms =
+        index.getDocumentTerms(Arrays.asList("machine", "learning"), Set.of(20));
+
+    assertEquals(2, terms.size());
+    assertTrue(terms.stream().allMatch(t -> t.getDocumentId() == 20));
+    assertEquals(Set.of(20), index.getDocumentsContainingAll(Arrays.asList("machine", "learning")));
+    assertEquals(Set.of(10, 20), index.getDocumentsContainingAll(Arrays.asList("machine")));
+    assertTrue(index.getDocumentsContainingAll(Arrays.asList("machine", "missing")).isEmpty());
+  }
+
+  @Test
+  void testLoad_WithDatabaseFailure_ShouldStayUnloaded() {
+    when(databaseHelper.getWordIds()).thenThrow(new RuntimeException("db down"));
+
+    InvertedIndex index = new InvertedIndex(databaseHelper);
+    index.load();
+
+    assertFalse(index.isLoaded());
+  }
+}
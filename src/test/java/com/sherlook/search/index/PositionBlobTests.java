@@ -0,0 +1,56 @@
+package com.sherlook.search.index;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.sherlook.search.indexer.Section;
+import com.sherlook.search.indexer.TokenBuffer;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class PositionBlobTests {
+
+  @Test
+  void testEncodeTerms_WithRepeatedTerms_ShouldRoundTripPositionsBySection() {
+    TokenBuffer tokens = new TokenBuffer();
+    tokens.add("search", 0, Section.TITLE);
+    tokens.add("engine", 1, Section.TITLE);
+    tokens.add("search", 300, Section.BODY);
+    tokens.add("search", 2, Section.HEADER);
+    tokens.add("search", 301, Section.BODY);
+
+    byte[][] blobs = PositionBlob.encodeTerms(tokens);
+
+    assertEquals(2, blobs.length);
+    assertEquals(
+        Map.of("title", List.of(0), "header", List.of(2), "body", List.of(300, 301)),
+        PositionBlob.bySection(blobs[0]));
+    assertEquals(Map.of("title", List.of(1)), PositionBlob.bySection(blobs[1]));
+    assertEquals(4, PositionBlob.frequency(blobs[0]));
+    assertEquals(
+        1 << Section.TITLE.ordinal() | 1 << Section.HEADER.ordinal() | 1 << Section.BODY.ordinal(),
+        PositionBlob.sectionFlags(blobs[0]));
+    assertEquals(1 << Section.TITLE.ordinal(), PositionBlob.sectionFlags(blobs[1]));
+  }
+
+  @Test
+  void testBuild_WithSamePositions_ShouldMatchPostingListEntry() {
+    PositionBlob.Builder blob = new PositionBlob.Builder();
+    PostingList.Builder postings = new PostingList.Builder();
+    int[][] entries = {{Section.BODY.ordinal(), 40}, {Section.TITLE.ordinal(), 3}, {0, 1}};
+    for (int[] entry : entries) {
+      Section section = Section.values()[entry[0]];
+      blob.add(section, entry[1]);
+      postings.add(5, section, entry[1]);
+    }
+
+    // A single entry is the document ID delta, then the positions in the blob layout
+    ByteBuffer data = postings.build().getData();
+    assertEquals(5, VarByte.read(data));
+    byte[] entry = new byte[data.remaining()];
+    data.get(entry);
+    assertArrayEquals(blob.build(), entry);
+  }
+}
@@ -0,0 +1,109 @@
+package com.sherlook.search.index;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+import com.sherlook.search.indexer.Section;
+import com.sherlook.search.utils.DatabaseHelper;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class SegmentTests {
+
+  @Mock private DatabaseHelper databaseHelper;
+
+  @TempDir Path tempDir;
+
+  private Path segmentPath;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    when(databaseHelper.getWordIds())
+        .thenReturn(Map.of("zebra", 1, "apple", 2, "café", 3, "unused", 4));
+    doAnswer(
+            invocation -> {
+              DatabaseHelper.PostingConsumer consumer = invocation.getArgument(0);
+              consumer.accept(1, 5, 2, Section.BODY);
+              consumer.accept(2, 3, 0, Section.TITLE);
+              consumer.accept(2, 9, 12, Section.HEADER);
+              consumer.accept(2, 9, 40, Section.BODY);
+              consumer.accept(3, 7, 1, Section.BODY);
+              return null;
+            })
+        .when(databaseHelper)
+        .forEachPosting(any());
+
+    segmentPath = tempDir.resolve("index.seg");
+    int terms = new SegmentWriter(segmentPath).write(databaseHelper);
+    assertEquals(3, terms);
+  }
+
+  @Test
+  void testOpen_WithWrittenSegment_ShouldLookUpPostings() throws IOException {
+    Segment segment = Segment.open(segmentPath, true);
+
+    assertEquals(3, segment.getTermCount());
+    assertNull(segment.getPostings("unused"));
+    assertNull(segment.getPostings("missing"));
+
+    PostingList apple = segment.getPostings("apple");
+    assertEquals(2, apple.getDocumentFrequency());
+    // No document sizes known, so each counts as 1: header 1.5 + body 1.0 in document 9
+    assertEquals(2.5, apple.getMaxWeightedTf());
+    PostingList.Cursor cursor = apple.cursor();
+    assertTrue(cursor.next());
+    assertEquals(3, cursor.docId());
+    assertEquals(1, cursor.frequency(Section.TITLE));
+    assertTrue(cursor.next());
+    assertEquals(9, cursor.docId());
+    assertEquals(12, cursor.positions(Section.HEADER)[0]);
+    assertEquals(40, cursor.positions(Section.BODY)[0]);
+    assertFalse(cursor.next());
+
+    PostingList cafe = segment.getPostings("café");
+    cursor = cafe.cursor();
+    assertTrue(cursor.next());
+    assertEquals(7, cursor.docId());
+
+    assertEquals(1, segment.getPostings("zebra").getDocumentFrequency());
+    assertFalse(Files.exists(tempDir.resolve("index.seg.tmp")));
+  }
+
+  @Test
+  void testOpen_WithCorruptedPostings_ShouldFailChecksum() throws IOException {
+    try (RandomAccessFile file = new RandomAccessFile(segmentPath.toFile(), "rw")) {
+      file.seek(Segment.HEADER_SIZE);
+      int b = file.read();
+      file.seek(Segment.HEADER_SIZE);
+      file.write(b ^ 0xFF);
+    }
+
+    assertThrows(IOException.class, () -> Segment.open(segmentPath, true));
+  }
+
+  @Test
+  void testOpen_WithUnknownVersion_ShouldBeRejected() throws IOException {
+    try (RandomAccessFile file = new RandomAccessFile(segmentPath.toFile(), "rw")) {
+      file.seek(4);
+      file.writeInt(Segment.VERSION + 1);
+    }
+
+    assertThrows(IOException.class, () -> Segment.open(segmentPath, false));
+  }
+}
@@ -1,12 +1,18 @@
 package com.sherlook.search.indexer;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -16,10 +22,13 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.api.io.TempDir;
 import org.mockito.ArgumentCaptor;
@@ -65,17 +74,14 @@ public class IndexerTests {
       throws IOException {
     when(txManager.getTransaction(any(DefaultTransactionDefinition.class))).thenReturn(txStatus);
 
-    when(tokenizer.tokenizeWithPositions(anyString(), anyInt(), any(), any(), any(), any(), any()))
+    when(tokenizer.tokenize(anyString(), anyInt(), any(), any()))
         .thenAnswer(
             (Answer<Integer>)
                 invocation -> {
                   String text = invocation.getArgument(0);
                   int startPos = invocation.getArgument(1);
-                  List<String> tokens = invocation.getArgument(2);
-                  List<String> stems = invocation.getArgument(3);
-                  List<Integer> positions = invocation.getArgument(4);
-                  List<Section> sections = invocation.getArgument(5);
-                  Section section = invocation.getArgument(6);
+                  Section section = invocation.getArgument(2);
+                  TokenBuffer tokens = invocation.getArgument(3);
 
                   String[] words = text.toLowerCase().split("\\W+");
                   int pos = startPos;
@@ -83,10 +89,10 @@ public class IndexerTests {
                   for (String word : words) {
                     if (!word.isEmpty()) {
                       if (!stopWordsFilter.isStopWord(word)) {
-                        tokens.add(word);
-                        stems.add(word.length() > 1 ? word.substring(0, word.length() - 1) : word);
-                        positions.add(pos);
-                        sections.add(section);
+                        int termId = tokens.add(word, pos, section);
+                        tokens.setStem(
+                            termId,
+                            word.length() > 1 ? word.substring(0, word.length() - 1) : word);
                       }
                       pos++;
                     }
@@ -106,6 +112,19 @@ public class IndexerTests {
     File htmlFile = createHtmlFile("test.html", html);
     Document doc = createTestDocument(123, htmlFile.getAbsolutePath());
 
+    // The buffer is reused once the document is written, so read the sections during the call
+    List<Section> secs = new ArrayList<>();
+    doAnswer(
+            invocation -> {
+              TokenBuffer tokens = invocation.getArgument(1);
+              int from = invocation.getArgument(3);
+              int to = invocation.getArgument(4);
+              for (int i = from; i < to; i++) secs.add(tokens.section(i));
+              return null;
+            })
+        .when(databaseHelper)
+        .batchInsertDocumentWords(eq(123), any(TokenBuffer.class), any(), anyInt(), anyInt());
+
     indexer.indexDocument(doc);
 
     verify(txManager).getTransaction(any(DefaultTransactionDefinition.class));
@@ -114,22 +133,21 @@ public class IndexerTests {
     verify(databaseHelper)
         .updateDocumentMetadata(eq(123), eq("Test Title"), eq("Test Description"));
 
+    ArgumentCaptor<int[]> idsCaptor = ArgumentCaptor.forClass(int[].class);
+
+    verify(databaseHelper, atLeastOnce())
+        .batchInsertDocumentWords(eq(123), any(), idsCaptor.capture(), eq(0), anyInt());
+
+    // New words are registered once, with the IDs used by the postings, when the batch commits
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<List<Integer>> newIdsCaptor = ArgumentCaptor.forClass(List.class);
     @SuppressWarnings("unchecked")
     ArgumentCaptor<List<String>> wordsCaptor = ArgumentCaptor.forClass(List.class);
     @SuppressWarnings("unchecked")
     ArgumentCaptor<List<String>> stemsCaptor = ArgumentCaptor.forClass(List.class);
-    @SuppressWarnings("unchecked")
-    ArgumentCaptor<List<Integer>> posCaptor = ArgumentCaptor.forClass(List.class);
-    @SuppressWarnings("unchecked")
-    ArgumentCaptor<List<Section>> secCaptor = ArgumentCaptor.forClass(List.class);
-
-    verify(databaseHelper, atLeastOnce())
-        .batchInsertDocumentWords(
-            eq(123),
-            wordsCaptor.capture(),
-            stemsCaptor.capture(),
-            posCaptor.capture(),
-            secCaptor.capture());
+    verify(databaseHelper)
+        .insertWords(
+            newIdsCaptor.capture(), wordsCaptor.capture(), stemsCaptor.capture(), any(), any());
 
     List<String> tokens = wordsCaptor.getValue();
     assertTrue(tokens.contains("test"));
@@ -141,7 +159,8 @@ public class IndexerTests {
     assertTrue(stems.contains("documen"));
     assertTrue(stems.contains("conten"));
 
-    List<Section> secs = secCaptor.getValue();
+    for (int id : idsCaptor.getValue()) assertTrue(newIdsCaptor.getValue().contains(id));
+
     assertTrue(secs.contains(Section.TITLE));
     assertTrue(secs.contains(Section.BODY));
 
@@ -163,16 +182,183 @@ public class IndexerTests {
   }
 
   @Test
-  void testIndex_WithNonexistentFile_ShouldRollbackAndContinue() throws SQLException {
-    when(txManager.getTransaction(any(DefaultTransactionDefinition.class))).thenReturn(txStatus);
-
+  void testIndex_WithNonexistentFile_ShouldSkipAndContinue() throws SQLException {
     Document badDoc = createTestDocument(1, "/no-such-file.html");
     when(databaseHelper.getUnindexedDocuments()).thenReturn(List.of(badDoc));
 
     indexer.index();
 
-    verify(txManager).getTransaction(any(DefaultTransactionDefinition.class));
-    verify(txManager).rollback(eq(txStatus));
+    verify(txManager, never()).getTransaction(any(DefaultTransactionDefinition.class));
+    verify(databaseHelper, never()).updateIndexTime(anyInt());
     verify(databaseHelper).getUnindexedDocuments();
   }
+
+  @Test
+  void testIndex_WithSeveralDocuments_ShouldWriteThemInBatches() throws IOException {
+    when(txManager.getTransaction(any(DefaultTransactionDefinition.class))).thenReturn(txStatus);
+    setField(indexer, "batchSize", 2);
+    setField(indexer, "parallelism", 3);
+
+    String html = "<html><head><title>T</title></head><body><p>Body</p></body></html>";
+    Document d1 = createTestDocument(1, createHtmlFile("d1.html", html).getAbsolutePath());
+    Document d2 = createTestDocument(2, createHtmlFile("d2.html", html).getAbsolutePath());
+    Document d3 = createTestDocument(3, createHtmlFile("d3.html", html).getAbsolutePath());
+    Document bad = createTestDocument(4, "/no-such-file.html");
+    when(databaseHelper.getUnindexedDocuments()).thenReturn(List.of(d1, d2, bad, d3));
+
+    indexer.index();
+
+    verify(txManager, times(2)).getTransaction(any(DefaultTransactionDefinition.class));
+    verify(txManager, times(2)).commit(eq(txStatus));
+    verify(databaseHelper).updateIndexTime(eq(1));
+    verify(databaseHelper).updateIndexTime(eq(2));
+    verify(databaseHelper).updateIndexTime(eq(3));
+    verify(databaseHelper, never()).updateIndexTime(eq(4));
+  }
+
+  @Test
+  @Timeout(10)
+  void testIndex_WithErrorWhileParsing_ShouldSkipDocumentWithoutHanging() throws IOException {
+    when(txManager.getTransaction(any(DefaultTransactionDefinition.class))).thenReturn(txStatus);
+    // Lenient, the other document's title can reach the tokenizer first
+    lenient()
+        .when(tokenizer.tokenize(eq("Deep"), anyInt(), any(), any()))
+        .thenThrow(new StackOverflowError("too deep"));
+
+    String page = "<html><head><title>%s</title></head><body><p>Body</p></body></html>";
+    Document ok =
+        createTestDocument(1, createHtmlFile("ok.html", page.formatted("Fine")).getPath());
+    Document deep =
+        createTestDocument(2, createHtmlFile("deep.html", page.formatted("Deep")).getPath());
+    when(databaseHelper.getUnindexedDocuments()).thenReturn(List.of(deep, ok));
+
+    indexer.index();
+
+    verify(databaseHelper).updateIndexTime(eq(1));
+    verify(databaseHelper, never()).updateIndexTime(eq(2));
+  }
+
+  @Test
+  void testIndex_WithFailingSegmentWrite_ShouldRemoveStaleSegment() throws IOException {
+    File segment = createHtmlFile("index.seg", "stale");
+    setField(indexer, "segmentPath", segment.getPath());
+    when(databaseHelper.getUnindexedDocuments()).thenReturn(List.of());
+    doThrow(new RuntimeException("db down")).when(databaseHelper).forEachPosting(any());
+
+    indexer.index();
+
+    assertFalse(segment.exists(), "The old segment must not be served after a failed write");
+  }
+
+  @Test
+  void testWriteBatch_WithFailingDocument_ShouldRollbackAndRetryIndividually() {
+    when(txManager.getTransaction(any(DefaultTransactionDefinition.class))).thenReturn(txStatus);
+    lenient()
+        .doThrow(new RuntimeException("boom"))
+        .when(databaseHelper)
+        .updateDocumentMetadata(eq(2), any(), any());
+
+    List<ParsedDocument> batch =
+        List.of(
+            parsedDocument(createTestDocument(1, "/a.html")),
+            parsedDocument(createTestDocument(2, "/b.html")));
+
+    int written = indexer.writeBatch(batch);
+
+    assertEquals(1, written);
+    verify(txManager, times(2)).rollback(eq(txStatus));
+    verify(txManager).commit(eq(txStatus));
+    // once in the rolled back batch, once on its own
+    verify(databaseHelper, times(2)).updateIndexTime(eq(1));
+    verify(databaseHelper, never()).updateIndexTime(eq(2));
+  }
+
+  @Test
+  void testWriteBatch_WithChangedDocument_ShouldApplyOnlyPostingDeltas() throws IOException {
+    when(txManager.getTransaction(any(DefaultTransactionDefinition.class))).thenReturn(txStatus);
+    when(tokenizer.tokenize(anyString(), anyInt(), any(), any()))
+        .thenAnswer(
+            (Answer<Integer>)
+                invocation -> {
+                  int pos = invocation.getArgument(1);
+                  TokenBuffer tokens = invocation.getArgument(3);
+                  for (String word :
+                      invocation.<String>getArgument(0).toLowerCase().split("\\W+")) {
+                    int termId = tokens.add(word, pos++, invocation.getArgument(2));
+                    tokens.setStem(termId, word);
+                  }
+                  return pos;
+                });
+    when(databaseHelper.getWordIds(any())).thenReturn(Map.of("cat", 10, "dog", 11));
+    when(databaseHelper.getMaxWordId()).thenReturn(12);
+    // Stored postings: cat and dog where they still are, fish where bird now is
+    doAnswer(
+            invocation -> {
+              DatabaseHelper.PostingConsumer consumer = invocation.getArgument(1);
+              consumer.accept(10, 7, 0, Section.TITLE);
+              consumer.accept(11, 7, 1, Section.BODY);
+              consumer.accept(12, 7, 2, Section.BODY);
+              return null;
+            })
+        .when(databaseHelper)
+        .forEachDocumentPosting(eq(7), any());
+
+    String html = "<html><head><title>Cat</title></head><body><p>dog bird</p></body></html>";
+    Document doc =
+        new Document(
+            7,
+            null,
+            null,
+            null,
+            createHtmlFile("changed.html", html).getAbsolutePath(),
+            null,
+            "new-hash",
+            true);
+
+    assertEquals(1, indexer.writeBatch(List.of(indexer.parseDocument(doc))));
+
+    ArgumentCaptor<int[]> deletedWords = ArgumentCaptor.forClass(int[].class);
+    ArgumentCaptor<int[]> deletedPositions = ArgumentCaptor.forClass(int[].class);
+    verify(databaseHelper)
+        .deleteDocumentWords(eq(7), deletedWords.capture(), deletedPositions.capture(), eq(1));
+    assertEquals(12, deletedWords.getValue()[0]);
+    assertEquals(2, deletedPositions.getValue()[0]);
+
+    ArgumentCaptor<int[]> inserted = ArgumentCaptor.forClass(int[].class);
+    ArgumentCaptor<int[]> wordIds = ArgumentCaptor.forClass(int[].class);
+    verify(databaseHelper)
+        .batchInsertDocumentWords(
+            eq(7), any(TokenBuffer.class), wordIds.capture(), inserted.capture(), eq(1));
+    assertEquals(2, inserted.getValue()[0]);
+    assertEquals(13, wordIds.getValue()[2]);
+
+    // Unchanged words net out, fish leaves the document and bird is new
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<Map<Integer, Integer>> counts = ArgumentCaptor.forClass(Map.class);
+    @SuppressWarnings("unchecked")
+    ArgumentCaptor<Map<Integer, Integer>> docFrequencies = ArgumentCaptor.forClass(Map.class);
+    verify(databaseHelper).incrementWordCounts(counts.capture(), docFrequencies.capture());
+    assertEquals(-1, counts.getValue().get(12));
+    assertEquals(-1, docFrequencies.getValue().get(12));
+    assertEquals(0, counts.getValue().getOrDefault(10, 0));
+    assertEquals(0, docFrequencies.getValue().getOrDefault(10, 0));
+    verify(databaseHelper)
+        .insertWords(eq(List.of(13)), eq(List.of("bird")), any(), any(), eq(List.of(1)));
+    verify(databaseHelper).updateFTSEntry(eq(7), anyString());
+    verify(databaseHelper).updateIndexedHash(7, "new-hash");
+  }
+
+  private ParsedDocument parsedDocument(Document document) {
+    return new ParsedDocument(document, "t", "d", new TokenBuffer(), "t d");
+  }
+
+  private void setField(Object target, String fieldName, Object value) {
+    try {
+      var field = target.getClass().getDeclaredField(fieldName);
+      field.setAccessible(true);
+      field.set(target, value);
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
 }
@@ -0,0 +1,26 @@
+package com.sherlook.search.indexer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class StemmerTests {
+
+  @Test
+  void testStemAll_WithCachedAndNewWords_ShouldMatchStemmingOneByOne() {
+    List<String> words =
+        List.of("running", "cats", "running", "connection", "x".repeat(300), "ponies", "cats");
+    List<String> expected = new ArrayList<>();
+    Stemmer reference = new Stemmer(0);
+    for (String word : words) expected.add(reference.stem(word));
+
+    Stemmer stemmer = new Stemmer(100);
+    stemmer.stem("cats");
+    assertEquals(expected, stemmer.stemAll(words));
+    // Second pass is served from the cache
+    assertEquals(expected, stemmer.stemAll(words));
+    assertEquals(List.of("run", "cat", "run", "connect"), expected.subList(0, 4));
+  }
+}
@@ -0,0 +1,69 @@
+package com.sherlook.search.indexer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.sherlook.search.utils.DatabaseHelper;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+public class TermDictionaryTests {
+
+  @Mock private DatabaseHelper databaseHelper;
+
+  private TermDictionary dictionary;
+
+  @BeforeEach
+  void setUp() {
+    dictionary = new TermDictionary(databaseHelper);
+  }
+
+  @Test
+  void testResolve_WithWarmDictionary_ShouldAssignNewIdsWithoutQueries() {
+    when(databaseHelper.getWordIds()).thenReturn(Map.of("search", 4));
+    when(databaseHelper.getMaxWordId()).thenReturn(7);
+    dictionary.warm();
+
+    int[] ids =
+        dictionary.resolve(
+            List.of("search", "engine", "search"), List.of("search", "engin", "search"));
+
+    assertArrayEquals(new int[] {4, 8, 4}, ids);
+    verify(databaseHelper, never()).getWordIds(anyCollection());
+
+    dictionary.flush();
+
+    verify(databaseHelper)
+        .insertWords(List.of(8), List.of("engine"), List.of("engin"), List.of(1), List.of(1));
+    // Two occurrences, one document
+    verify(databaseHelper).incrementWordCounts(Map.of(4, 2), Map.of(4, 1));
+    assertFalse(dictionary.hasPendingChanges());
+  }
+
+  @Test
+  void testDiscardPending_WithUnflushedWords_ShouldReuseTheirIds() {
+    when(databaseHelper.getWordIds()).thenReturn(Map.of());
+    when(databaseHelper.getMaxWordId()).thenReturn(0);
+    dictionary.warm();
+
+    dictionary.resolve(List.of("rolled", "back"), List.of("roll", "back"));
+    dictionary.discardPending();
+    int[] ids = dictionary.resolve(List.of("back"), List.of("back"));
+
+    assertArrayEquals(new int[] {1}, ids);
+    assertEquals(1, dictionary.size());
+    verify(databaseHelper, never()).insertWords(any(), any(), any(), any(), any());
+  }
+}
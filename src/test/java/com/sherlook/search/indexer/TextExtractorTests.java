@@ -0,0 +1,30 @@
+package com.sherlook.search.indexer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import org.jsoup.Jsoup;
+import org.junit.jupiter.api.Test;
+
+class TextExtractorTests {
+
+  @Test
+  void testExtract_WithNestedMarkup_ShouldEmitEachTextOnceWithItsSection() {
+    String html =
+        "<html><head><title>Ignored</title><style>p { color: red }</style></head><body>"
+            + "<div><div><p>Deeply <b>nested</b>text</p><p>second<br>line</p></div></div>"
+            + "<h2>A <em>header</em></h2>"
+            + "<script>var hidden = 1;</script>"
+            + "<ul><li>one</li><li>two</li></ul>"
+            + "</body></html>";
+
+    List<TextExtractor.Run> runs = TextExtractor.extract(Jsoup.parse(html).body());
+
+    assertEquals(
+        List.of(
+            new TextExtractor.Run("Deeply nestedtext second line", Section.BODY),
+            new TextExtractor.Run("A header", Section.HEADER),
+            new TextExtractor.Run("one two", Section.BODY)),
+        runs);
+  }
+}
@@ -0,0 +1,44 @@
+package com.sherlook.search.indexer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class TokenizerTests {
+
+  private final Tokenizer tokenizer = new Tokenizer();
+
+  @Test
+  void testTokenize_WithMixedText_ShouldFillBufferWithInternedTerms() {
+    TokenBuffer tokens = new TokenBuffer();
+
+    int next = tokenizer.tokenize("The Running-cats, is RUNNING!", 5, Section.HEADER, tokens);
+    next = tokenizer.tokenize("cats_2 café", next, Section.BODY, tokens);
+
+    // Stop words are dropped without taking a position
+    assertEquals(10, next);
+    assertEquals(5, tokens.size());
+    assertEquals(List.of("running", "cats", "cats_2", "caf"), tokens.terms());
+    assertEquals(tokens.termId(0), tokens.termId(2));
+    assertEquals(2, tokens.occurrences(tokens.termId(0)));
+    assertEquals("run", tokens.stem(tokens.termId(0)));
+    assertEquals("cat", tokens.stem(tokens.termId(1)));
+    assertEquals(List.of(5, 6, 7, 8, 9), positions(tokens));
+    assertEquals(Section.HEADER, tokens.section(2));
+    assertEquals(Section.BODY, tokens.section(3));
+
+    List<String> words = new ArrayList<>();
+    List<String> stems = new ArrayList<>();
+    tokenizer.tokenizeQuery("the running cats", words, stems);
+    assertEquals(List.of("running", "cats"), words);
+    assertEquals(List.of("run", "cat"), stems);
+  }
+
+  private static List<Integer> positions(TokenBuffer tokens) {
+    List<Integer> positions = new ArrayList<>();
+    for (int i = 0; i < tokens.size(); i++) positions.add(tokens.position(i));
+    return positions;
+  }
+}
@@ -0,0 +1,96 @@
+package com.sherlook.search.ranker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.sherlook.search.utils.DatabaseHelper;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@ExtendWith(MockitoExtension.class)
+class PageRankCacheTests {
+
+  @Mock private DatabaseHelper databaseHelper;
+
+  private PageRankCache cache;
+  private double[] stored;
+
+  @BeforeEach
+  void setUp() {
+    cache = new PageRankCache(databaseHelper);
+    ReflectionTestUtils.setField(cache, "reloadIntervalMs", 0L);
+    stored = new double[] {0.0, 0.25, 0.5};
+  }
+
+  private void stubScores() {
+    when(databaseHelper.getMaxDocumentId()).thenReturn(2L);
+    doAnswer(
+            invocation -> {
+              DatabaseHelper.PageRankConsumer consumer = invocation.getArgument(0);
+              consumer.accept(1, stored[1]);
+              consumer.accept(2, stored[2]);
+              // Crawled after the size was read
+              consumer.accept(5, 0.125);
+              return null;
+            })
+        .when(databaseHelper)
+        .forEachPageRank(any());
+  }
+
+  @Test
+  void testLoad_WithStoredScores_ShouldServeFromMemory() {
+    stubScores();
+    when(databaseHelper.getPageRankGeneration()).thenReturn(3L);
+
+    cache.load();
+
+    assertTrue(cache.isLoaded());
+    assertEquals(3L, cache.getGeneration());
+    assertEquals(0.25, cache.getPageRank(1));
+    assertEquals(0.125, cache.getPageRank(5));
+    assertEquals(0.0, cache.getPageRank(42));
+    assertEquals(0.5, cache.getMaxPageRank());
+    Map<Integer, Double> scores = cache.getPageRank(List.of(2, 5, 99));
+    assertEquals(Map.of(2, 0.5, 5, 0.125), scores);
+  }
+
+  @Test
+  void testReloadIfChanged_WithNewGeneration_ShouldSwapScores() {
+    stubScores();
+    when(databaseHelper.getPageRankGeneration()).thenReturn(1L, 1L, 2L, 2L);
+    cache.load();
+
+    // Same generation, nothing is read
+    cache.reloadIfChanged();
+    verify(databaseHelper, times(1)).forEachPageRank(any());
+
+    stored[1] = 0.75;
+    cache.reloadIfChanged();
+
+    verify(databaseHelper, times(2)).forEachPageRank(any());
+    assertEquals(2L, cache.getGeneration());
+    assertEquals(0.75, cache.getPageRank(1));
+    assertEquals(0.75, cache.getMaxPageRank());
+  }
+
+  @Test
+  void testLoad_WhenDisabled_ShouldStayUnloaded() {
+    ReflectionTestUtils.setField(cache, "enabled", false);
+
+    cache.load();
+
+    assertFalse(cache.isLoaded());
+  }
+}
@@ -0,0 +1,44 @@
+package com.sherlook.search.ranker;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+public class PageRankTests {
+
+  // Spans several blocks so the parallel mode actually splits the work
+  private static Graph randomGraph(int nodes, int links) {
+    Random random = new Random(42);
+    int[] docIds = new int[nodes];
+    for (int i = 0; i < nodes; i++) docIds[i] = i + 1;
+    int[] sources = new int[links];
+    int[] targets = new int[links];
+    for (int i = 0; i < links; i++) {
+      sources[i] = 1 + random.nextInt(nodes);
+      // Only half of the documents receive links, the rest can still be dangling
+      targets[i] = 1 + random.nextInt(nodes / 2);
+    }
+    return Graph.build(docIds, sources, targets, links);
+  }
+
+  @Test
+  void testCompute_WithDifferentThreadCounts_ShouldReturnIdenticalScores() {
+    Graph graph = randomGraph(20000, 60000);
+
+    double[] two = new PageRank(0.85, 1e-9, 100, 2).compute(graph);
+    double[] eight = new PageRank(0.85, 1e-9, 100, 8).compute(graph);
+
+    assertArrayEquals(two, eight);
+  }
+
+  @Test
+  void testCompute_WithParallelism_ShouldMatchSequentialScoresExactly() {
+    Graph graph = randomGraph(20000, 60000);
+
+    double[] sequential = new PageRank(0.85, 1e-9, 100).compute(graph);
+    double[] parallel = new PageRank(0.85, 1e-9, 100, 4).compute(graph);
+
+    assertArrayEquals(sequential, parallel, 0.0);
+  }
+}
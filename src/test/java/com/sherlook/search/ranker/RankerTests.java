@@ -3,10 +3,22 @@ package com.sherlook.search.ranker;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.sherlook.search.index.IndexedDocument;
+import com.sherlook.search.index.InvertedIndex;
+import com.sherlook.search.index.PostingList;
+import com.sherlook.search.indexer.Section;
 import com.sherlook.search.utils.DatabaseHelper;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -15,11 +27,14 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
 
 @ExtendWith(MockitoExtension.class)
 class RankerTests {
 
   @Mock private DatabaseHelper databaseHelper;
+  @Mock private InvertedIndex invertedIndex;
+  @Mock private PageRankCache pageRankCache;
 
   @InjectMocks private Ranker ranker;
 
@@ -121,6 +136,137 @@ class RankerTests {
     assertEquals(0.0149, doc3.getTfIdf(), 0.001, "Document 3 TF-IDF score");
   }
 
+  @Test
+  void testGetPageWithSnippets_WithTopK_ShouldMatchFullSortWhileFetchingFewPageRanks() {
+    List<String> queryTerms = List.of("w");
+    List<DocumentTerm> documentTerms = new ArrayList<>();
+    Map<Integer, Double> pageRanks = new HashMap<>();
+    for (int docId = 1; docId <= 50; docId++) {
+      List<Integer> positions = new ArrayList<>();
+      for (int p = 0; p < docId; p++) positions.add(p);
+      documentTerms.add(
+          new DocumentTerm("w", docId, "u" + docId, "t", 100, "d", Map.of("body", positions)));
+      pageRanks.put(docId, (docId % 7) * 0.05);
+    }
+    when(databaseHelper.getDocumentTerms(queryTerms)).thenReturn(documentTerms);
+    when(databaseHelper.getIDF(queryTerms)).thenReturn(Map.of("w", 1.0));
+    when(databaseHelper.getMaxPageRank()).thenReturn(0.3);
+    List<Integer> fetched = new ArrayList<>();
+    when(databaseHelper.getPageRank(anyList()))
+        .thenAnswer(
+            invocation -> {
+              List<Integer> ids = invocation.getArgument(0);
+              fetched.addAll(ids);
+              return pageRanks;
+            });
+
+    List<Integer> expected =
+        pageRanks.keySet().stream()
+            .sorted(
+                Comparator.comparingDouble(
+                    (Integer id) -> -(0.7 * id / 100.0 + 0.3 * pageRanks.get(id))))
+            .collect(Collectors.toList());
+
+    Ranker.RankingResult result = ranker.rankAndStoreTotalDocuments(queryTerms, false);
+    List<RankedDocument> firstPage = ranker.getPageWithSnippets(result, queryTerms, 0, 10);
+
+    assertEquals(50, result.getTotalDocuments());
+    assertEquals(
+        expected.subList(0, 10),
+        firstPage.stream().map(RankedDocument::getDocId).collect(Collectors.toList()));
+    assertTrue(fetched.size() < 50, "Only candidates that can reach the page are fetched");
+
+    // Paging past what was ranked extends the same result
+    List<RankedDocument> lastPage = ranker.getPageWithSnippets(result, queryTerms, 40, 10);
+    assertEquals(
+        expected.subList(40, 50),
+        lastPage.stream().map(RankedDocument::getDocId).collect(Collectors.toList()));
+    assertEquals(50, new HashSet<>(fetched).size());
+    assertEquals(50, fetched.size());
+  }
+
+  @Test
+  void testGetPageWithSnippets_WithMaxScore_ShouldMatchFullRankingWhileScoringFewDocuments() {
+    List<String> queryTerms = List.of("common", "rare");
+    Map<Integer, IndexedDocument> documents = new HashMap<>();
+    Map<Integer, Double> pageRanks = new HashMap<>();
+    PostingList.Builder common = new PostingList.Builder(id -> documents.get(id).getSize());
+    PostingList.Builder rare = new PostingList.Builder(id -> documents.get(id).getSize());
+    List<DocumentTerm> allTerms = new ArrayList<>();
+    for (int docId = 1; docId <= 200; docId++) {
+      documents.put(docId, new IndexedDocument(docId, "u" + docId, "t", "d", 100 + docId));
+      pageRanks.put(docId, (docId % 11) * 0.001);
+      common.add(docId, Section.BODY, 0);
+      allTerms.add(
+          new DocumentTerm(
+              "common", docId, "u" + docId, "t", 100 + docId, "d", Map.of("body", List.of(0))));
+      if (docId % 4 == 0) {
+        List<Integer> positions = new ArrayList<>();
+        for (int p = 1; p <= docId % 7 + 1; p++) {
+          rare.add(docId, Section.TITLE, p);
+          positions.add(p);
+        }
+        allTerms.add(
+            new DocumentTerm(
+                "rare", docId, "u" + docId, "t", 100 + docId, "d", Map.of("title", positions)));
+      }
+    }
+    Map<String, PostingList> postings = Map.of("common", common.build(), "rare", rare.build());
+
+    when(invertedIndex.isLoaded()).thenReturn(true);
+    when(invertedIndex.getPostings(anyString()))
+        .thenAnswer(invocation -> postings.get(invocation.getArgument(0)));
+    when(invertedIndex.hasDocument(anyInt()))
+        .thenAnswer(invocation -> documents.containsKey(invocation.getArgument(0)));
+    when(invertedIndex.getDocumentSize(anyInt()))
+        .thenAnswer(invocation -> documents.get(invocation.getArgument(0)).getSize());
+    when(invertedIndex.getDocument(anyInt()))
+        .thenAnswer(invocation -> documents.get(invocation.getArgument(0)));
+    when(databaseHelper.getIDF(queryTerms)).thenReturn(Map.of("common", 0.1, "rare", 3.0));
+    when(databaseHelper.getMaxPageRank()).thenReturn(0.01);
+    when(databaseHelper.getPageRank(anyList())).thenReturn(pageRanks);
+    ReflectionTestUtils.setField(ranker, "maxScoreInitialK", 10);
+
+    List<Integer> expected =
+        ranker.getDocumentTfIdf(queryTerms, allTerms).stream()
+            .sorted(
+                Comparator.comparingDouble(
+                    (RankedDocument doc) ->
+                        -(0.7 * doc.getTfIdf() + 0.3 * pageRanks.get(doc.getDocId()))))
+            .map(RankedDocument::getDocId)
+            .collect(Collectors.toList());
+
+    Ranker.RankingResult result = ranker.rankAndStoreTotalDocuments(queryTerms, false);
+    List<RankedDocument> firstPage = ranker.getPageWithSnippets(result, queryTerms, 0, 10);
+
+    assertEquals(200, result.getTotalDocuments());
+    assertEquals(
+        expected.subList(0, 10),
+        firstPage.stream().map(RankedDocument::getDocId).collect(Collectors.toList()));
+    // Strings are filled in only for the returned page
+    assertEquals("u" + expected.get(0), firstPage.get(0).getUrl());
+    // Positions are decoded for the returned page only
+    assertTrue(result.getDocumentTerms().isEmpty());
+    verify(invertedIndex).getDocumentTerms(queryTerms, new HashSet<>(expected.subList(0, 10)));
+
+    // Paging deep runs MaxScore again for more documents
+    List<RankedDocument> deepPage = ranker.getPageWithSnippets(result, queryTerms, 150, 10);
+    assertEquals(
+        expected.subList(150, 160),
+        deepPage.stream().map(RankedDocument::getDocId).collect(Collectors.toList()));
+
+    // Without MaxScore every match is scored straight off the posting lists
+    ReflectionTestUtils.setField(ranker, "maxScoreEnabled", false);
+    Ranker.RankingResult full = ranker.rankAndStoreTotalDocuments(queryTerms, false);
+    assertEquals(200, full.getTotalDocuments());
+    assertTrue(full.getDocumentTerms().isEmpty());
+    assertEquals(
+        expected.subList(0, 10),
+        ranker.getPageWithSnippets(full, queryTerms, 0, 10).stream()
+            .map(RankedDocument::getDocId)
+            .collect(Collectors.toList()));
+  }
+
   // pagerank tests
   @Test
   public void testComputePageRank_SimpleGraph() {
@@ -174,6 +320,19 @@ class RankerTests {
     assertEquals(1.0, sum, 0.05, "Scores should sum to approximately 1");
   }
 
+  @Test
+  public void testComputePageRank_LinkToUnknownDocument() {
+    // Links to or from documents outside docIds are ignored, so 1 <-> 2 stays balanced
+    List<Integer> docIds = Arrays.asList(1, 2);
+    List<Link> links = Arrays.asList(new Link(1, 2), new Link(2, 1), new Link(1, 99));
+
+    Map<Integer, Double> scores = ranker.computePageRank(docIds, links);
+
+    assertEquals(2, scores.size(), "Should only have scores for known documents");
+    assertEquals(0.5, scores.get(1), 0.0001, "Doc 1 score incorrect");
+    assertEquals(0.5, scores.get(2), 0.0001, "Doc 2 score incorrect");
+  }
+
   @Test
   public void testComputePageRank_ComplexGraph() {
     // Complex graph:
@@ -7,8 +7,13 @@ import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import com.sherlook.search.index.ForwardText;
+import com.sherlook.search.index.IndexedDocument;
+import com.sherlook.search.index.PositionBlob;
 import com.sherlook.search.indexer.Document;
 import com.sherlook.search.indexer.Section;
+import com.sherlook.search.ranker.DocumentTerm;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
@@ -20,6 +25,7 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.jdbc.UncategorizedSQLException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.annotation.Rollback;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.transaction.annotation.Transactional;
 
 @SpringBootTest
@@ -222,6 +228,88 @@ class DatabaseHelperTests {
     assertEquals(Section.BODY.toString(), wordEntries.get(2).get("section"));
   }
 
+  @Test
+  void testGetIDF_WithWordsInSeveralDocuments_ShouldUseMaintainedDocumentFrequency() {
+    String first = TEST_URL_PREFIX + "idf-first";
+    String second = TEST_URL_PREFIX + "idf-second";
+    databaseHelper.insertDocument(first, TEST_TITLE, TEST_DESCRIPTION, TEST_FILE_PATH, TEST_HASH);
+    databaseHelper.insertDocument(second, TEST_TITLE, TEST_DESCRIPTION, TEST_FILE_PATH, TEST_HASH);
+    List<Section> sections = Arrays.asList(Section.BODY, Section.BODY, Section.BODY);
+    databaseHelper.batchInsertDocumentWords(
+        databaseHelper.getDocumentId(first),
+        Arrays.asList("zqshared", "zqonly", "zqshared"),
+        Arrays.asList(0, 1, 2),
+        sections);
+    databaseHelper.batchInsertDocumentWords(
+        databaseHelper.getDocumentId(second),
+        Arrays.asList("zqshared"),
+        Arrays.asList(0),
+        sections.subList(0, 1));
+
+    Map<String, Double> idf = databaseHelper.getIDF(List.of("zqshared", "zqonly"));
+
+    int total = databaseHelper.getTotalDocumentCount();
+    assertEquals(DatabaseHelper.idf(total, 2), idf.get("zqshared"), 1e-9);
+    assertEquals(DatabaseHelper.idf(total, 1), idf.get("zqonly"), 1e-9);
+  }
+
+  @Test
+  void testGetDocumentTerms_WithAggregatedLayout_ShouldReadPositionsFromPostingRows() {
+    String url = TEST_URL_PREFIX + "aggregated";
+    databaseHelper.insertDocument(url, TEST_TITLE, TEST_DESCRIPTION, TEST_FILE_PATH, TEST_HASH);
+    int documentId = databaseHelper.getDocumentId(url);
+    databaseHelper.insertWords(
+        List.of(900001, 900002),
+        List.of("zqaggregate", "zqneighbour"),
+        List.of("zqaggreg", "zqneighbour"),
+        List.of(3, 1),
+        List.of(1, 1));
+    PositionBlob.Builder builder = new PositionBlob.Builder();
+    builder.add(Section.TITLE, 0);
+    builder.add(Section.BODY, 7);
+    builder.add(Section.BODY, 12);
+    byte[] aggregate = builder.build();
+    builder.add(Section.BODY, 8);
+    byte[] neighbour = builder.build();
+
+    ReflectionTestUtils.setField(databaseHelper, "postingsLayout", "aggregated");
+    try {
+      databaseHelper.insertDocumentPostings(
+          documentId, new int[] {900001, 900002}, new byte[][] {aggregate, neighbour});
+
+      List<DocumentTerm> terms = databaseHelper.getDocumentTerms(List.of("zqaggregate"));
+      assertEquals(1, terms.size());
+      assertEquals(documentId, terms.get(0).getDocumentId());
+      assertEquals(
+          Map.of("title", List.of(0), "body", List.of(7, 12)),
+          terms.get(0).getPositionsBySection());
+
+      Map<Integer, Map<Integer, String>> around =
+          databaseHelper.getWordsAroundPositions(Map.of(documentId, List.of(7)), 1);
+      assertEquals(Map.of(7, "zqaggregate", 8, "zqneighbour"), around.get(documentId));
+    } finally {
+      ReflectionTestUtils.setField(databaseHelper, "postingsLayout", "rows");
+    }
+  }
+
+  @Test
+  void testMigrateToAggregatedPostings_WithAggregatedRowsUnderRowsLayout_ShouldRefuse() {
+    String url = TEST_URL_PREFIX + "layout";
+    databaseHelper.insertDocument(url, TEST_TITLE, TEST_DESCRIPTION, TEST_FILE_PATH, TEST_HASH);
+    int documentId = databaseHelper.getDocumentId(url);
+    PositionBlob.Builder builder = new PositionBlob.Builder();
+    builder.add(Section.BODY, 0);
+    databaseHelper.insertDocumentPostings(
+        documentId, new int[] {900003}, new byte[][] {builder.build()});
+
+    ReflectionTestUtils.setField(databaseHelper, "postingsLayoutChecked", false);
+    try {
+      assertThrows(IllegalStateException.class, databaseHelper::migrateToAggregatedPostings);
+    } finally {
+      ReflectionTestUtils.setField(databaseHelper, "postingsLayoutChecked", false);
+    }
+  }
+
   @Test
   void testGetUnindexedDocuments() {
     String url1 = TEST_URL_PREFIX + "indexed";
@@ -320,4 +408,78 @@ class DatabaseHelperTests {
 
     assertEquals(0, emptyWordCount, "Empty document should have 0 words");
   }
+
+  @Test
+  void testGetDocumentMetadata_WithKnownAndUnknownIds_ShouldReturnKnownOnly() {
+    String url = TEST_URL_PREFIX + "metadata";
+    databaseHelper.insertDocument(url, TEST_TITLE, TEST_DESCRIPTION, TEST_FILE_PATH, TEST_HASH);
+    int documentId = databaseHelper.getDocumentId(url);
+
+    Map<Integer, IndexedDocument> metadata =
+        databaseHelper.getDocumentMetadata(List.of(documentId, -1));
+
+    assertEquals(1, metadata.size());
+    assertEquals(url, metadata.get(documentId).getUrl());
+    assertEquals(TEST_TITLE, metadata.get(documentId).getTitle());
+    assertEquals(TEST_DESCRIPTION, metadata.get(documentId).getDescription());
+  }
+
+  @Test
+  void testUpdateDocumentText_WithReindexedDocument_ShouldReturnLatestText() {
+    String url = TEST_URL_PREFIX + "forward";
+    databaseHelper.insertDocument(url, TEST_TITLE, TEST_DESCRIPTION, TEST_FILE_PATH, TEST_HASH);
+    int documentId = databaseHelper.getDocumentId(url);
+
+    databaseHelper.updateDocumentText(documentId, new ForwardText("Old text", new int[] {0, 4}));
+    databaseHelper.updateDocumentText(
+        documentId, new ForwardText("New, longer text", new int[] {0, 5, 12}));
+
+    Map<Integer, ForwardText> texts = databaseHelper.getDocumentTexts(List.of(documentId, -1));
+    assertEquals(1, texts.size());
+    assertEquals("New, longer text", texts.get(documentId).getText());
+    assertEquals(3, texts.get(documentId).size());
+  }
+
+  @Test
+  void testIncrementPageRankGeneration_WithRepeatedRuns_ShouldCountUp() {
+    long before = databaseHelper.getPageRankGeneration();
+
+    databaseHelper.incrementPageRankGeneration();
+    databaseHelper.incrementPageRankGeneration();
+
+    assertEquals(before + 2, databaseHelper.getPageRankGeneration());
+  }
+
+  @Test
+  void testForEachLink_WithResolvedAndUnresolvedTargets_ShouldReturnBoth() {
+    String sourceUrl = TEST_URL_PREFIX + "link-source";
+    String knownUrl = TEST_URL_PREFIX + "link-known";
+    String laterUrl = TEST_URL_PREFIX + "link-later";
+    databaseHelper.insertDocument(sourceUrl, TEST_TITLE, null, TEST_FILE_PATH, TEST_HASH);
+    databaseHelper.insertDocument(knownUrl, TEST_TITLE, null, TEST_FILE_PATH, TEST_HASH);
+    int sourceId = databaseHelper.getDocumentId(sourceUrl);
+    int knownId = databaseHelper.getDocumentId(knownUrl);
+
+    // knownUrl is resolved on insert, laterUrl only exists once it is crawled afterwards
+    databaseHelper.insertLinks(sourceId, List.of(knownUrl, laterUrl));
+    databaseHelper.insertDocument(laterUrl, TEST_TITLE, null, TEST_FILE_PATH, TEST_HASH);
+    int laterId = databaseHelper.getDocumentId(laterUrl);
+
+    List<Integer> targets = new ArrayList<>();
+    databaseHelper.forEachLink(
+        (source, target) -> {
+          if (source == sourceId) targets.add(target);
+        });
+    assertEquals(2, targets.size(), "Resolved and unresolved links should both be returned");
+    assertTrue(targets.containsAll(List.of(knownId, laterId)));
+
+    assertEquals(1, databaseHelper.resolveLinkTargets(), "Only the new target needs resolving");
+    Integer resolved =
+        jdbcTemplate.queryForObject(
+            "SELECT target_document_id FROM links WHERE source_document_id = ? AND target_url = ?",
+            Integer.class,
+            sourceId,
+            laterUrl);
+    assertEquals(laterId, resolved);
+  }
 }